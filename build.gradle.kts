@@ -15,6 +15,14 @@ repositories {
     jcenter()
 }
 
+// Microbenchmarks, run with ./gradlew jmh
+val jmh: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets["main"].output
+    runtimeClasspath += sourceSets["main"].output
+}
+
+configurations[jmh.implementationConfigurationName].extendsFrom(configurations.implementation.get())
+
 dependencies {
     // Checks
     errorprone("com.google.errorprone:error_prone_core:2.3.3")
@@ -32,6 +40,10 @@ dependencies {
     // JUnit Jupiter test framework
     testCompile("org.junit.jupiter:junit-jupiter-api:5.4.0")
     testRuntime("org.junit.jupiter:junit-jupiter-engine:5.4.0")
+
+    // JMH microbenchmarks
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.23")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.23")
 }
 
 val run by tasks.getting(JavaExec::class) {
@@ -43,6 +55,13 @@ tasks {
         maxHeapSize = "128m"
         useJUnitPlatform()
     }
+
+    register<JavaExec>("jmh") {
+        description = "Runs the JMH microbenchmarks with the GC profiler reporting the allocation rate."
+        classpath = jmh.runtimeClasspath
+        main = "org.openjdk.jmh.Main"
+        args("-prof", "gc")
+    }
 }
 
 application {
@@ -63,4 +82,10 @@ tasks.withType<JavaCompile> {
 // Error prone options
 tasks.named<JavaCompile>("compileTestJava") {
     options.errorprone.isEnabled.set(false)
-}
\ No newline at end of file
+}
+
+// The code generated by JMH is not ours to lint
+tasks.named<JavaCompile>("compileJmhJava") {
+    options.errorprone.isEnabled.set(false)
+    options.compilerArgs.remove("-Werror")
+}
@@ -0,0 +1,163 @@
+package ru.mail.polis;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.mail.polis.nik27090.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Amplification of both compaction styles after several rounds of overwrites of 100k keys with 100-byte values.
+ * The score is the read cost, the time of a get of a random key, the counters are
+ * {@code write}, the bytes written by the process (logs and tables) per byte upserted,
+ * {@code space}, the size of the storage per byte of live records, and {@code tables} on disk.
+ * The written bytes are taken from {@code /proc/self/io}, so it runs on Linux only.
+ * Run with {@code ./gradlew jmh --args='AmplificationBenchmark'}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx128m")
+public class AmplificationBenchmark {
+    private static final int KEYS = 100_000;
+    private static final int ROUNDS = 10;
+    private static final int VALUE = 100;
+    private static final long RECORD = Long.BYTES + VALUE;
+    private static final long SETTLED_MILLIS = 2_000L;
+    private static final long SETTLE_TIMEOUT_MILLIS = 120_000L;
+
+    @Param({"TIERED", "LEVELED"})
+    public Config.CompactionStyle style;
+
+    private File data;
+    private DAO dao;
+    private double writeAmplification;
+
+    /**
+     * Reported once per iteration, the values do not change after the setup.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Amplification {
+        public double write;
+        public double space;
+        public int tables;
+
+        @Setup(Level.Iteration)
+        public void setUp(final AmplificationBenchmark benchmark) {
+            write = benchmark.writeAmplification;
+            space = (double) size(benchmark.data) / (KEYS * RECORD);
+            tables = tables(benchmark.data);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        data = Files.createTempDirectory("amplification").toFile();
+        dao = DAOFactory.create(
+                data,
+                Config.builder()
+                        .flushThreshold(1024 * 1024)
+                        .compactionBytesPerSecond(0)
+                        .compactionStyle(style)
+                        .build());
+        final long before = written();
+        final Random random = new Random(42);
+        final byte[] value = new byte[VALUE];
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < KEYS; i++) {
+                random.nextBytes(value);
+                dao.upsert(key(i), ByteBuffer.wrap(value));
+            }
+        }
+        awaitCompactions();
+        writeAmplification = (double) (written() - before) / (ROUNDS * KEYS * RECORD);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        dao.close();
+        final File[] files = data.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                Files.delete(file.toPath());
+            }
+        }
+        Files.delete(data.toPath());
+    }
+
+    @Benchmark
+    public ByteBuffer get(final Amplification amplification) throws IOException {
+        return dao.getIfPresent(key(ThreadLocalRandom.current().nextInt(KEYS)));
+    }
+
+    /**
+     * Distinct keys in scattered order, the multiplier is odd.
+     */
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(0, i * 0x9E3779B97F4A7C15L);
+    }
+
+    /**
+     * Waits for the background compactions to stop changing the set of tables.
+     */
+    private void awaitCompactions() throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + SETTLE_TIMEOUT_MILLIS;
+        long settled = System.currentTimeMillis();
+        long size = size(data);
+        while (System.currentTimeMillis() - settled < SETTLED_MILLIS && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100L);
+            final long current = size(data);
+            if (current != size) {
+                size = current;
+                settled = System.currentTimeMillis();
+            }
+        }
+    }
+
+    private static long written() throws IOException {
+        for (final String line : Files.readAllLines(Paths.get("/proc/self/io"))) {
+            if (line.startsWith("wchar:")) {
+                return Long.parseLong(line.substring("wchar:".length()).trim());
+            }
+        }
+        throw new IOException("No wchar in /proc/self/io");
+    }
+
+    private static long size(final File data) {
+        final File[] files = data.listFiles();
+        long result = 0L;
+        if (files != null) {
+            for (final File file : files) {
+                result += file.length();
+            }
+        }
+        return result;
+    }
+
+    private static int tables(final File data) {
+        final String[] names = data.list((dir, name) -> name.endsWith(".sst"));
+        return names == null ? 0 : names.length;
+    }
+}
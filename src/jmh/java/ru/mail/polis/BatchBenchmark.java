@@ -0,0 +1,91 @@
+package ru.mail.polis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.mail.polis.nik27090.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads of 10k records of 100 bytes as a {@link WriteBatch} against a loop of single upserts,
+ * an operation is a record.
+ * Run with {@code ./gradlew jmh --args='BatchBenchmark'}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx128m")
+public class BatchBenchmark {
+    private static final int RECORDS = 10_000;
+
+    @Param({"NONE", "ALWAYS"})
+    public Config.SyncMode syncMode;
+
+    private final ByteBuffer[] keys = new ByteBuffer[RECORDS];
+    private final ByteBuffer[] values = new ByteBuffer[RECORDS];
+    private final WriteBatch batch = new WriteBatch();
+    private File data;
+    private DAO dao;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final Random random = new Random(42);
+        for (int i = 0; i < RECORDS; i++) {
+            keys[i] = ByteBuffer.allocate(Long.BYTES).putLong(0, random.nextLong());
+            final byte[] value = new byte[100];
+            random.nextBytes(value);
+            values[i] = ByteBuffer.wrap(value);
+        }
+        data = Files.createTempDirectory("batch").toFile();
+        dao = DAOFactory.create(data, Config.builder().syncMode(syncMode).build());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        dao.close();
+        final File[] files = data.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                Files.delete(file.toPath());
+            }
+        }
+        Files.delete(data.toPath());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void upserts() throws IOException {
+        for (int i = 0; i < RECORDS; i++) {
+            dao.upsert(keys[i], values[i]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void batch() throws IOException {
+        batch.clear();
+        for (int i = 0; i < RECORDS; i++) {
+            batch.upsert(keys[i], values[i]);
+        }
+        dao.write(batch);
+    }
+}
@@ -0,0 +1,79 @@
+package ru.mail.polis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.mail.polis.nik27090.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Major compaction of 1M records of 100 bytes in leveled style by one thread against several,
+ * each operation rewrites all of them.
+ * Run with {@code ./gradlew jmh --args='CompactionBenchmark'}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx128m")
+public class CompactionBenchmark {
+    private static final int RECORDS = 1_000_000;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private File data;
+    private DAO dao;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        data = Files.createTempDirectory("compaction").toFile();
+        dao = DAOFactory.create(
+                data,
+                Config.builder()
+                        .compactionFanIn(0)
+                        .compactionThreads(threads)
+                        .compactionStyle(Config.CompactionStyle.LEVELED)
+                        .build());
+        final Random random = new Random(42);
+        final byte[] value = new byte[100];
+        for (int i = 0; i < RECORDS; i++) {
+            random.nextBytes(value);
+            dao.upsert(ByteBuffer.allocate(Long.BYTES).putLong(0, random.nextLong()), ByteBuffer.wrap(value));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        dao.close();
+        final File[] files = data.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                Files.delete(file.toPath());
+            }
+        }
+        Files.delete(data.toPath());
+    }
+
+    @Benchmark
+    public void compact() throws IOException {
+        dao.compact();
+    }
+}
@@ -0,0 +1,108 @@
+package ru.mail.polis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Upserts of 100-byte values with random keys by 1 to 16 writer threads into a single storage,
+ * an operation is a record, so the throughput shows how the writes scale with the threads.
+ * The writers are a pool of its own rather than JMH threads to sweep the count in a single run,
+ * each invocation splits the same number of records between them.
+ * Run with {@code ./gradlew jmh --args='ConcurrentUpsertBenchmark'}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx128m")
+@Threads(1)
+public class ConcurrentUpsertBenchmark {
+    private static final int RECORDS = 64 * 1024;
+
+    @Param({"1", "2", "4", "8", "16"})
+    public int threads;
+
+    private final ByteBuffer[] keys = new ByteBuffer[RECORDS];
+    private final ByteBuffer[] values = new ByteBuffer[RECORDS];
+    private ExecutorService writers;
+    private File data;
+    private DAO dao;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final Random random = new Random(42);
+        for (int i = 0; i < RECORDS; i++) {
+            keys[i] = ByteBuffer.allocate(Long.BYTES).putLong(0, random.nextLong());
+            final byte[] value = new byte[100];
+            random.nextBytes(value);
+            values[i] = ByteBuffer.wrap(value);
+        }
+        writers = Executors.newFixedThreadPool(threads);
+        data = Files.createTempDirectory("upsert").toFile();
+        dao = DAOFactory.create(data);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, InterruptedException {
+        writers.shutdown();
+        writers.awaitTermination(1, TimeUnit.MINUTES);
+        dao.close();
+        final File[] files = data.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                Files.delete(file.toPath());
+            }
+        }
+        Files.delete(data.toPath());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void upserts() throws InterruptedException, ExecutionException {
+        final List<Future<?>> parts = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            final int from = RECORDS / threads * t;
+            final int to = RECORDS / threads * (t + 1);
+            parts.add(writers.submit(() -> {
+                for (int i = from; i < to; i++) {
+                    try {
+                        dao.upsert(keys[i], values[i]);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }));
+        }
+        for (final Future<?> part : parts) {
+            part.get();
+        }
+    }
+}
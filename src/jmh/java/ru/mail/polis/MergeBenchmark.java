@@ -0,0 +1,92 @@
+package ru.mail.polis;
+
+import com.google.common.collect.Iterators;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges of sorted sources with overlapping keys by the heap of {@link Iters#mergeNewest}
+ * and by the former {@code Iterators.mergeSorted} followed by {@link Iters#collapseEquals},
+ * an operation is a source element, the sources split the same number of elements between them.
+ * Run with {@code ./gradlew jmh --args='MergeBenchmark'}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx128m")
+public class MergeBenchmark {
+    private static final int ELEMENTS = 256 * 1024;
+    private static final ByteBuffer VALUE = ByteBuffer.allocate(Byte.BYTES);
+
+    @Param({"2", "8", "32", "128"})
+    public int sources;
+
+    private Record[][] generations;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Random random = new Random(42);
+        generations = new Record[sources][];
+        for (int g = 0; g < sources; g++) {
+            final Record[] records = new Record[ELEMENTS / sources];
+            for (int i = 0; i < records.length; i++) {
+                // Half as many distinct keys as elements, so that the sources overlap
+                final ByteBuffer key = ByteBuffer.allocate(Integer.BYTES).putInt(0, random.nextInt(ELEMENTS / 2));
+                records[i] = Record.of(key, VALUE);
+            }
+            Arrays.sort(records);
+            generations[g] = records;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ELEMENTS)
+    public long mergeNewest() {
+        final List<Iterator<Record>> iterators = new ArrayList<>(sources);
+        for (final Record[] records : generations) {
+            iterators.add(Arrays.asList(records).iterator());
+        }
+        return drain(Iters.mergeNewest(iterators, Comparator.naturalOrder(), record -> true));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ELEMENTS)
+    public long mergeSortedCollapseEquals() {
+        final List<Iterator<Record>> iterators = new ArrayList<>(sources);
+        for (int g = sources - 1; g >= 0; g--) {
+            iterators.add(Arrays.asList(generations[g]).iterator());
+        }
+        final Iterator<Record> merged = Iterators.mergeSorted(iterators, Comparator.naturalOrder());
+        return drain(Iters.collapseEquals(merged, Record::getKey));
+    }
+
+    private static long drain(final Iterator<Record> records) {
+        long sum = 0L;
+        while (records.hasNext()) {
+            sum += records.next().getKey().getInt(0);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,88 @@
+package ru.mail.polis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full scans of a storage filled as in {@code PersistenceTest.manyRecords}, an operation is a record
+ * (a few of the random keys repeat, so slightly less).
+ * Run with {@code ./gradlew jmh}, the {@code gc.alloc.rate.norm} of the GC profiler is the allocation per record.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx128m")
+public class ScanBenchmark {
+    private static final int RECORDS = 1_000_000;
+    private static final ByteBuffer FROM = ByteBuffer.allocate(0);
+
+    private File data;
+    private DAO dao;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        data = Files.createTempDirectory("scan").toFile();
+        dao = DAOFactory.create(data);
+        final Random random = new Random(42);
+        for (int i = 0; i < RECORDS; i++) {
+            final ByteBuffer key = ByteBuffer.allocate(Integer.BYTES).putInt(0, random.nextInt());
+            final ByteBuffer value = ByteBuffer.allocate(Byte.BYTES).put(0, (byte) random.nextInt());
+            dao.upsert(key, value);
+        }
+        dao.compact();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        dao.close();
+        final File[] files = data.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                Files.delete(file.toPath());
+            }
+        }
+        Files.delete(data.toPath());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public long iterator() throws IOException {
+        long sum = 0L;
+        for (final Iterator<Record> it = dao.iterator(FROM); it.hasNext(); ) {
+            sum += it.next().getValue().get();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public long cursor() throws IOException {
+        final Cursor cursor = dao.cursor();
+        long sum = 0L;
+        for (boolean valid = cursor.seek(FROM); valid; valid = cursor.next()) {
+            sum += cursor.value().get();
+        }
+        return sum;
+    }
+}
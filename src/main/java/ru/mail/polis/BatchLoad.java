@@ -0,0 +1,53 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link BulkLoad} collecting the records into a {@link WriteBatch} written on commit.
+ */
+final class BatchLoad implements BulkLoad {
+    @NotNull
+    private final DAO dao;
+    private final WriteBatch batch = new WriteBatch();
+    @Nullable
+    private ByteBuffer last;
+    private boolean done;
+
+    BatchLoad(@NotNull final DAO dao) {
+        this.dao = dao;
+    }
+
+    @Override
+    public void add(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) {
+        if (done) {
+            throw new IllegalStateException("Load is already finished");
+        }
+        if (last != null && key.compareTo(last) <= 0) {
+            throw new IllegalArgumentException("Keys must be strictly ascending");
+        }
+        batch.upsert(key, value);
+        last = batch.key(batch.size() - 1);
+    }
+
+    @Override
+    public void commit() throws IOException {
+        if (done) {
+            throw new IllegalStateException("Load is already finished");
+        }
+        done = true;
+        dao.write(batch);
+        batch.clear();
+    }
+
+    @Override
+    public void close() {
+        done = true;
+        batch.clear();
+    }
+}
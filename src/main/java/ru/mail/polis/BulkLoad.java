@@ -0,0 +1,35 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Streams records in strictly ascending key order into a {@link DAO}, see {@link DAO#bulkLoad()}.
+ *
+ * <p>Nothing is visible until {@link #commit()}, which makes all the records visible at once as if written
+ * after every earlier write. Closing a load which was not committed discards it. A load is not thread-safe.
+ */
+public interface BulkLoad extends Closeable {
+    /**
+     * Adds the record, the key must be greater than the key of the previous one.
+     *
+     * @throws IllegalArgumentException if the key is out of order
+     */
+    void add(
+            @NotNull ByteBuffer key,
+            @NotNull ByteBuffer value) throws IOException;
+
+    /**
+     * Makes the added records visible.
+     */
+    void commit() throws IOException;
+
+    /**
+     * Discards the records unless the load has been committed.
+     */
+    @Override
+    void close() throws IOException;
+}
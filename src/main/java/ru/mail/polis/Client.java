@@ -48,10 +48,14 @@ public final class Client {
         return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
     }
 
+    /**
+     * Decodes the value, which takes a copy anyway as a {@link String} owns its bytes: a single bulk copy
+     * out of the read-only buffer is cheaper than decoding through an intermediate {@code CharBuffer}.
+     */
     @NotNull
     private static String from(@NotNull final ByteBuffer value) {
         final byte[] bytes = new byte[value.remaining()];
-        value.get(bytes);
+        value.duplicate().get(bytes);
         return new String(bytes, StandardCharsets.UTF_8);
     }
 
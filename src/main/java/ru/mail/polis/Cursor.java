@@ -0,0 +1,53 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * Reusable view of the records of a {@link DAO} in <b>ascending</b> key order.
+ *
+ * <p>Unlike {@link DAO#iterator(ByteBuffer)} a cursor is a flyweight: {@link #key()} and {@link #value()}
+ * return views which stay valid only until the cursor moves, copy them to keep. The views needn't start
+ * at index zero, so read them relative to their position.
+ *
+ * <p>A new cursor points to no record, start with {@link #seek(ByteBuffer)}. A cursor is not thread-safe.
+ */
+public interface Cursor {
+    /**
+     * Moves to the first record with key greater or equal to the given one.
+     *
+     * @return {@code false} if there is no such record
+     */
+    boolean seek(@NotNull ByteBuffer key) throws IOException;
+
+    /**
+     * Moves to the next record.
+     *
+     * @return {@code false} if there are no more records
+     */
+    boolean next() throws IOException;
+
+    /**
+     * Returns whether the cursor points to a record.
+     */
+    boolean isValid();
+
+    /**
+     * Returns the key of the current record.
+     *
+     * @throws NoSuchElementException if the cursor points to no record
+     */
+    @NotNull
+    ByteBuffer key();
+
+    /**
+     * Returns the value of the current record.
+     *
+     * @throws NoSuchElementException if the cursor points to no record
+     */
+    @NotNull
+    ByteBuffer value();
+}
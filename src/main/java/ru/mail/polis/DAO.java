@@ -22,6 +22,7 @@ import org.jetbrains.annotations.Nullable;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
@@ -64,6 +65,69 @@ public interface DAO extends Closeable {
         return Iters.until(iterator(from), bound);
     }
 
+    /**
+     * Provides iterator (possibly empty) over {@link Record}s starting at "from" key (inclusive),
+     * or at the last record if it is {@code null},
+     * in <b>descending</b> order according to {@link Record#compareTo(Record)}.
+     * The default one collects the records up to "from" walking {@link #iterator(ByteBuffer)}.
+     */
+    @NotNull
+    default Iterator<Record> descendingIterator(@Nullable ByteBuffer from) throws IOException {
+        final Record last = from == null ? null : new Record(from, ByteBuffer.allocate(0));
+        return Iters.reversed(iterator(ByteBuffer.allocate(0)), last);
+    }
+
+    /**
+     * Provides iterator (possibly empty) over {@link Record}s starting at "from" key (inclusive),
+     * or at the last record if it is {@code null}, until given "to" key (exclusive),
+     * or the first record if it is {@code null},
+     * in <b>descending</b> order according to {@link Record#compareTo(Record)}.
+     */
+    @NotNull
+    default Iterator<Record> descendingRange(
+            @Nullable ByteBuffer from,
+            @Nullable ByteBuffer to) throws IOException {
+        if (to == null) {
+            return descendingIterator(from);
+        }
+
+        if (from != null && from.compareTo(to) < 0) {
+            return Iters.empty();
+        }
+
+        final Record bound = new Record(to, ByteBuffer.allocate(0));
+        return Iters.until(descendingIterator(from), bound, Comparator.reverseOrder());
+    }
+
+    /**
+     * Provides iterator (possibly empty) over {@link Record}s with keys starting with the given prefix
+     * in <b>ascending</b> order according to {@link Record#compareTo(Record)}.
+     */
+    @NotNull
+    default Iterator<Record> prefixScan(@NotNull ByteBuffer prefix) throws IOException {
+        return range(prefix, Iters.prefixBound(prefix));
+    }
+
+    /**
+     * Provides a {@link Cursor} over the records, which unlike {@link #iterator(ByteBuffer)}
+     * needn't create objects per record.
+     * The default one walks {@link #iterator(ByteBuffer)} and allocates as much as it does.
+     */
+    @NotNull
+    default Cursor cursor() throws IOException {
+        return Iters.cursor(this);
+    }
+
+    /**
+     * Takes a {@link Snapshot} of the current state of the storage.
+     *
+     * @throws UnsupportedOperationException if the storage doesn't support snapshots
+     */
+    @NotNull
+    default Snapshot snapshot() throws IOException {
+        throw new UnsupportedOperationException("Snapshots are not supported");
+    }
+
     /**
      * Obtains {@link Record} corresponding to given key.
      *
@@ -71,17 +135,27 @@ public interface DAO extends Closeable {
      */
     @NotNull
     default ByteBuffer get(@NotNull ByteBuffer key) throws IOException, NoSuchElementException {
+        final ByteBuffer value = getIfPresent(key);
+        if (value == null) {
+            throw new NoSuchElementException("Not found");
+        }
+
+        return value;
+    }
+
+    /**
+     * Obtains value corresponding to given key or {@code null} if no such record.
+     * Suits the callers expecting misses better than {@link #get(ByteBuffer)}, which throws on them.
+     */
+    @Nullable
+    default ByteBuffer getIfPresent(@NotNull ByteBuffer key) throws IOException {
         final Iterator<Record> iter = iterator(key);
         if (!iter.hasNext()) {
-            throw new NoSuchElementException("Not found");
+            return null;
         }
 
         final Record next = iter.next();
-        if (next.getKey().equals(key)) {
-            return next.getValue();
-        } else {
-            throw new NoSuchElementException("Not found");
-        }
+        return next.getKey().equals(key) ? next.getValue() : null;
     }
 
     /**
@@ -96,6 +170,31 @@ public interface DAO extends Closeable {
      */
     void remove(@NotNull ByteBuffer key) throws IOException;
 
+    /**
+     * Applies all the writes of the batch in order.
+     * The default one applies them one by one, so unlike an atomic implementation
+     * a failure or a crash in the middle may leave a part of the batch applied.
+     */
+    default void write(@NotNull WriteBatch batch) throws IOException {
+        for (int i = 0; i < batch.size(); i++) {
+            final ByteBuffer value = batch.value(i);
+            if (value == null) {
+                remove(batch.key(i));
+            } else {
+                upsert(batch.key(i), value);
+            }
+        }
+    }
+
+    /**
+     * Starts a {@link BulkLoad} of pre-sorted records.
+     * The default one collects the records in memory and applies them with {@link #write(WriteBatch)}.
+     */
+    @NotNull
+    default BulkLoad bulkLoad() throws IOException {
+        return new BatchLoad(this);
+    }
+
     /**
      * Perform compaction
      */
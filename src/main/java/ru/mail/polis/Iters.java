@@ -2,10 +2,18 @@ package ru.mail.polis;
 
 import com.google.common.base.Functions;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
  * Utility methods for iterators.
@@ -38,7 +46,53 @@ public final class Iters {
     public static <E extends Comparable<E>> Iterator<E> until(
             @NotNull final Iterator<E> iter,
             @NotNull final E until) {
-        return new UntilIterator<>(iter, until);
+        return new UntilIterator<>(iter, until, Comparator.naturalOrder());
+    }
+
+    /**
+     * Stops before the first element not less than {@code until} according to the comparator.
+     */
+    public static <E> Iterator<E> until(
+            @NotNull final Iterator<E> iter,
+            @NotNull final E until,
+            @NotNull final Comparator<? super E> comparator) {
+        return new UntilIterator<>(iter, until, comparator);
+    }
+
+    /**
+     * Collects the elements up to {@code last} (inclusive), or all of them if it is {@code null},
+     * and returns them in reverse order.
+     */
+    public static <E extends Comparable<E>> Iterator<E> reversed(
+            @NotNull final Iterator<E> iter,
+            @Nullable final E last) {
+        final List<E> elements = new ArrayList<>();
+        while (iter.hasNext()) {
+            final E element = iter.next();
+            if (last != null && element.compareTo(last) > 0) {
+                break;
+            }
+            elements.add(element);
+        }
+        Collections.reverse(elements);
+        return elements.iterator();
+    }
+
+    /**
+     * Returns the least key greater than all the keys starting with the prefix,
+     * {@code null} if there is none as the prefix consists of {@link Byte#MAX_VALUE}s only.
+     */
+    @Nullable
+    public static ByteBuffer prefixBound(@NotNull final ByteBuffer prefix) {
+        for (int i = prefix.limit() - 1; i >= prefix.position(); i--) {
+            final byte b = prefix.get(i);
+            if (b != Byte.MAX_VALUE) {
+                final ByteBuffer result = ByteBuffer.allocate(i - prefix.position() + 1);
+                result.put(prefix.duplicate().limit(i)).put((byte) (b + 1)).flip();
+                return result;
+            }
+        }
+        return null;
     }
 
     public static <E> Iterator<E> collapseEquals(
@@ -51,23 +105,47 @@ public final class Iters {
         return new CollapseEqualsIterator<>(iter);
     }
 
-    private static class UntilIterator<E extends Comparable<E>> implements Iterator<E> {
+    /**
+     * Merges sorted iterators keeping only the element of the newest source among equal ones.
+     * The winners rejected by {@code alive} (e.g. tombstones) are skipped together with
+     * the older elements they shadow.
+     *
+     * @param sources sorted iterators from the oldest to the newest, i.e. the index is the generation
+     */
+    public static <E> Iterator<E> mergeNewest(
+            @NotNull final List<? extends Iterator<E>> sources,
+            @NotNull final Comparator<? super E> comparator,
+            @NotNull final Predicate<? super E> alive) {
+        return new MergeIterator<>(sources, comparator, alive);
+    }
+
+    /**
+     * Provides a {@link Cursor} over the records of the storage walking {@link DAO#iterator(ByteBuffer)}.
+     */
+    public static Cursor cursor(@NotNull final DAO dao) {
+        return new IteratorCursor(dao);
+    }
+
+    private static class UntilIterator<E> implements Iterator<E> {
         private final Iterator<E> iter;
         private final E until;
+        private final Comparator<? super E> comparator;
 
         private E next;
 
         UntilIterator(
                 @NotNull final Iterator<E> iter,
-                @NotNull final E until) {
+                @NotNull final E until,
+                @NotNull final Comparator<? super E> comparator) {
             this.iter = iter;
             this.until = until;
+            this.comparator = comparator;
             this.next = iter.hasNext() ? iter.next() : null;
         }
 
         @Override
         public boolean hasNext() {
-            return next != null && next.compareTo(until) < 0;
+            return next != null && comparator.compare(next, until) < 0;
         }
 
         @Override
@@ -124,4 +202,163 @@ public final class Iters {
         }
     }
 
+    private static class IteratorCursor implements Cursor {
+        private final DAO dao;
+
+        private Iterator<Record> iter = empty();
+        private Record current;
+
+        IteratorCursor(@NotNull final DAO dao) {
+            this.dao = dao;
+        }
+
+        @Override
+        public boolean seek(@NotNull final ByteBuffer key) throws IOException {
+            iter = dao.iterator(key);
+            return next();
+        }
+
+        @Override
+        public boolean next() {
+            current = iter.hasNext() ? iter.next() : null;
+            return current != null;
+        }
+
+        @Override
+        public boolean isValid() {
+            return current != null;
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer key() {
+            return record().getKey();
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer value() {
+            return record().getValue();
+        }
+
+        @NotNull
+        private Record record() {
+            if (current == null) {
+                throw new NoSuchElementException("No current record");
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Binary heap of source generations ordered by their current heads,
+     * the newer generation goes first among equal heads.
+     */
+    private static class MergeIterator<E> implements Iterator<E> {
+        private final List<Iterator<E>> sources;
+        private final E[] heads;
+        private final int[] heap;
+        private final Comparator<? super E> comparator;
+        private final Predicate<? super E> alive;
+
+        private int size;
+        private E next;
+
+        @SuppressWarnings("unchecked")
+        MergeIterator(
+                @NotNull final List<? extends Iterator<E>> sources,
+                @NotNull final Comparator<? super E> comparator,
+                @NotNull final Predicate<? super E> alive) {
+            this.sources = new ArrayList<>(sources);
+            this.heads = (E[]) new Object[sources.size()];
+            this.heap = new int[sources.size()];
+            this.comparator = comparator;
+            this.alive = alive;
+
+            for (int generation = 0; generation < sources.size(); generation++) {
+                final Iterator<E> source = sources.get(generation);
+                if (source.hasNext()) {
+                    heads[generation] = source.next();
+                    heap[size++] = generation;
+                }
+            }
+            for (int i = size / 2 - 1; i >= 0; i--) {
+                siftDown(i);
+            }
+            this.next = advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No more elements");
+            }
+
+            final E result = next;
+            next = advance();
+            return result;
+        }
+
+        /**
+         * Pops the newest of the least elements, skips the older equal ones and the dead winners.
+         */
+        private E advance() {
+            while (size > 0) {
+                final E winner = heads[heap[0]];
+                pop();
+                while (size > 0 && comparator.compare(heads[heap[0]], winner) == 0) {
+                    pop();
+                }
+                if (alive.test(winner)) {
+                    return winner;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Replaces the top head with the next element of its source or removes the source.
+         */
+        private void pop() {
+            final Iterator<E> source = sources.get(heap[0]);
+            if (source.hasNext()) {
+                heads[heap[0]] = source.next();
+            } else {
+                heads[heap[0]] = null;
+                heap[0] = heap[--size];
+            }
+            siftDown(0);
+        }
+
+        private void siftDown(final int from) {
+            int parent = from;
+            while (true) {
+                final int left = 2 * parent + 1;
+                if (left >= size) {
+                    return;
+                }
+                final int right = left + 1;
+                final int child = right < size && less(heap[right], heap[left]) ? right : left;
+                if (!less(heap[child], heap[parent])) {
+                    return;
+                }
+                final int tmp = heap[parent];
+                heap[parent] = heap[child];
+                heap[child] = tmp;
+                parent = child;
+            }
+        }
+
+        private boolean less(
+                final int left,
+                final int right) {
+            final int result = comparator.compare(heads[left], heads[right]);
+            return result < 0 || result == 0 && left > right;
+        }
+    }
 }
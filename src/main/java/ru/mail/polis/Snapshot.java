@@ -0,0 +1,126 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Point-in-time view of a {@link DAO}: sees the writes completed before it was taken and none of the later ones,
+ * whole {@link WriteBatch}es included. Later compactions don't change what it sees.
+ *
+ * <p>A snapshot holds on to the data it reads, close it once done. The iterators and cursors obtained
+ * before closing stay valid. A snapshot is safe to share between threads.
+ */
+public interface Snapshot extends Closeable {
+    /**
+     * Returns the sequence number of the last write seen by the snapshot.
+     */
+    long getSequence();
+
+    /**
+     * Provides iterator over {@link Record}s starting at "from" key (inclusive) in <b>ascending</b> order
+     * as of the snapshot.
+     */
+    @NotNull
+    Iterator<Record> iterator(@NotNull ByteBuffer from) throws IOException;
+
+    /**
+     * Provides iterator over {@link Record}s starting at "from" key (inclusive)
+     * until given "to" key (exclusive) in <b>ascending</b> order as of the snapshot.
+     */
+    @NotNull
+    default Iterator<Record> range(
+            @NotNull ByteBuffer from,
+            @Nullable ByteBuffer to) throws IOException {
+        if (to == null) {
+            return iterator(from);
+        }
+
+        if (from.compareTo(to) > 0) {
+            return Iters.empty();
+        }
+
+        final Record bound = new Record(to, ByteBuffer.allocate(0));
+        return Iters.until(iterator(from), bound);
+    }
+
+    /**
+     * Provides iterator (possibly empty) over {@link Record}s starting at "from" key (inclusive),
+     * or at the last record if it is {@code null}, in <b>descending</b> order as of the snapshot.
+     * The default one collects the records up to "from" walking {@link #iterator(ByteBuffer)}.
+     */
+    @NotNull
+    default Iterator<Record> descendingIterator(@Nullable ByteBuffer from) throws IOException {
+        final Record last = from == null ? null : new Record(from, ByteBuffer.allocate(0));
+        return Iters.reversed(iterator(ByteBuffer.allocate(0)), last);
+    }
+
+    /**
+     * Provides iterator (possibly empty) over {@link Record}s starting at "from" key (inclusive),
+     * or at the last record if it is {@code null}, until given "to" key (exclusive),
+     * or the first record if it is {@code null}, in <b>descending</b> order as of the snapshot.
+     */
+    @NotNull
+    default Iterator<Record> descendingRange(
+            @Nullable ByteBuffer from,
+            @Nullable ByteBuffer to) throws IOException {
+        if (to == null) {
+            return descendingIterator(from);
+        }
+
+        if (from != null && from.compareTo(to) < 0) {
+            return Iters.empty();
+        }
+
+        final Record bound = new Record(to, ByteBuffer.allocate(0));
+        return Iters.until(descendingIterator(from), bound, Comparator.reverseOrder());
+    }
+
+    /**
+     * Provides iterator (possibly empty) over {@link Record}s with keys starting with the given prefix
+     * in <b>ascending</b> order as of the snapshot.
+     */
+    @NotNull
+    default Iterator<Record> prefixScan(@NotNull ByteBuffer prefix) throws IOException {
+        return range(prefix, Iters.prefixBound(prefix));
+    }
+
+    /**
+     * Provides a {@link Cursor} over the records as of the snapshot.
+     */
+    @NotNull
+    Cursor cursor() throws IOException;
+
+    /**
+     * Obtains the value of the given key as of the snapshot.
+     *
+     * @throws NoSuchElementException if no such record
+     */
+    @NotNull
+    default ByteBuffer get(@NotNull ByteBuffer key) throws IOException, NoSuchElementException {
+        final ByteBuffer value = getIfPresent(key);
+        if (value == null) {
+            throw new NoSuchElementException("Not found");
+        }
+
+        return value;
+    }
+
+    /**
+     * Obtains the value of the given key as of the snapshot or {@code null} if no such record.
+     */
+    @Nullable
+    ByteBuffer getIfPresent(@NotNull ByteBuffer key) throws IOException;
+
+    /**
+     * Releases the data held by the snapshot, further reads throw {@link IllegalStateException}.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,129 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Upserts and removals to apply to a {@link DAO} together with {@link DAO#write(WriteBatch)}.
+ *
+ * <p>The keys and values are copied into the batch, so the caller may reuse its buffers.
+ * Writes to the same key apply in the order they were added, the last one wins.
+ * A batch may be {@link #clear() cleared} and filled again. A batch is not thread-safe.
+ */
+public final class WriteBatch {
+    private static final int TOMBSTONE = -1;
+
+    /**
+     * Per entry: {@code offset | keyLength | valueLength}, value length {@code -1} marks a removal.
+     */
+    private int[] entries = new int[3 * 16];
+    private byte[] data = new byte[1024];
+    private int size;
+    private int bytes;
+
+    /**
+     * Adds an upsert of the given key.
+     */
+    @NotNull
+    public WriteBatch upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) {
+        add(key, value);
+        return this;
+    }
+
+    /**
+     * Adds a removal of the given key.
+     */
+    @NotNull
+    public WriteBatch remove(@NotNull final ByteBuffer key) {
+        add(key, null);
+        return this;
+    }
+
+    /**
+     * Returns the number of writes in the batch.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the total size of the keys and values in the batch.
+     */
+    public int sizeInBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the key of the write at the given index.
+     */
+    @NotNull
+    public ByteBuffer key(final int index) {
+        final int entry = entry(index);
+        return ByteBuffer.wrap(data, entries[entry], entries[entry + 1]).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the value of the write at the given index or {@code null} for a removal.
+     */
+    @Nullable
+    public ByteBuffer value(final int index) {
+        final int entry = entry(index);
+        final int valueLength = entries[entry + 2];
+        if (valueLength == TOMBSTONE) {
+            return null;
+        }
+        return ByteBuffer.wrap(data, entries[entry] + entries[entry + 1], valueLength).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Removes all the writes keeping the allocated memory.
+     */
+    public void clear() {
+        size = 0;
+        bytes = 0;
+    }
+
+    private void add(
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer value) {
+        final int keyLength = key.remaining();
+        final int valueLength = value == null ? 0 : value.remaining();
+        final long required = (long) bytes + keyLength + valueLength;
+        if (required > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Batch is too big");
+        }
+        if (required > data.length) {
+            data = Arrays.copyOf(data, (int) Math.min(Math.max(required, 2L * data.length), Integer.MAX_VALUE - 8));
+        }
+        if (3 * (size + 1) > entries.length) {
+            entries = Arrays.copyOf(entries, 2 * entries.length);
+        }
+
+        final int entry = 3 * size;
+        entries[entry] = bytes;
+        entries[entry + 1] = keyLength;
+        entries[entry + 2] = value == null ? TOMBSTONE : valueLength;
+        key.duplicate().get(data, bytes, keyLength);
+        if (value != null) {
+            value.duplicate().get(data, bytes + keyLength, valueLength);
+        }
+        bytes += keyLength + valueLength;
+        size++;
+    }
+
+    private int entry(final int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of " + size);
+        }
+        return 3 * index;
+    }
+}
@@ -0,0 +1,164 @@
+package ru.mail.polis.nik27090;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Off-heap cache of {@link SSTable} blocks shared by all the tables of a storage, evicted by CLOCK.
+ *
+ * <p>Every block lives in its own direct buffer, so a block evicted while a reader still scans it
+ * stays valid until the reader lets it go. Lookups are lock-free and only set the reference bit,
+ * insertions and eviction are serialized.
+ */
+final class BlockCache {
+    private final long capacity;
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicInteger tables = new AtomicInteger();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Clock ring with {@code null} holes left by evicted entries, guarded by {@code this}.
+     */
+    private final List<Entry> ring = new ArrayList<>();
+    private final Deque<Integer> holes = new ArrayDeque<>();
+    private int hand;
+    private long size;
+
+    BlockCache(final long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns a new id of a table to key its blocks with.
+     */
+    int register() {
+        return tables.incrementAndGet();
+    }
+
+    /**
+     * Returns the cached block or {@code null}.
+     */
+    @Nullable
+    ByteBuffer get(
+            final int table,
+            final int block) {
+        final Entry entry = entries.get(key(table, block));
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        entry.referenced = true;
+        hits.increment();
+        return entry.block.duplicate();
+    }
+
+    /**
+     * Checks whether the block is cached without counting it as a lookup.
+     */
+    boolean contains(
+            final int table,
+            final int block) {
+        return entries.containsKey(key(table, block));
+    }
+
+    /**
+     * Copies the block into the cache evicting the blocks not referenced since the last pass of the clock.
+     *
+     * @return the cached copy or the given block if it doesn't fit the cache
+     */
+    @NotNull
+    ByteBuffer put(
+            final int table,
+            final int block,
+            @NotNull final ByteBuffer data) {
+        final int length = data.remaining();
+        if (length > capacity) {
+            return data;
+        }
+        final ByteBuffer copy = ByteBuffer.allocateDirect(length);
+        copy.put(data.duplicate()).flip();
+        final ByteBuffer result = copy.asReadOnlyBuffer();
+        final Entry entry = new Entry(key(table, block), result);
+
+        synchronized (this) {
+            if (entries.putIfAbsent(entry.key, entry) != null) {
+                // Loaded concurrently
+                return result;
+            }
+            while (size + length > capacity) {
+                evict();
+            }
+            if (holes.isEmpty()) {
+                ring.add(entry);
+            } else {
+                ring.set(holes.pop(), entry);
+            }
+            size += length;
+        }
+        return result.duplicate();
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Moves the hand to the next entry not referenced since the last pass and evicts it.
+     */
+    private void evict() {
+        while (true) {
+            if (hand >= ring.size()) {
+                hand = 0;
+            }
+            final Entry entry = ring.get(hand);
+            if (entry == null) {
+                hand++;
+            } else if (entry.referenced) {
+                entry.referenced = false;
+                hand++;
+            } else {
+                entries.remove(entry.key);
+                ring.set(hand, null);
+                holes.push(hand);
+                size -= entry.block.capacity();
+                hand++;
+                return;
+            }
+        }
+    }
+
+    private static long key(
+            final int table,
+            final int block) {
+        return (long) table << Integer.SIZE | block;
+    }
+
+    private static final class Entry {
+        final long key;
+        @NotNull
+        final ByteBuffer block;
+        volatile boolean referenced;
+
+        Entry(
+                final long key,
+                @NotNull final ByteBuffer block) {
+            this.key = key;
+            this.block = block;
+        }
+    }
+}
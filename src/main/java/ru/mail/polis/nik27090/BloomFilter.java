@@ -0,0 +1,109 @@
+package ru.mail.polis.nik27090;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Bloom filter over the keys of a {@link SSTable} read in place from the mapped file.
+ *
+ * <p>Layout: {@code hashes:int | words:int | bits:long[words]}. Probes are derived from a single
+ * 64-bit hash of the key by double hashing, so a lookup hashes the key only once.
+ */
+final class BloomFilter {
+    private static final int HEADER = Integer.BYTES + Integer.BYTES;
+    private static final int MAX_HASHES = 30;
+
+    private final ByteBuffer mapped;
+    private final int offset;
+    private final int hashes;
+    private final long bits;
+
+    BloomFilter(
+            @NotNull final ByteBuffer mapped,
+            final int offset) {
+        this.mapped = mapped;
+        this.offset = offset + HEADER;
+        this.hashes = mapped.getInt(offset);
+        this.bits = (long) mapped.getInt(offset + Integer.BYTES) * Long.SIZE;
+    }
+
+    /**
+     * Returns {@code false} if the key is definitely absent.
+     */
+    boolean mightContain(@NotNull final ByteBuffer key) {
+        if (hashes == 0) {
+            return true;
+        }
+
+        final long hash = Bytes.hash(key, key.position(), key.remaining());
+        final int first = (int) hash;
+        final int second = (int) (hash >>> 32);
+        for (int i = 0; i < hashes; i++) {
+            final long bit = Integer.toUnsignedLong(first + i * second) % bits;
+            final long word = mapped.getLong(offset + (int) (bit / Long.SIZE) * Long.BYTES);
+            if ((word & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Collects key hashes of a table being written and serializes the filter.
+     */
+    static final class Builder {
+        private final int bitsPerKey;
+        private long[] keyHashes = new long[1024];
+        private int keys;
+
+        /**
+         * Creates a builder of a filter with the given number of bits per key, {@code 0} disables the filter.
+         */
+        Builder(final int bitsPerKey) {
+            this.bitsPerKey = bitsPerKey;
+        }
+
+        void add(@NotNull final ByteBuffer key) {
+            if (bitsPerKey == 0) {
+                return;
+            }
+            if (keys == keyHashes.length) {
+                keyHashes = Arrays.copyOf(keyHashes, keys * 2);
+            }
+            keyHashes[keys++] = Bytes.hash(key, key.position(), key.remaining());
+        }
+
+        /**
+         * Returns the serialized filter.
+         */
+        @NotNull
+        ByteBuffer build() {
+            if (bitsPerKey == 0 || keys == 0) {
+                return ByteBuffer.allocate(HEADER);
+            }
+
+            final int hashes = Math.max(1, Math.min(MAX_HASHES, (int) Math.round(bitsPerKey * Math.log(2))));
+            final long[] words = new long[(int) Math.max(1L, ((long) keys * bitsPerKey + Long.SIZE - 1) / Long.SIZE)];
+            final long bits = (long) words.length * Long.SIZE;
+            for (int k = 0; k < keys; k++) {
+                final int first = (int) keyHashes[k];
+                final int second = (int) (keyHashes[k] >>> 32);
+                for (int i = 0; i < hashes; i++) {
+                    final long bit = Integer.toUnsignedLong(first + i * second) % bits;
+                    words[(int) (bit / Long.SIZE)] |= 1L << bit;
+                }
+            }
+
+            final ByteBuffer result = ByteBuffer.allocate(HEADER + words.length * Long.BYTES);
+            result.putInt(hashes);
+            result.putInt(words.length);
+            for (final long word : words) {
+                result.putLong(word);
+            }
+            result.flip();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package ru.mail.polis.nik27090;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Bounded pool of buffers for decompressed blocks.
+ *
+ * <p>The pooled buffers are direct, so the decompressed blocks take no heap and their allocation
+ * is paid once per buffer. Buffers of at most {@link #BUFFER_SIZE} bytes are reused,
+ * bigger requests get heap buffers of their own which are left to the garbage collector,
+ * as a direct buffer is too costly to allocate for a single block.
+ * A buffer which is never released is collected as well, so losing one, e.g. with an abandoned cursor,
+ * is harmless.
+ */
+final class BufferPool {
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ArrayBlockingQueue<ByteBuffer> free;
+
+    BufferPool(final int capacity) {
+        this.free = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Returns a cleared buffer of at least the given size.
+     */
+    @NotNull
+    ByteBuffer acquire(final int size) {
+        if (size > BUFFER_SIZE) {
+            return ByteBuffer.allocate(size);
+        }
+        final ByteBuffer buffer = free.poll();
+        return buffer == null ? ByteBuffer.allocateDirect(BUFFER_SIZE) : buffer.clear();
+    }
+
+    /**
+     * Returns whether the buffer is to be released rather than left to the garbage collector.
+     */
+    static boolean isPooled(@NotNull final ByteBuffer buffer) {
+        return buffer.isDirect() && buffer.capacity() == BUFFER_SIZE;
+    }
+
+    /**
+     * Gives the buffer back, it must not be used afterwards.
+     */
+    void release(@NotNull final ByteBuffer buffer) {
+        if (isPooled(buffer)) {
+            free.offer(buffer);
+        }
+    }
+}
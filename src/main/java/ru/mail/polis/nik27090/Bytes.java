@@ -0,0 +1,183 @@
+package ru.mail.polis.nik27090;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Allocation-free helpers for comparing, hashing and copying {@link ByteBuffer} regions.
+ */
+final class Bytes {
+    private static final long HASH_SEED = 0x9E3779B97F4A7C15L;
+    private static final long HASH_MULTIPLIER = 0x87C37B91114253D5L;
+    private static final long HASH_ROTATED_MULTIPLIER = 0x4CF5AD432745937FL;
+
+    private Bytes() {
+        // Not instantiable
+    }
+
+    /**
+     * Compares {@code length} bytes of {@code buffer} starting at absolute {@code offset}
+     * with the remaining bytes of {@code key}.
+     * Bytes are compared as signed values to stay consistent with {@link ByteBuffer#compareTo(ByteBuffer)}.
+     */
+    static int compare(
+            @NotNull final ByteBuffer buffer,
+            final int offset,
+            final int length,
+            @NotNull final ByteBuffer key) {
+        final int keyOffset = key.position();
+        final int keyLength = key.remaining();
+        final int common = Math.min(length, keyLength);
+        final boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+        final boolean keyBigEndian = key.order() == ByteOrder.BIG_ENDIAN;
+        int i = 0;
+        for (; i + Long.BYTES <= common; i += Long.BYTES) {
+            final long left = bigEndian
+                    ? buffer.getLong(offset + i)
+                    : Long.reverseBytes(buffer.getLong(offset + i));
+            final long right = keyBigEndian
+                    ? key.getLong(keyOffset + i)
+                    : Long.reverseBytes(key.getLong(keyOffset + i));
+            if (left != right) {
+                i += Long.numberOfLeadingZeros(left ^ right) / Byte.SIZE;
+                return Byte.compare(buffer.get(offset + i), key.get(keyOffset + i));
+            }
+        }
+        for (; i < common; i++) {
+            final int result = Byte.compare(buffer.get(offset + i), key.get(keyOffset + i));
+            if (result != 0) {
+                return result;
+            }
+        }
+        return Integer.compare(length, keyLength);
+    }
+
+    /**
+     * Returns whether the {@code length} bytes of {@code buffer} starting at absolute {@code offset}
+     * start with the remaining bytes of the prefix.
+     */
+    static boolean startsWith(
+            @NotNull final ByteBuffer buffer,
+            final int offset,
+            final int length,
+            @NotNull final ByteBuffer prefix) {
+        return length >= prefix.remaining() && compare(buffer, offset, prefix.remaining(), prefix) == 0;
+    }
+
+    /**
+     * Points the view to {@code length} bytes starting at absolute {@code offset}, a {@link #slice}
+     * reusing the given buffer instead of creating one.
+     */
+    @NotNull
+    static ByteBuffer view(
+            @NotNull final ByteBuffer view,
+            final int offset,
+            final int length) {
+        view.limit(offset + length);
+        view.position(offset);
+        return view;
+    }
+
+    /**
+     * Returns a read-only view of {@code length} bytes of {@code buffer} starting at absolute {@code offset}.
+     */
+    @NotNull
+    static ByteBuffer slice(
+            @NotNull final ByteBuffer buffer,
+            final int offset,
+            final int length) {
+        final ByteBuffer result = buffer.duplicate();
+        result.limit(offset + length);
+        result.position(offset);
+        return buffer.isReadOnly() ? result.slice() : result.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Copies remaining bytes of {@code src} to {@code dst} at absolute {@code offset}
+     * leaving positions of both buffers intact.
+     */
+    static void put(
+            @NotNull final ByteBuffer dst,
+            final int offset,
+            @NotNull final ByteBuffer src) {
+        final ByteBuffer target = dst.duplicate();
+        target.position(offset);
+        target.put(src.duplicate());
+    }
+
+    /**
+     * Reads an unsigned LEB128 varint at absolute {@code offset}: 7 bits per byte, the least significant first,
+     * the high bit of a byte is set if more bytes follow.
+     */
+    static int getVarInt(
+            @NotNull final ByteBuffer buffer,
+            final int offset) {
+        int result = 0;
+        int shift = 0;
+        int position = offset;
+        byte b;
+        do {
+            b = buffer.get(position++);
+            result |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return result;
+    }
+
+    /**
+     * Returns the number of bytes taken by the non-negative value as a varint, see {@link #getVarInt}.
+     */
+    static int varIntSize(final int value) {
+        return value == 0 ? 1 : (Integer.SIZE - Integer.numberOfLeadingZeros(value) + 6) / 7;
+    }
+
+    /**
+     * Returns a 64-bit hash of {@code length} bytes of {@code buffer} starting at absolute {@code offset}.
+     * The result doesn't depend on the byte order of the buffer.
+     */
+    static long hash(
+            @NotNull final ByteBuffer buffer,
+            final int offset,
+            final int length) {
+        final boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+        long result = HASH_SEED ^ (length * HASH_MULTIPLIER);
+        int i = 0;
+        for (; i + Long.BYTES <= length; i += Long.BYTES) {
+            final long chunk = bigEndian
+                    ? buffer.getLong(offset + i)
+                    : Long.reverseBytes(buffer.getLong(offset + i));
+            result = mix(result ^ scramble(chunk));
+        }
+        if (i < length) {
+            long tail = 0L;
+            for (; i < length; i++) {
+                tail = (tail << Byte.SIZE) | (buffer.get(offset + i) & 0xFF);
+            }
+            result = mix(result ^ scramble(tail));
+        }
+        return finish(result);
+    }
+
+    private static long scramble(final long chunk) {
+        return Long.rotateLeft(chunk * HASH_MULTIPLIER, 31) * HASH_ROTATED_MULTIPLIER;
+    }
+
+    private static long mix(final long hash) {
+        return Long.rotateLeft(hash, 27) * 5 + 0x52DCE729L;
+    }
+
+    /**
+     * Murmur3 finalizer spreading every input bit over the whole result.
+     */
+    private static long finish(final long hash) {
+        long result = hash;
+        result ^= result >>> 33;
+        result *= 0xFF51AFD7ED558CCDL;
+        result ^= result >>> 33;
+        result *= 0xC4CEB9FE1A85EC53L;
+        result ^= result >>> 33;
+        return result;
+    }
+}
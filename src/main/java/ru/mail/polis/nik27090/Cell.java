@@ -0,0 +1,63 @@
+package ru.mail.polis.nik27090;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+
+/**
+ * Key with either a value or a tombstone.
+ * A value moved to the {@link ValueLog} is a pointer to it until resolved by the table.
+ */
+final class Cell {
+    /**
+     * Orders cells by key without creating views of the keys.
+     */
+    static final Comparator<Cell> COMPARATOR = (left, right) -> left.key.compareTo(right.key);
+
+    @NotNull
+    private final ByteBuffer key;
+    @Nullable
+    private final ByteBuffer value;
+    private final boolean separated;
+
+    Cell(
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer value) {
+        this(key, value, false);
+    }
+
+    Cell(
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer value,
+            final boolean separated) {
+        this.key = key;
+        this.value = value;
+        this.separated = separated;
+    }
+
+    @NotNull
+    ByteBuffer getKey() {
+        return key.duplicate();
+    }
+
+    /**
+     * Returns the value or {@code null} for a tombstone.
+     */
+    @Nullable
+    ByteBuffer getValue() {
+        return value == null ? null : value.duplicate();
+    }
+
+    boolean isTombstone() {
+        return value == null;
+    }
+
+    /**
+     * Returns whether the value is a pointer to the {@link ValueLog}.
+     */
+    boolean isSeparated() {
+        return separated;
+    }
+}
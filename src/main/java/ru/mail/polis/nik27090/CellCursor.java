@@ -0,0 +1,55 @@
+package ru.mail.polis.nik27090;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reusable view of the cells of a {@link Table} in key order, tombstones included.
+ * The cursor walks the cells either way: ascending from {@link #seek(ByteBuffer)} with {@link #next()}
+ * and descending from {@link #seekLast(ByteBuffer)} with {@link #prev()}.
+ *
+ * <p>The buffers returned by {@link #key()} and {@link #value()} are reset by every call
+ * and stay valid until the cursor moves.
+ */
+interface CellCursor {
+    /**
+     * Moves to the first cell with key greater or equal to the given one.
+     *
+     * @return {@code false} if there is no such cell
+     */
+    boolean seek(@NotNull ByteBuffer key);
+
+    /**
+     * Moves to the next cell.
+     *
+     * @return {@code false} if there are no more cells
+     */
+    boolean next();
+
+    /**
+     * Moves to the last cell with key less or equal to the given one, or to the last cell if the key is {@code null}.
+     *
+     * @return {@code false} if there is no such cell
+     */
+    boolean seekLast(@Nullable ByteBuffer key);
+
+    /**
+     * Moves to the previous cell.
+     *
+     * @return {@code false} if there are no more cells
+     */
+    boolean prev();
+
+    @NotNull
+    ByteBuffer key();
+
+    /**
+     * Returns the value of a cell which is not a tombstone.
+     */
+    @NotNull
+    ByteBuffer value();
+
+    boolean isTombstone();
+}
@@ -0,0 +1,77 @@
+package ru.mail.polis.nik27090;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compression of {@link SSTable} blocks. Every block records the id of its codec,
+ * so tables and even blocks of a table written with different codecs coexist.
+ */
+interface Codec {
+    /**
+     * Id of uncompressed blocks.
+     */
+    byte NONE = 0;
+
+    /**
+     * Returns the id stored in the header of compressed blocks, never {@link #NONE}.
+     */
+    byte id();
+
+    /**
+     * Returns the size of the buffer enough to compress {@code length} bytes.
+     */
+    int maxCompressedLength(int length);
+
+    /**
+     * Compresses the first {@code length} bytes of {@code src} into {@code dst},
+     * which is at least {@link #maxCompressedLength(int)} long.
+     *
+     * @return the compressed length
+     */
+    int compress(
+            @NotNull byte[] src,
+            int length,
+            @NotNull byte[] dst);
+
+    /**
+     * Decompresses {@code length} bytes of {@code src} starting at absolute {@code offset}
+     * into {@code dst} starting at zero.
+     *
+     * @throws IllegalStateException if the data is corrupted
+     */
+    void decompress(
+            @NotNull ByteBuffer src,
+            int offset,
+            int length,
+            @NotNull ByteBuffer dst,
+            int rawLength);
+
+    /**
+     * Returns the codec writing blocks for the given setting or {@code null} if the blocks are stored as is.
+     */
+    static Codec of(@NotNull final Config.Compression compression) {
+        switch (compression) {
+            case NONE:
+                return null;
+            case LZ4:
+                return Lz4Codec.INSTANCE;
+            default:
+                throw new IllegalArgumentException("Unknown compression: " + compression);
+        }
+    }
+
+    /**
+     * Returns the codec of a compressed block by its id.
+     *
+     * @throws IllegalStateException if the id is unknown
+     */
+    @NotNull
+    static Codec byId(final byte id) {
+        if (id == Lz4Codec.INSTANCE.id()) {
+            return Lz4Codec.INSTANCE;
+        }
+        throw new IllegalStateException("Unknown codec " + id);
+    }
+}
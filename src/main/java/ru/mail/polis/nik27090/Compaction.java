@@ -0,0 +1,130 @@
+package ru.mail.polis.nik27090;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tables to merge and the placement of the result picked by a {@link CompactionStrategy}.
+ */
+final class Compaction {
+    private static final int IN_PLACE = -1;
+
+    /**
+     * Tables to merge in {@link SSTable#ORDER}.
+     */
+    @NotNull
+    final List<SSTable> inputs;
+    private final int level;
+    private final long tableSize;
+
+    private Compaction(
+            @NotNull final List<SSTable> inputs,
+            final int level,
+            final long tableSize) {
+        this.inputs = inputs;
+        this.level = level;
+        this.tableSize = tableSize;
+    }
+
+    /**
+     * Merges the inputs, adjacent in {@link SSTable#ORDER}, into a single table taking the place of the newest one.
+     */
+    @NotNull
+    static Compaction inPlace(@NotNull final List<SSTable> inputs) {
+        return new Compaction(inputs, IN_PLACE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Merges the inputs into non-overlapping tables of about {@code tableSize} bytes on the given level.
+     */
+    @NotNull
+    static Compaction toLevel(
+            @NotNull final List<SSTable> inputs,
+            final int level,
+            final long tableSize) {
+        return new Compaction(inputs, level, tableSize);
+    }
+
+    boolean isInPlace() {
+        return level == IN_PLACE;
+    }
+
+    /**
+     * Returns the level of the result unless the compaction is {@link #isInPlace()}.
+     */
+    int getLevel() {
+        return level;
+    }
+
+    /**
+     * Returns the size of a table after which the result continues in the next one.
+     */
+    long getTableSize() {
+        return tableSize;
+    }
+
+    /**
+     * Returns the tables left out of the compaction which are older than its result,
+     * a tombstone may be dropped only if none of them holds its key.
+     *
+     * @param tables all the tables on disk
+     */
+    @NotNull
+    List<SSTable> older(@NotNull final List<SSTable> tables) {
+        final SSTable newest = inputs.get(inputs.size() - 1);
+        final List<SSTable> result = new ArrayList<>();
+        for (final SSTable table : tables) {
+            if (inputs.contains(table)) {
+                continue;
+            }
+            // New tables of a level go after the existing ones
+            if (isInPlace() ? SSTable.ORDER.compare(table, newest) < 0 : table.getLevel() >= level) {
+                result.add(table);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the keys splitting the input into at most the given number of disjoint ranges of
+     * about the same size, each worth at least a table, which can be merged independently.
+     * The keys are taken from the sparse indexes of the inputs without reading the blocks.
+     * An {@link #isInPlace()} compaction produces a single table and isn't split.
+     *
+     * @return the ascending starts of all the ranges but the first one, empty if there is a single range
+     */
+    @NotNull
+    List<ByteBuffer> boundaries(final int ranges) {
+        if (isInPlace()) {
+            return Collections.emptyList();
+        }
+        long size = 0L;
+        for (final SSTable table : inputs) {
+            size += table.sizeInBytes();
+        }
+        final long count = Math.min(ranges, size / tableSize);
+        if (count < 2) {
+            return Collections.emptyList();
+        }
+
+        // Blocks are about the same size, so are the ranges with the same number of blocks
+        final List<ByteBuffer> keys = new ArrayList<>();
+        for (final SSTable table : inputs) {
+            table.blockKeys(keys);
+        }
+        keys.sort(ByteBuffer::compareTo);
+        final List<ByteBuffer> result = new ArrayList<>();
+        for (int i = 1; i < count; i++) {
+            final ByteBuffer key = keys.get((int) (i * keys.size() / count));
+            if (key.compareTo(keys.get(0)) > 0
+                    && (result.isEmpty() || key.compareTo(result.get(result.size() - 1)) > 0)) {
+                result.add(key);
+            }
+        }
+        return result;
+    }
+}
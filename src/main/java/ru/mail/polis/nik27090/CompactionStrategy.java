@@ -0,0 +1,59 @@
+package ru.mail.polis.nik27090;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Decides which tables to merge, see {@link Config.CompactionStyle}.
+ */
+interface CompactionStrategy {
+    /**
+     * Picks the tables for the background compaction.
+     *
+     * @param tables tables on disk in {@link SSTable#ORDER}
+     * @return the compaction or {@code null} if there is nothing worth merging
+     */
+    @Nullable
+    Compaction select(@NotNull List<SSTable> tables);
+
+    /**
+     * Returns the compaction of all the given tables requested by {@link DAOImpl#compact()}.
+     *
+     * @param tables tables on disk in {@link SSTable#ORDER}
+     */
+    @NotNull
+    Compaction major(@NotNull List<SSTable> tables);
+
+    /**
+     * Returns the level for the non-overlapping tables of a bulk load, which must end up newer
+     * than all the tables holding keys of the load.
+     *
+     * @param tables tables on disk in {@link SSTable#ORDER}
+     * @param first  the first key of the load
+     * @param last   the last key of the load
+     */
+    int loadLevel(
+            @NotNull List<SSTable> tables,
+            @NotNull ByteBuffer first,
+            @NotNull ByteBuffer last);
+
+    /**
+     * Returns the size of a table after which a bulk load continues in the next one.
+     */
+    long loadTableSize();
+
+    @NotNull
+    static CompactionStrategy of(@NotNull final Config config) {
+        switch (config.getCompactionStyle()) {
+            case TIERED:
+                return new SizeTieredStrategy(config);
+            case LEVELED:
+                return new LeveledStrategy(config);
+            default:
+                throw new IllegalArgumentException("Unsupported compaction style: " + config.getCompactionStyle());
+        }
+    }
+}
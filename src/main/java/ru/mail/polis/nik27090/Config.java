@@ -0,0 +1,521 @@
+package ru.mail.polis.nik27090;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tunables of {@link DAOImpl}.
+ */
+public final class Config {
+    public static final Config DEFAULT = builder().build();
+
+    private final int flushThreshold;
+    private final int blockSize;
+    private final int restartInterval;
+    @NotNull
+    private final Compression compression;
+    @NotNull
+    private final SyncMode syncMode;
+    private final long groupCommitMicros;
+    private final int bloomBitsPerKey;
+    @Nullable
+    private final PrefixExtractor prefixExtractor;
+    private final int compactionFanIn;
+    private final long compactionBytesPerSecond;
+    private final int compactionThreads;
+    private final int recoveryThreads;
+    private final long scrubBytesPerSecond;
+    @NotNull
+    private final CompactionStyle compactionStyle;
+    private final int levelSizeRatio;
+    private final double tombstoneRatio;
+    private final long blockCacheSize;
+    private final int valueThreshold;
+    private final double valueLogGarbageRatio;
+
+    private Config(@NotNull final Builder builder) {
+        this.flushThreshold = builder.flushThreshold;
+        this.blockSize = builder.blockSize;
+        this.restartInterval = builder.restartInterval;
+        if (builder.compression != null) {
+            this.compression = builder.compression;
+        } else {
+            // Without the cache every read of a block decompresses it again
+            this.compression = builder.blockCacheSize == 0 ? Compression.NONE : Compression.LZ4;
+        }
+        this.syncMode = builder.syncMode;
+        this.groupCommitMicros = builder.groupCommitMicros;
+        this.bloomBitsPerKey = builder.bloomBitsPerKey;
+        this.prefixExtractor = builder.prefixExtractor;
+        this.compactionFanIn = builder.compactionFanIn;
+        this.compactionBytesPerSecond = builder.compactionBytesPerSecond;
+        this.compactionThreads = builder.compactionThreads;
+        this.recoveryThreads = builder.recoveryThreads;
+        this.scrubBytesPerSecond = builder.scrubBytesPerSecond;
+        this.compactionStyle = builder.compactionStyle;
+        this.levelSizeRatio = builder.levelSizeRatio;
+        this.tombstoneRatio = builder.tombstoneRatio;
+        this.blockCacheSize = builder.blockCacheSize;
+        this.valueThreshold = builder.valueThreshold;
+        this.valueLogGarbageRatio = builder.valueLogGarbageRatio;
+    }
+
+    @NotNull
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the size of memtable arena in bytes, the memtable is flushed to disk once it is full.
+     */
+    public int getFlushThreshold() {
+        return flushThreshold;
+    }
+
+    /**
+     * Returns the approximate size of a data block of {@link SSTable} in bytes.
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Returns the number of prefix-compressed keys between the restart points of a block,
+     * a key at a restart point is stored in full.
+     */
+    public int getRestartInterval() {
+        return restartInterval;
+    }
+
+    /**
+     * Returns how the blocks of new tables are compressed, by default {@link Compression#LZ4}
+     * if the {@link #getBlockCacheSize() block cache} is enabled and {@link Compression#NONE} otherwise.
+     */
+    @NotNull
+    public Compression getCompression() {
+        return compression;
+    }
+
+    /**
+     * Returns when the writes are forced from the log to the disk.
+     */
+    @NotNull
+    public SyncMode getSyncMode() {
+        return syncMode;
+    }
+
+    /**
+     * Returns the period of forcing the log in {@link SyncMode#GROUP} mode in microseconds.
+     */
+    public long getGroupCommitMicros() {
+        return groupCommitMicros;
+    }
+
+    /**
+     * Returns the size of per-table Bloom filters in bits per key, {@code 0} if the filters are disabled.
+     */
+    public int getBloomBitsPerKey() {
+        return bloomBitsPerKey;
+    }
+
+    /**
+     * Returns the extractor of the prefixes indexed by per-table prefix Bloom filters of
+     * {@link #getBloomBitsPerKey()} bits per prefix, {@code null} if the tables have no prefix filters.
+     */
+    @Nullable
+    public PrefixExtractor getPrefixExtractor() {
+        return prefixExtractor;
+    }
+
+    /**
+     * Returns the number of similarly sized tables merged by the background compaction,
+     * {@code 0} if the background compaction is disabled.
+     */
+    public int getCompactionFanIn() {
+        return compactionFanIn;
+    }
+
+    /**
+     * Returns the limit of the background compaction output in bytes per second, {@code 0} if unlimited.
+     */
+    public long getCompactionBytesPerSecond() {
+        return compactionBytesPerSecond;
+    }
+
+    /**
+     * Returns the number of threads merging the key ranges of a compaction in parallel,
+     * {@code 1} if a compaction is merged by a single thread.
+     */
+    public int getCompactionThreads() {
+        return compactionThreads;
+    }
+
+    /**
+     * Returns the number of threads replaying the logs left by a crash and opening the tables on start.
+     */
+    public int getRecoveryThreads() {
+        return recoveryThreads;
+    }
+
+    /**
+     * Returns the rate the background scrubber verifies the tables at in bytes per second,
+     * {@code 0} if the scrubber is disabled.
+     */
+    public long getScrubBytesPerSecond() {
+        return scrubBytesPerSecond;
+    }
+
+    /**
+     * Returns how the tables are merged.
+     */
+    @NotNull
+    public CompactionStyle getCompactionStyle() {
+        return compactionStyle;
+    }
+
+    /**
+     * Returns how many times a level is bigger than the previous one in {@link CompactionStyle#LEVELED} style.
+     */
+    public int getLevelSizeRatio() {
+        return levelSizeRatio;
+    }
+
+    /**
+     * Returns the share of tombstones making a table worth compacting on its own to drop them,
+     * {@code 0} if such compaction is disabled.
+     */
+    public double getTombstoneRatio() {
+        return tombstoneRatio;
+    }
+
+    /**
+     * Returns the capacity of the off-heap cache of table blocks in bytes, {@code 0} if the cache is disabled.
+     */
+    public long getBlockCacheSize() {
+        return blockCacheSize;
+    }
+
+    /**
+     * Returns the size of a value in bytes starting from which it is stored in the value log
+     * instead of the table, {@code 0} if the values are always stored in the tables.
+     */
+    public int getValueThreshold() {
+        return valueThreshold;
+    }
+
+    /**
+     * Returns the share of values no longer referenced by the tables making a value log segment
+     * worth collecting in the background.
+     */
+    public double getValueLogGarbageRatio() {
+        return valueLogGarbageRatio;
+    }
+
+    /**
+     * Compression of table blocks. A block which doesn't shrink by at least an eighth is stored as is.
+     */
+    public enum Compression {
+        NONE,
+        /**
+         * Fast LZ4 block format, see {@link Lz4Codec}.
+         */
+        LZ4
+    }
+
+    /**
+     * Durability of the writes acknowledged by {@link DAOImpl}.
+     */
+    public enum SyncMode {
+        /**
+         * Every write waits for the force of the log, concurrent writers share a single force.
+         */
+        ALWAYS,
+        /**
+         * Writes wait for the periodic force of the log, see {@link #getGroupCommitMicros()}.
+         */
+        GROUP,
+        /**
+         * Writes are left in the OS buffers, they survive a crash of the process but not of the OS.
+         */
+        NONE
+    }
+
+    /**
+     * Shape of the tables on disk maintained by the compaction.
+     */
+    public enum CompactionStyle {
+        /**
+         * Runs of similarly sized tables are merged together: writes are cheaper, reads and space are not.
+         */
+        TIERED,
+        /**
+         * Levels of non-overlapping tables growing by {@link #getLevelSizeRatio()}: a lookup touches
+         * a table per level and less space is wasted at the cost of rewriting the data more often.
+         */
+        LEVELED
+    }
+
+    /**
+     * Builder of {@link Config}.
+     */
+    public static final class Builder {
+        private int flushThreshold = 16 * 1024 * 1024;
+        private int blockSize = 4 * 1024;
+        private int restartInterval = 16;
+        private Compression compression;
+        private SyncMode syncMode = SyncMode.NONE;
+        private long groupCommitMicros = 1000L;
+        private int bloomBitsPerKey = 10;
+        private PrefixExtractor prefixExtractor;
+        private int compactionFanIn = 4;
+        private long compactionBytesPerSecond = 32L * 1024 * 1024;
+        private int compactionThreads = 1;
+        private int recoveryThreads = Runtime.getRuntime().availableProcessors();
+        private long scrubBytesPerSecond;
+        private CompactionStyle compactionStyle = CompactionStyle.TIERED;
+        private int levelSizeRatio = 10;
+        private double tombstoneRatio = 0.5;
+        private long blockCacheSize;
+        private int valueThreshold = 64 * 1024;
+        private double valueLogGarbageRatio = 0.5;
+
+        private Builder() {
+            // Use Config.builder()
+        }
+
+        /**
+         * Sets the size of memtable arena in bytes.
+         */
+        @NotNull
+        public Builder flushThreshold(final int flushThreshold) {
+            if (flushThreshold <= 0) {
+                throw new IllegalArgumentException("Non-positive flush threshold: " + flushThreshold);
+            }
+            this.flushThreshold = flushThreshold;
+            return this;
+        }
+
+        /**
+         * Sets the approximate size of a data block in bytes.
+         */
+        @NotNull
+        public Builder blockSize(final int blockSize) {
+            if (blockSize <= 0) {
+                throw new IllegalArgumentException("Non-positive block size: " + blockSize);
+            }
+            this.blockSize = blockSize;
+            return this;
+        }
+
+        /**
+         * Sets the number of keys between the restart points of a block, {@code 1} disables prefix compression.
+         */
+        @NotNull
+        public Builder restartInterval(final int restartInterval) {
+            if (restartInterval <= 0) {
+                throw new IllegalArgumentException("Non-positive restart interval: " + restartInterval);
+            }
+            this.restartInterval = restartInterval;
+            return this;
+        }
+
+        /**
+         * Sets how the blocks of new tables are compressed, tables written before keep their compression.
+         * Unless set, the blocks are compressed only if the block cache is enabled.
+         */
+        @NotNull
+        public Builder compression(@NotNull final Compression compression) {
+            this.compression = compression;
+            return this;
+        }
+
+        /**
+         * Sets when the writes are forced from the log to the disk.
+         */
+        @NotNull
+        public Builder syncMode(@NotNull final SyncMode syncMode) {
+            this.syncMode = syncMode;
+            return this;
+        }
+
+        /**
+         * Sets the period of forcing the log in {@link SyncMode#GROUP} mode.
+         */
+        @NotNull
+        public Builder groupCommitInterval(
+                final long interval,
+                @NotNull final TimeUnit unit) {
+            final long micros = unit.toMicros(interval);
+            if (micros <= 0) {
+                throw new IllegalArgumentException("Non-positive group commit interval: " + interval + " " + unit);
+            }
+            this.groupCommitMicros = micros;
+            return this;
+        }
+
+        /**
+         * Sets the size of per-table Bloom filters in bits per key, {@code 0} disables the filters.
+         */
+        @NotNull
+        public Builder bloomBitsPerKey(final int bloomBitsPerKey) {
+            if (bloomBitsPerKey < 0) {
+                throw new IllegalArgumentException("Negative bits per key: " + bloomBitsPerKey);
+            }
+            this.bloomBitsPerKey = bloomBitsPerKey;
+            return this;
+        }
+
+        /**
+         * Sets the extractor of the prefixes indexed by per-table prefix Bloom filters, {@code null} disables
+         * the filters. The filters of the tables written with another extractor are ignored.
+         */
+        @NotNull
+        public Builder prefixExtractor(@Nullable final PrefixExtractor prefixExtractor) {
+            this.prefixExtractor = prefixExtractor;
+            return this;
+        }
+
+        /**
+         * Sets the number of similarly sized tables merged by the background compaction,
+         * {@code 0} disables the background compaction.
+         */
+        @NotNull
+        public Builder compactionFanIn(final int compactionFanIn) {
+            if (compactionFanIn != 0 && compactionFanIn < 2) {
+                throw new IllegalArgumentException("Fan-in must be at least 2: " + compactionFanIn);
+            }
+            this.compactionFanIn = compactionFanIn;
+            return this;
+        }
+
+        /**
+         * Sets the limit of the background compaction output in bytes per second, {@code 0} removes the limit.
+         */
+        @NotNull
+        public Builder compactionBytesPerSecond(final long compactionBytesPerSecond) {
+            if (compactionBytesPerSecond < 0) {
+                throw new IllegalArgumentException("Negative compaction rate: " + compactionBytesPerSecond);
+            }
+            this.compactionBytesPerSecond = compactionBytesPerSecond;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads merging the key ranges of a compaction in parallel.
+         * Only a compaction into non-overlapping tables of a level is split into ranges.
+         */
+        @NotNull
+        public Builder compactionThreads(final int compactionThreads) {
+            if (compactionThreads <= 0) {
+                throw new IllegalArgumentException("Non-positive compaction threads: " + compactionThreads);
+            }
+            this.compactionThreads = compactionThreads;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads replaying the logs left by a crash and opening the tables on start,
+         * the chunks of a single log are replayed in parallel too.
+         */
+        @NotNull
+        public Builder recoveryThreads(final int recoveryThreads) {
+            if (recoveryThreads <= 0) {
+                throw new IllegalArgumentException("Non-positive recovery threads: " + recoveryThreads);
+            }
+            this.recoveryThreads = recoveryThreads;
+            return this;
+        }
+
+        /**
+         * Sets the rate the background scrubber verifies the checksums of the tables at in bytes per second,
+         * {@code 0} disables the scrubber, which is the default. The blocks in the block cache are skipped,
+         * they were verified when read.
+         */
+        @NotNull
+        public Builder scrubBytesPerSecond(final long scrubBytesPerSecond) {
+            if (scrubBytesPerSecond < 0) {
+                throw new IllegalArgumentException("Negative scrub rate: " + scrubBytesPerSecond);
+            }
+            this.scrubBytesPerSecond = scrubBytesPerSecond;
+            return this;
+        }
+
+        /**
+         * Sets how the tables are merged.
+         */
+        @NotNull
+        public Builder compactionStyle(@NotNull final CompactionStyle compactionStyle) {
+            this.compactionStyle = compactionStyle;
+            return this;
+        }
+
+        /**
+         * Sets how many times a level is bigger than the previous one in {@link CompactionStyle#LEVELED} style.
+         */
+        @NotNull
+        public Builder levelSizeRatio(final int levelSizeRatio) {
+            if (levelSizeRatio < 2) {
+                throw new IllegalArgumentException("Level size ratio must be at least 2: " + levelSizeRatio);
+            }
+            this.levelSizeRatio = levelSizeRatio;
+            return this;
+        }
+
+        /**
+         * Sets the share of tombstones making a table worth compacting on its own, {@code 0} disables it.
+         */
+        @NotNull
+        public Builder tombstoneRatio(final double tombstoneRatio) {
+            if (!(tombstoneRatio >= 0.0 && tombstoneRatio <= 1.0)) {
+                throw new IllegalArgumentException("Tombstone ratio is out of [0, 1]: " + tombstoneRatio);
+            }
+            this.tombstoneRatio = tombstoneRatio;
+            return this;
+        }
+
+        /**
+         * Sets the capacity of the off-heap cache of table blocks in bytes, {@code 0} disables the cache.
+         * The cache is allocated with direct buffers, so it is bound by {@code -XX:MaxDirectMemorySize}.
+         */
+        @NotNull
+        public Builder blockCacheSize(final long blockCacheSize) {
+            if (blockCacheSize < 0) {
+                throw new IllegalArgumentException("Negative block cache size: " + blockCacheSize);
+            }
+            this.blockCacheSize = blockCacheSize;
+            return this;
+        }
+
+        /**
+         * Sets the size of a value in bytes starting from which it is stored in the value log,
+         * {@code 0} keeps all the values in the tables.
+         */
+        @NotNull
+        public Builder valueThreshold(final int valueThreshold) {
+            if (valueThreshold < 0) {
+                throw new IllegalArgumentException("Negative value threshold: " + valueThreshold);
+            }
+            this.valueThreshold = valueThreshold;
+            return this;
+        }
+
+        /**
+         * Sets the share of garbage making a value log segment worth collecting in the background.
+         */
+        @NotNull
+        public Builder valueLogGarbageRatio(final double valueLogGarbageRatio) {
+            if (!(valueLogGarbageRatio > 0.0 && valueLogGarbageRatio <= 1.0)) {
+                throw new IllegalArgumentException("Garbage ratio is out of (0, 1]: " + valueLogGarbageRatio);
+            }
+            this.valueLogGarbageRatio = valueLogGarbageRatio;
+            return this;
+        }
+
+        @NotNull
+        public Config build() {
+            return new Config(this);
+        }
+    }
+}
@@ -0,0 +1,1306 @@
+package ru.mail.polis.nik27090;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.RateLimiter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.mail.polis.BulkLoad;
+import ru.mail.polis.Cursor;
+import ru.mail.polis.DAO;
+import ru.mail.polis.Iters;
+import ru.mail.polis.Record;
+import ru.mail.polis.Snapshot;
+import ru.mail.polis.WriteBatch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * LSM {@link DAO} implementation: an off-heap {@link MemTable} backed by a {@link WriteAheadLog}
+ * and flushed to {@link SSTable}s.
+ *
+ * <p>The memtable and its log share the generation, the log is deleted once the memtable is on disk.
+ * Logs left by a crash are replayed on open.
+ *
+ * <p>Flushed tables are merged in the background as the {@link CompactionStrategy} decides. Readers work
+ * with an immutable {@link TableSet}, so a merge in progress never changes the tables they see.
+ * All the reads see the memtables as of the visible sequence number, which passes a write or a batch
+ * only once it and all the earlier ones are applied in full.
+ *
+ * <p>Big values are moved to the {@link ValueLog} on flush, so compaction copies only pointers to them.
+ * Its segments with much garbage are collected after compaction by rewriting the tables pointing to them.
+ *
+ * <p>A big compaction into a level is split into key ranges merged in parallel by
+ * {@link Config#getCompactionThreads()} threads, the tables of all the ranges replace the inputs at once.
+ */
+public final class DAOImpl implements DAO {
+    private static final Logger log = LoggerFactory.getLogger(DAOImpl.class);
+
+    private static final Pattern TABLE = Pattern.compile("(\\d+)" + Pattern.quote(SSTable.SUFFIX));
+    private static final Pattern TEMP = Pattern.compile(
+            "\\d+(" + Pattern.quote(SSTable.SUFFIX) + "|" + Pattern.quote(ValueLog.SUFFIX) + ")"
+                    + Pattern.quote(SSTable.TEMP));
+    /**
+     * Staged tables the {@link Manifest} has not renamed.
+     */
+    private static final Pattern STAGED = Pattern.compile(
+            "\\d+" + Pattern.quote(Manifest.STAGED) + "(" + Pattern.quote(SSTable.TEMP) + ")?");
+    private static final Pattern LOG = Pattern.compile("(\\d+)" + Pattern.quote(WriteAheadLog.SUFFIX));
+    private static final Pattern SEGMENT = Pattern.compile("(\\d+)" + Pattern.quote(ValueLog.SUFFIX));
+
+    /**
+     * Amount of compaction output paid for at once to the rate limiter.
+     */
+    private static final int THROTTLE_CHUNK = 64 * 1024;
+    /**
+     * Pause of the background scrubber between the passes over the tables.
+     */
+    private static final long SCRUB_PAUSE_SECONDS = 60L;
+
+    @NotNull
+    private final File storage;
+    @NotNull
+    private final Config config;
+    @Nullable
+    private final BlockCache blockCache;
+    @NotNull
+    private final ValueLog valueLog;
+    @NotNull
+    private final Manifest manifest;
+
+    /**
+     * Writers to the memtable share the lock, rotation of the memtable takes it exclusively.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    @NotNull
+    private volatile TableSet tables;
+    /**
+     * Log of the active memtable, replaced together with it.
+     */
+    @NotNull
+    private volatile WriteAheadLog wal;
+    /**
+     * Numbers the writes and tells the last one visible to the readers. The writers free their slots
+     * under the shared lock, so all the writes to a rotated memtable are applied.
+     */
+    private final Sequencer sequencer;
+    /**
+     * Next generation to assign to a memtable or a table produced by compaction.
+     */
+    private final AtomicInteger generations;
+    @Nullable
+    private final ScheduledExecutorService syncer;
+
+    /**
+     * Serializes compactions, which are the only ones to remove tables.
+     */
+    private final Object compactionLock = new Object();
+    @NotNull
+    private final CompactionStrategy compaction;
+    @Nullable
+    private final ExecutorService compactor;
+    @Nullable
+    private final RateLimiter compactionLimiter;
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+    /**
+     * Merges the key ranges of a compaction, {@code null} if a compaction is merged by a single thread.
+     */
+    @Nullable
+    private final ForkJoinPool subcompactor;
+    /**
+     * Replays the logs and opens the tables in parallel on start, then flushes the recovered memtables
+     * in the background, {@code null} if there is nothing to recover.
+     */
+    @Nullable
+    private final ExecutorService recovery;
+    /**
+     * Verifies the checksums of the tables at low priority, {@code null} if the scrubber is disabled.
+     */
+    @Nullable
+    private final ScheduledExecutorService scrubber;
+    @Nullable
+    private final RateLimiter scrubLimiter;
+    private final LongAdder scrubbedBlocks = new LongAdder();
+    private final LongAdder corruptedBlocks = new LongAdder();
+
+    /**
+     * Opens the storage in the given directory replaying the logs left by a crash.
+     * The replayed memtables serve reads while they are being flushed.
+     */
+    public DAOImpl(
+            @NotNull final File storage,
+            @NotNull final Config config) throws IOException {
+        this(storage, config, CompactionStrategy.of(config));
+    }
+
+    /**
+     * Opens the storage compacted by the given strategy instead of the configured one, e.g. in tests.
+     */
+    DAOImpl(
+            @NotNull final File storage,
+            @NotNull final Config config,
+            @NotNull final CompactionStrategy compaction) throws IOException {
+        this.storage = storage;
+        this.config = config;
+        this.blockCache = config.getBlockCacheSize() == 0 ? null : new BlockCache(config.getBlockCacheSize());
+
+        this.valueLog = new ValueLog(storage, this::nextGeneration);
+
+        final Manifest found = Manifest.read(storage, blockCache, valueLog);
+        final Map<Integer, File> files = new TreeMap<>();
+        final Map<Integer, File> logs = new TreeMap<>();
+        final Set<Integer> segments = new HashSet<>();
+        scan(storage, files, logs, segments);
+        if (logs.isEmpty() && (found != null || files.isEmpty())) {
+            this.recovery = null;
+        } else {
+            this.recovery = Executors.newFixedThreadPool(config.getRecoveryThreads(), runnable -> {
+                final Thread thread = new Thread(runnable, "recovery-" + storage.getName());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        final List<SSTable> ssTables = new ArrayList<>();
+        int generation = 0;
+        if (found == null) {
+            // Written before the manifest, the tables are read to learn about them
+            final List<Callable<SSTable>> opens = new ArrayList<>(files.size());
+            for (final Map.Entry<Integer, File> file : files.entrySet()) {
+                opens.add(() -> openTable(file.getValue(), file.getKey()));
+            }
+            ssTables.addAll(recover(opens));
+        } else {
+            ssTables.addAll(found.getTables());
+            generation = found.getNextGeneration();
+            for (final SSTable table : ssTables) {
+                files.remove(table.getGeneration());
+            }
+            // Written by a flush or a compaction which was not logged because of a crash
+            for (final File file : files.values()) {
+                java.nio.file.Files.delete(file.toPath());
+                log.info("Deleted {} unknown to the manifest", file);
+            }
+        }
+        for (final SSTable table : ssTables) {
+            generation = Math.max(generation, table.getGeneration() + 1);
+        }
+        for (final int logGeneration : logs.keySet()) {
+            generation = Math.max(generation, logGeneration + 1);
+        }
+        for (final int segment : segments) {
+            generation = Math.max(generation, segment + 1);
+        }
+        this.generations = new AtomicInteger(generation + 1);
+        final List<MemTable> recovered = new ArrayList<>();
+        final int flushed = found == null ? Manifest.NOT_FLUSHED : found.getFlushed();
+        final long maxSeq = replay(logs, flushed, recovered);
+        ssTables.sort(SSTable.ORDER);
+        // Keeps the stale logs stale if a crash interrupts their deletion
+        this.manifest = Manifest.create(storage, ssTables, generations.get(), flushed);
+        // The logs of the recovered memtables are deleted once they are flushed
+        for (final MemTable memTable : recovered) {
+            logs.remove(memTable.getGeneration());
+        }
+        for (final File file : logs.values()) {
+            java.nio.file.Files.delete(file.toPath());
+        }
+        // Segments of a table which was not written because of a crash
+        deleteUnreferenced(segments, ssTables);
+        this.sequencer = new Sequencer(maxSeq);
+        this.wal = new WriteAheadLog(logFile(generation), config.getSyncMode());
+        this.tables = new TableSet(
+                new MemTable(config.getFlushThreshold(), generation),
+                recovered,
+                ssTables);
+
+        if (config.getSyncMode() == Config.SyncMode.GROUP) {
+            this.syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "wal-sync-" + storage.getName());
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncer.scheduleWithFixedDelay(
+                    this::forceLog,
+                    config.getGroupCommitMicros(),
+                    config.getGroupCommitMicros(),
+                    TimeUnit.MICROSECONDS);
+        } else {
+            this.syncer = null;
+        }
+
+        this.compaction = compaction;
+        this.compactionLimiter = config.getCompactionBytesPerSecond() == 0
+                ? null
+                : RateLimiter.create(config.getCompactionBytesPerSecond());
+        this.subcompactor = config.getCompactionThreads() == 1
+                ? null
+                : new ForkJoinPool(config.getCompactionThreads());
+        if (config.getCompactionFanIn() == 0) {
+            this.compactor = null;
+        } else {
+            this.compactor = Executors.newSingleThreadExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "compaction-" + storage.getName());
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduleCompaction();
+        }
+        if (recovery != null) {
+            recovery.execute(() -> flushRecovered(recovered));
+            recovery.shutdown();
+        }
+
+        if (config.getScrubBytesPerSecond() == 0) {
+            this.scrubber = null;
+            this.scrubLimiter = null;
+        } else {
+            this.scrubLimiter = RateLimiter.create(config.getScrubBytesPerSecond());
+            this.scrubber = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "scrub-" + storage.getName());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+            scrubber.scheduleWithFixedDelay(
+                    () -> scrub(true),
+                    SCRUB_PAUSE_SECONDS,
+                    SCRUB_PAUSE_SECONDS,
+                    TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Walks a {@link MergeCursor} over the tables materializing the records,
+     * the iterator sees the storage as of its creation like a {@link Snapshot}.
+     */
+    @NotNull
+    @Override
+    public Iterator<Record> iterator(@NotNull final ByteBuffer from) throws IOException {
+        return snapshot().iterator(from);
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Record> descendingIterator(@Nullable final ByteBuffer from) throws IOException {
+        return snapshot().descendingIterator(from);
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Record> prefixScan(@NotNull final ByteBuffer prefix) throws IOException {
+        return snapshot().prefixScan(prefix);
+    }
+
+    /**
+     * Returns a cursor reading the blocks into pooled buffers, each seek sees the tables
+     * and the visible writes current at the time.
+     */
+    @NotNull
+    @Override
+    public Cursor cursor() {
+        return new MergeCursor(() -> tables, true, sequencer::visible);
+    }
+
+    /**
+     * Takes the current tables and then the visible sequence number without blocking the writers,
+     * so that the snapshot sees either all the writes of a batch or none. The tables taken first
+     * hold every write up to the number but the ones in a newer memtable, which are all later
+     * than the writes in the memtables taken.
+     */
+    @NotNull
+    @Override
+    public Snapshot snapshot() {
+        final TableSet current = tables;
+        return new TableSnapshot(current, sequencer.visible(), config.getPrefixExtractor());
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer get(@NotNull final ByteBuffer key) throws IOException {
+        final ByteBuffer value = getIfPresent(key);
+        if (value == null) {
+            throw new NotFoundException();
+        }
+        return value;
+    }
+
+    /**
+     * Probes the tables from the newest to the oldest and stops at the first cell of the key.
+     * The tables are taken before the visible sequence number, so they hold all the writes up to it.
+     */
+    @Nullable
+    @Override
+    public ByteBuffer getIfPresent(@NotNull final ByteBuffer key) throws IOException {
+        final TableSet current = tables;
+        final ByteBuffer value = current.get(key, sequencer.visible());
+        return value == Table.TOMBSTONE ? null : value;
+    }
+
+    /**
+     * Returns the number of table blocks verified by the scrubber.
+     */
+    public long getScrubbedBlocks() {
+        return scrubbedBlocks.sum();
+    }
+
+    /**
+     * Returns the number of corrupted table blocks found by the scrubber,
+     * a table whose index doesn't match its checksum counts as a single block.
+     */
+    public long getCorruptedBlocks() {
+        return corruptedBlocks.sum();
+    }
+
+    /**
+     * Verifies the checksums of the tables now in the calling thread, see {@link Config#getScrubBytesPerSecond()}.
+     */
+    public void scrub() {
+        scrub(false);
+    }
+
+    /**
+     * Returns the number of tables on disk.
+     */
+    public int getTableCount() {
+        return tables.ssTables.size();
+    }
+
+    /**
+     * Returns the size of the tables on disk in bytes.
+     */
+    public long getTablesSize() {
+        long result = 0L;
+        for (final SSTable table : tables.ssTables) {
+            result += table.sizeInBytes();
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of table blocks found in the block cache, {@code 0} if the cache is disabled.
+     */
+    public long getBlockCacheHits() {
+        return blockCache == null ? 0L : blockCache.getHits();
+    }
+
+    /**
+     * Returns the number of table blocks read past the block cache, {@code 0} if the cache is disabled.
+     */
+    public long getBlockCacheMisses() {
+        return blockCache == null ? 0L : blockCache.getMisses();
+    }
+
+    @Override
+    public void upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) throws IOException {
+        write(key, value);
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key) throws IOException {
+        write(key, null);
+    }
+
+    /**
+     * Applies the batch to the memtable and appends it to the log as a single record,
+     * so that either all of its writes survive a crash or none. The batch never spans two memtables.
+     */
+    @Override
+    public void write(@NotNull final WriteBatch batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        while (true) {
+            final MemTable memTable;
+            final WriteAheadLog log;
+            final long firstSeq;
+            final long position;
+            lock.readLock().lock();
+            try {
+                memTable = tables.memTable;
+                log = wal;
+                final boolean stored;
+                final int slot = sequencer.enter();
+                try {
+                    firstSeq = sequencer.next(batch.size());
+                    stored = memTable.apply(batch, firstSeq);
+                } finally {
+                    sequencer.exit(slot);
+                }
+                position = stored ? log.append(firstSeq, batch) : -1L;
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            if (position >= 0) {
+                log.sync(position);
+                sequencer.await(firstSeq + batch.size() - 1);
+                return;
+            }
+            final long required = MemTable.sizeOf(batch);
+            if (required > Integer.MAX_VALUE / 2) {
+                throw new IOException("Batch is too big: " + batch.sizeInBytes() + " bytes");
+            }
+            flush(memTable, (int) required);
+        }
+    }
+
+    /**
+     * Starts a load writing the tables directly, see {@link TableLoader}.
+     */
+    @NotNull
+    @Override
+    public BulkLoad bulkLoad() {
+        return new TableLoader(
+                storage,
+                config,
+                compaction.loadTableSize(),
+                this::nextGeneration,
+                this::attach);
+    }
+
+    /**
+     * Merges all the tables on disk into non-overlapping tables without tombstones.
+     */
+    @Override
+    public void compact() throws IOException {
+        final MemTable memTable = tables.memTable;
+        if (!memTable.isEmpty()) {
+            flush(memTable, 0);
+        }
+        synchronized (compactionLock) {
+            final List<SSTable> ssTables = tables.ssTables;
+            if (!ssTables.isEmpty()) {
+                merge(compaction.major(ssTables), false, Collections.emptySet());
+                collectGarbage(0.0, false);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (recovery != null) {
+            // Lets the recovered memtables be flushed, which takes this monitor
+            try {
+                recovery.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for recovery");
+            }
+        }
+        synchronized (this) {
+            if (syncer != null) {
+                // A periodic force must not run after the log is deleted
+                syncer.shutdown();
+                try {
+                    syncer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the log sync");
+                }
+            }
+            if (scrubber != null) {
+                scrubber.shutdownNow();
+            }
+            if (compactor != null) {
+                // Interrupts the merge in progress, its output is discarded
+                compactor.shutdownNow();
+                try {
+                    compactor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for compaction");
+                }
+            }
+            if (subcompactor != null) {
+                subcompactor.shutdown();
+            }
+            final MemTable memTable = tables.memTable;
+            if (!memTable.isEmpty()) {
+                flush(memTable, 0);
+            }
+            wal.delete();
+            manifest.close();
+            valueLog.close();
+        }
+    }
+
+    /**
+     * Applies the write to the memtable and appends it to the log,
+     * both under the shared lock so the memtable can't be rotated in between.
+     *
+     * @param value the value or {@code null} for a tombstone
+     */
+    private void write(
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer value) throws IOException {
+        while (true) {
+            final MemTable memTable;
+            final WriteAheadLog log;
+            final long seq;
+            final long position;
+            lock.readLock().lock();
+            try {
+                memTable = tables.memTable;
+                log = wal;
+                final boolean stored;
+                final int slot = sequencer.enter();
+                try {
+                    seq = sequencer.next(1);
+                    stored = value == null
+                            ? memTable.remove(key, seq)
+                            : memTable.upsert(key, value, seq);
+                } finally {
+                    sequencer.exit(slot);
+                }
+                position = stored ? log.append(seq, key, value) : -1L;
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            if (position >= 0) {
+                log.sync(position);
+                sequencer.await(seq);
+                return;
+            }
+            flush(memTable, MemTable.sizeOf(key, value));
+        }
+    }
+
+    private void forceLog() {
+        try {
+            wal.force();
+        } catch (IOException e) {
+            log.error("Can't force the log", e);
+        }
+    }
+
+    private void scheduleCompaction() {
+        if (compactor == null || !compactionScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            compactor.execute(this::compactInBackground);
+        } catch (RejectedExecutionException e) {
+            // Closing
+            compactionScheduled.set(false);
+        }
+    }
+
+    /**
+     * Merges the tables picked by the {@link CompactionStrategy} until there is nothing to merge.
+     */
+    private void compactInBackground() {
+        compactionScheduled.set(false);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                synchronized (compactionLock) {
+                    final Compaction next = compaction.select(tables.ssTables);
+                    if (next == null) {
+                        collectGarbage(config.getValueLogGarbageRatio(), true);
+                        return;
+                    }
+                    merge(next, true, Collections.emptySet());
+                }
+            }
+        } catch (InterruptedIOException | ClosedByInterruptException e) {
+            log.debug("Compaction is cancelled");
+        } catch (IOException e) {
+            log.error("Background compaction failed", e);
+        } catch (UncheckedIOException e) {
+            // Failed to map a table on its first read
+            if (e.getCause() instanceof ClosedByInterruptException) {
+                log.debug("Compaction is cancelled");
+            } else {
+                log.error("Background compaction failed", e);
+            }
+        }
+    }
+
+    /**
+     * Moves the live values out of the value log segments with at least the given share of garbage
+     * rewriting the tables pointing to them. Must be called under {@link #compactionLock}.
+     *
+     * @param background whether to throttle the rewrites and to cancel them on interrupt
+     */
+    private void collectGarbage(
+            final double ratio,
+            final boolean background) throws IOException {
+        final List<SSTable> ssTables = tables.ssTables;
+        final Map<Integer, Long> live = new HashMap<>();
+        for (final SSTable table : ssTables) {
+            for (final Map.Entry<Integer, Long> reference : table.getReferences().entrySet()) {
+                live.merge(reference.getKey(), reference.getValue(), Long::sum);
+            }
+        }
+        final Set<Integer> collected = new HashSet<>();
+        for (final Map.Entry<Integer, Long> segment : live.entrySet()) {
+            final long size = valueLog.size(segment.getKey());
+            final long garbage = size - segment.getValue();
+            if (garbage > 0 && garbage >= ratio * size) {
+                collected.add(segment.getKey());
+            }
+        }
+        if (collected.isEmpty()) {
+            return;
+        }
+
+        // Only this thread replaces tables on disk, so the others in the list stay valid
+        for (final SSTable table : ssTables) {
+            if (!Collections.disjoint(table.getReferences().keySet(), collected)) {
+                merge(Compaction.inPlace(Collections.singletonList(table)), background, collected);
+            }
+        }
+        log.debug("Collected value log segments {}", collected);
+    }
+
+    /**
+     * Replaces the input tables with the result of their merge and deletes the value log segments
+     * no table points to anymore. Must be called under {@link #compactionLock}.
+     *
+     * @param background whether to throttle the merge and to cancel it on interrupt
+     * @param relocated  value log segments to copy the live values from to new segments
+     */
+    private void merge(
+            @NotNull final Compaction compaction,
+            final boolean background,
+            @NotNull final Set<Integer> relocated) throws IOException {
+        final List<SSTable> inputs = compaction.inputs;
+        final List<SSTable> older = compaction.older(tables.ssTables);
+        final List<ByteBuffer> boundaries = subcompactor == null
+                ? Collections.emptyList()
+                : compaction.boundaries(config.getCompactionThreads());
+        // The result replacing the newest input is renamed to it once logged
+        final int staged = compaction.isInPlace() ? generations.getAndIncrement() : -1;
+        final List<SSTable> result;
+        if (boundaries.isEmpty()) {
+            final Subcompaction whole = new Subcompaction(
+                    compaction,
+                    staged,
+                    older,
+                    ByteBuffer.allocate(0),
+                    null,
+                    background,
+                    relocated);
+            whole.mergeCells();
+            result = whole.result;
+        } else {
+            result = mergeRanges(compaction, older, boundaries, background, relocated);
+        }
+        manifest.apply(
+                generations.get(),
+                inputs,
+                result,
+                compaction.isInPlace() && !result.isEmpty() ? new int[]{staged} : null);
+        lock.writeLock().lock();
+        try {
+            tables = tables.compacted(inputs, result);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        final Set<Integer> segments = new HashSet<>();
+        for (final SSTable obsolete : inputs) {
+            segments.addAll(obsolete.getReferences().keySet());
+            if (!isReplaced(obsolete, result)) {
+                java.nio.file.Files.delete(tableFile(obsolete.getGeneration()).toPath());
+            }
+        }
+        // Flushed tables point to their own new segments only
+        deleteUnreferenced(segments, tables.ssTables);
+        log.debug("Compacted {} tables to {} in {} ranges", inputs.size(), result.size(), boundaries.size() + 1);
+    }
+
+    /**
+     * Merges the key ranges between the boundaries in parallel on the {@link #subcompactor}.
+     * Fails as a whole deleting the tables written for any range.
+     */
+    @NotNull
+    private List<SSTable> mergeRanges(
+            @NotNull final Compaction compaction,
+            @NotNull final List<SSTable> older,
+            @NotNull final List<ByteBuffer> boundaries,
+            final boolean background,
+            @NotNull final Set<Integer> relocated) throws IOException {
+        assert subcompactor != null;
+        final List<Subcompaction> ranges = new ArrayList<>(boundaries.size() + 1);
+        ByteBuffer from = ByteBuffer.allocate(0);
+        for (final ByteBuffer to : boundaries) {
+            ranges.add(new Subcompaction(compaction, -1, older, from, to, background, relocated));
+            from = to;
+        }
+        ranges.add(new Subcompaction(compaction, -1, older, from, null, background, relocated));
+
+        final List<ForkJoinTask<?>> tasks = new ArrayList<>(ranges.size());
+        for (final Subcompaction range : ranges) {
+            tasks.add(subcompactor.submit(range));
+        }
+        // Unlike get() doesn't throw on interrupt, the ranges see it themselves and stop
+        for (final ForkJoinTask<?> task : tasks) {
+            task.quietlyJoin();
+        }
+
+        final List<SSTable> result = new ArrayList<>();
+        Throwable failure = null;
+        for (final Subcompaction range : ranges) {
+            if (range.failure == null) {
+                result.addAll(range.result);
+            } else if (failure == null) {
+                failure = range.failure;
+            } else {
+                failure.addSuppressed(range.failure);
+            }
+        }
+        if (failure != null) {
+            deleteTables(result);
+            Throwables.throwIfInstanceOf(failure, IOException.class);
+            Throwables.throwIfUnchecked(failure);
+            throw new IOException("Compaction failed", failure);
+        }
+        return result;
+    }
+
+    private void deleteTables(@NotNull final List<SSTable> tables) throws IOException {
+        for (final SSTable table : tables) {
+            java.nio.file.Files.delete(tableFile(table.getGeneration()).toPath());
+        }
+    }
+
+    /**
+     * Writes the next table of the compaction result.
+     * An in place result takes the generation and the level of the newest input and is staged to replace its file.
+     *
+     * @param staged the generation of the staged file of an in place result
+     * @param owner  the thread running the compaction, which is interrupted to cancel it
+     */
+    @NotNull
+    private SSTable writeTable(
+            @NotNull final Compaction compaction,
+            final int staged,
+            @NotNull final Iterator<Cell> cells,
+            final boolean background,
+            @NotNull final Set<Integer> relocated,
+            @NotNull final Thread owner) throws IOException {
+        final int generation;
+        final int level;
+        final File file;
+        if (compaction.isInPlace()) {
+            final SSTable newest = compaction.inputs.get(compaction.inputs.size() - 1);
+            generation = newest.getGeneration();
+            level = newest.getLevel();
+            file = Manifest.stagedFile(storage, staged);
+        } else {
+            generation = generations.getAndIncrement();
+            level = compaction.getLevel();
+            file = tableFile(generation);
+        }
+
+        try {
+            try (SSTableWriter writer = new SSTableWriter(file, config, level, valueLog)) {
+                writer.relocate(relocated);
+                long paid = 0L;
+                while (cells.hasNext() && writer.size() < compaction.getTableSize()) {
+                    writer.add(cells.next());
+                    if (background) {
+                        if (owner.isInterrupted()) {
+                            throw new InterruptedIOException("Compaction of " + file + " is cancelled");
+                        }
+                        final long written = writer.written();
+                        if (compactionLimiter != null && written - paid >= THROTTLE_CHUNK) {
+                            compactionLimiter.acquire((int) Math.min(written - paid, Integer.MAX_VALUE));
+                            paid = written;
+                        }
+                    }
+                }
+                writer.finish();
+            }
+            return openTable(file, generation);
+        } catch (IOException | RuntimeException e) {
+            // The writer discards its temporary file, but the finish may fail after the rename,
+            // e.g. forcing the directory on interrupt
+            java.nio.file.Files.deleteIfExists(file.toPath());
+            throw e;
+        }
+    }
+
+    /**
+     * Returns whether the tombstone may still shadow a cell of the older tables.
+     */
+    private static boolean shadowsOlder(
+            @NotNull final Cell tombstone,
+            @NotNull final List<SSTable> older) {
+        if (older.isEmpty()) {
+            return false;
+        }
+        final ByteBuffer key = tombstone.getKey();
+        for (final SSTable table : older) {
+            if (table.mightContain(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Verifies the blocks of the tables which are not in the block cache, the cached ones were verified when read.
+     * The corrupted blocks are logged and counted, reads of them keep failing.
+     *
+     * @param background whether to throttle the reads and to stop on interrupt
+     */
+    private void scrub(final boolean background) {
+        for (final SSTable table : tables.ssTables) {
+            try {
+                final int blocks = table.blockCount();
+                for (int block = 0; block < blocks; block++) {
+                    if (background) {
+                        if (Thread.currentThread().isInterrupted()) {
+                            return;
+                        }
+                        assert scrubLimiter != null;
+                        scrubLimiter.acquire(table.blockLength(block));
+                    }
+                    scrubbedBlocks.increment();
+                    if (!table.scrub(block)) {
+                        corruptedBlocks.increment();
+                        log.error("Corrupted block {} of {}", block, table);
+                    }
+                }
+            } catch (UncheckedIOException e) {
+                if (e.getCause() instanceof ClosedByInterruptException) {
+                    return;
+                }
+                // Can't map the table
+                corruptedBlocks.increment();
+                log.error("Can't scrub {}", table, e);
+            }
+        }
+    }
+
+    /**
+     * Deletes the value log segments among the given ones none of the tables points to.
+     */
+    private void deleteUnreferenced(
+            @NotNull final Set<Integer> segments,
+            @NotNull final List<SSTable> ssTables) throws IOException {
+        final Set<Integer> unreferenced = new HashSet<>(segments);
+        for (final SSTable table : ssTables) {
+            unreferenced.removeAll(table.getReferences().keySet());
+        }
+        for (final int segment : unreferenced) {
+            valueLog.delete(segment);
+        }
+    }
+
+    private static boolean isReplaced(
+            @NotNull final SSTable input,
+            @NotNull final List<SSTable> result) {
+        for (final SSTable table : result) {
+            if (table.getGeneration() == input.getGeneration()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replaces the full memtable with an empty one able to fit {@code required} bytes
+     * and writes the full one to disk, unless another thread has already done it.
+     */
+    private void flush(
+            @NotNull final MemTable full,
+            final int required) throws IOException {
+        final WriteAheadLog fullLog;
+        lock.writeLock().lock();
+        try {
+            if (tables.memTable != full) {
+                return;
+            }
+            final int generation = generations.getAndIncrement();
+            final MemTable empty = new MemTable(Math.max(config.getFlushThreshold(), required), generation);
+            fullLog = wal;
+            wal = new WriteAheadLog(logFile(generation), config.getSyncMode());
+            tables = tables.rotate(empty);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        // No writer appends to it once the memtable is rotated
+        fullLog.seal();
+        synchronized (this) {
+            writeFlushing(full);
+            fullLog.delete();
+        }
+        scheduleCompaction();
+    }
+
+    /**
+     * Writes the memtables recovered from the logs to disk from the oldest to the newest and deletes the logs.
+     * A failed flush leaves the rest of the logs to be replayed on the next start.
+     */
+    private void flushRecovered(@NotNull final List<MemTable> recovered) {
+        try {
+            for (final MemTable full : recovered) {
+                synchronized (this) {
+                    writeFlushing(full);
+                    java.nio.file.Files.delete(logFile(full.getGeneration()).toPath());
+                }
+            }
+            if (!recovered.isEmpty()) {
+                log.info("Flushed {} memtables recovered from the logs", recovered.size());
+            }
+        } catch (IOException e) {
+            log.error("Can't flush the recovered memtables", e);
+            return;
+        }
+        scheduleCompaction();
+    }
+
+    /**
+     * Replaces the full memtable and the older ones with their tables on disk, from the oldest to the newest
+     * as the manifest {@link Manifest#getFlushed() expects}. Must be called under {@code this} monitor.
+     */
+    private void writeFlushing(@NotNull final MemTable full) throws IOException {
+        // A bulk load or a flush of a newer memtable may have written it already
+        if (!tables.flushing.contains(full)) {
+            return;
+        }
+        for (final MemTable older : tables.flushing) {
+            if (older.getGeneration() > full.getGeneration()) {
+                continue;
+            }
+            final SSTable table = writeMemTable(older);
+            lock.writeLock().lock();
+            try {
+                tables = tables.flushed(older, table);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    @NotNull
+    private SSTable writeMemTable(@NotNull final MemTable full) throws IOException {
+        final File file = tableFile(full.getGeneration());
+        SSTable.write(file, full.iterator(ByteBuffer.allocate(0)), config, valueLog);
+        final SSTable table = openTable(file, full.getGeneration());
+        manifest.apply(
+                generations.get(),
+                full.getGeneration(),
+                Collections.emptyList(),
+                Collections.singletonList(table),
+                null);
+        log.debug("Flushed memtable to {}", file);
+        return table;
+    }
+
+    /**
+     * Attaches the staged tables of a bulk load as the newest tables holding their keys.
+     *
+     * <p>The load must shadow every earlier write, so the memtables are written to disk below it
+     * and the later writes go to a memtable above it. The active memtable is rotated under the lock
+     * as on flush and written after that, most of it is written before the load is attached.
+     */
+    private void attach(
+            @NotNull final int[] staged,
+            @NotNull final ByteBuffer first,
+            @NotNull final ByteBuffer last) throws IOException {
+        final MemTable memTable = tables.memTable;
+        if (!memTable.isEmpty()) {
+            flush(memTable, 0);
+        }
+
+        // Keeps the levels the load is placed by
+        synchronized (compactionLock) {
+            synchronized (this) {
+                // Rotated by the writers waiting for this monitor, which only delete the logs then
+                for (final MemTable full : tables.flushing) {
+                    writeFlushing(full);
+                }
+
+                // Older than the memtable taking the later writes, so that its table goes above the load
+                final int loaded = generations.getAndAdd(staged.length);
+                final MemTable full;
+                final WriteAheadLog fullLog;
+                lock.writeLock().lock();
+                try {
+                    full = tables.memTable;
+                    fullLog = wal;
+                    final int generation = generations.getAndIncrement();
+                    final MemTable empty = new MemTable(config.getFlushThreshold(), generation);
+                    wal = new WriteAheadLog(logFile(generation), config.getSyncMode());
+                    tables = full.isEmpty()
+                            ? new TableSet(empty, tables.flushing, tables.ssTables)
+                            : tables.rotate(empty);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+
+                // No writer appends to it once the memtable is rotated
+                fullLog.seal();
+                writeFlushing(full);
+
+                final int level = compaction.loadLevel(tables.ssTables, first, last);
+                final List<SSTable> result = new ArrayList<>(staged.length);
+                for (int i = 0; i < staged.length; i++) {
+                    final File file = Manifest.stagedFile(storage, staged[i]);
+                    SSTable.setLevel(file, level);
+                    result.add(openTable(file, loaded + i));
+                }
+                manifest.apply(generations.get(), Collections.emptyList(), result, staged);
+                lock.writeLock().lock();
+                try {
+                    tables = tables.loaded(result);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                fullLog.delete();
+                log.debug("Loaded {} tables", result.size());
+            }
+        }
+        scheduleCompaction();
+    }
+
+    @NotNull
+    private SSTable openTable(
+            @NotNull final File file,
+            final int generation) throws IOException {
+        return SSTable.open(file, generation, blockCache, valueLog);
+    }
+
+    private int nextGeneration() {
+        return generations.getAndIncrement();
+    }
+
+    @NotNull
+    private File tableFile(final int generation) {
+        return new File(storage, generation + SSTable.SUFFIX);
+    }
+
+    @NotNull
+    private File logFile(final int generation) {
+        return new File(storage, generation + WriteAheadLog.SUFFIX);
+    }
+
+    /**
+     * Finds tables, logs and value log segments in the storage directory ignoring unrelated files.
+     */
+    private static void scan(
+            @NotNull final File storage,
+            @NotNull final Map<Integer, File> ssTables,
+            @NotNull final Map<Integer, File> logs,
+            @NotNull final Set<Integer> segments) throws IOException {
+        final File[] files = storage.listFiles();
+        if (files == null) {
+            throw new IOException("Can't list files in " + storage);
+        }
+
+        for (final File file : files) {
+            if (!file.isFile()) {
+                continue;
+            }
+            if (TEMP.matcher(file.getName()).matches() || STAGED.matcher(file.getName()).matches()) {
+                // Leftover of an interrupted flush, compaction or bulk load
+                java.nio.file.Files.delete(file.toPath());
+                continue;
+            }
+            final Matcher table = TABLE.matcher(file.getName());
+            if (table.matches()) {
+                ssTables.put(Integer.parseInt(table.group(1)), file);
+                continue;
+            }
+            final Matcher log = LOG.matcher(file.getName());
+            if (log.matches()) {
+                logs.put(Integer.parseInt(log.group(1)), file);
+                continue;
+            }
+            final Matcher segment = SEGMENT.matcher(file.getName());
+            if (segment.matches()) {
+                segments.add(Integer.parseInt(segment.group(1)));
+            }
+        }
+    }
+
+    /**
+     * Replays the logs whose tables are not written yet into memtables, the chunks of all logs in parallel.
+     *
+     * @param flushed   the generation of the newest memtable flushed as logged in the manifest
+     * @param recovered receives the non-empty memtables from the oldest to the newest
+     * @return the greatest sequence number found in the logs
+     */
+    private long replay(
+            @NotNull final Map<Integer, File> logs,
+            final int flushed,
+            @NotNull final List<MemTable> recovered) throws IOException {
+        final List<MemTable> memTables = new ArrayList<>(logs.size());
+        final List<Callable<Long>> chunks = new ArrayList<>();
+        for (final Map.Entry<Integer, File> entry : logs.entrySet()) {
+            final int generation = entry.getKey();
+            final File file = entry.getValue();
+            // The table may be already flushed, and even merged away, if the crash happened
+            // before the log was deleted, the storage written before the manifest has the table
+            if (generation > flushed && !tableFile(generation).exists()) {
+                final MemTable memTable = new MemTable(WriteAheadLog.capacity(file), generation);
+                memTables.add(memTable);
+                for (final ByteBuffer chunk : WriteAheadLog.split(file, config.getRecoveryThreads())) {
+                    chunks.add(() -> WriteAheadLog.replay(file, chunk, memTable));
+                }
+            }
+        }
+
+        long maxSeq = 0L;
+        for (final long seq : recover(chunks)) {
+            maxSeq = Math.max(maxSeq, seq);
+        }
+        for (final MemTable memTable : memTables) {
+            if (!memTable.isEmpty()) {
+                recovered.add(memTable);
+                log.info("Recovered {} from the log", logFile(memTable.getGeneration()));
+            }
+        }
+        return maxSeq;
+    }
+
+    /**
+     * Runs the tasks on the {@link #recovery} threads.
+     *
+     * @return the results of the tasks in the same order
+     */
+    @NotNull
+    private <T> List<T> recover(@NotNull final List<Callable<T>> tasks) throws IOException {
+        if (tasks.isEmpty()) {
+            return Collections.emptyList();
+        }
+        assert recovery != null;
+        final List<T> results = new ArrayList<>(tasks.size());
+        try {
+            for (final Future<T> result : recovery.invokeAll(tasks)) {
+                results.add(result.get());
+            }
+        } catch (InterruptedException e) {
+            recovery.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while recovering " + storage);
+        } catch (ExecutionException e) {
+            recovery.shutdownNow();
+            Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new IOException("Recovery failed", e.getCause());
+        }
+        return results;
+    }
+
+    /**
+     * Merge of the cells of a compaction within a key range into tables of its own.
+     */
+    private final class Subcompaction implements Runnable {
+        @NotNull
+        private final Compaction compaction;
+        private final int staged;
+        @NotNull
+        private final List<SSTable> older;
+        @NotNull
+        private final ByteBuffer from;
+        @Nullable
+        private final ByteBuffer to;
+        private final boolean background;
+        @NotNull
+        private final Set<Integer> relocated;
+        @NotNull
+        private final Thread owner = Thread.currentThread();
+
+        final List<SSTable> result = new ArrayList<>();
+        @Nullable
+        Throwable failure;
+
+        /**
+         * @param staged the generation of the staged file of an in place result
+         * @param to     the end of the range (exclusive) or {@code null} for the last range
+         */
+        Subcompaction(
+                @NotNull final Compaction compaction,
+                final int staged,
+                @NotNull final List<SSTable> older,
+                @NotNull final ByteBuffer from,
+                @Nullable final ByteBuffer to,
+                final boolean background,
+                @NotNull final Set<Integer> relocated) {
+            this.compaction = compaction;
+            this.staged = staged;
+            this.older = older;
+            this.from = from;
+            this.to = to;
+            this.background = background;
+            this.relocated = relocated;
+        }
+
+        @Override
+        public void run() {
+            try {
+                mergeCells();
+            } catch (IOException | RuntimeException | Error e) {
+                failure = e;
+            }
+        }
+
+        /**
+         * Writes the tables of the range, deletes them on failure.
+         */
+        void mergeCells() throws IOException {
+            final List<Iterator<Cell>> iterators = new ArrayList<>(compaction.inputs.size());
+            for (final SSTable table : compaction.inputs) {
+                iterators.add(table.rawIterator(from));
+            }
+            Iterator<Cell> cells = Iters.mergeNewest(
+                    iterators,
+                    Cell.COMPARATOR,
+                    cell -> !cell.isTombstone() || shadowsOlder(cell, older));
+            if (to != null) {
+                cells = Iters.until(cells, new Cell(to, null), Cell.COMPARATOR);
+            }
+
+            try {
+                while (cells.hasNext()) {
+                    result.add(writeTable(compaction, staged, cells, background, relocated, owner));
+                }
+            } catch (IOException e) {
+                // Only a result of several tables gets here with some of them written, all with new generations
+                deleteTables(result);
+                throw e;
+            }
+        }
+    }
+}
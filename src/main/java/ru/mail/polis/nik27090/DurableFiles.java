@@ -0,0 +1,39 @@
+package ru.mail.polis.nik27090;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Helpers for the renames of the storage to survive a crash, which takes forcing the directory
+ * holding the renamed file, not only the file itself.
+ */
+final class DurableFiles {
+    private DurableFiles() {
+        // Not instantiable
+    }
+
+    /**
+     * Renames the file atomically and forces its directory.
+     */
+    static void move(
+            @NotNull final File source,
+            @NotNull final File target) throws IOException {
+        Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory(target.getAbsoluteFile().getParentFile());
+    }
+
+    /**
+     * Forces the entries of the directory, e.g. after several renames in it.
+     */
+    static void forceDirectory(@NotNull final File directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package ru.mail.polis.nik27090;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link PrefixExtractor} of the first bytes of the keys, the shorter keys have no prefix.
+ */
+final class FixedLengthPrefix implements PrefixExtractor {
+    private final int length;
+
+    FixedLengthPrefix(final int length) {
+        this.length = length;
+    }
+
+    @Nullable
+    @Override
+    public ByteBuffer prefix(@NotNull final ByteBuffer key) {
+        if (key.remaining() < length) {
+            return null;
+        }
+        return key.duplicate().limit(key.position() + length);
+    }
+
+    @NotNull
+    @Override
+    public String name() {
+        return "fixed:" + length;
+    }
+
+    @Override
+    public String toString() {
+        return name();
+    }
+}
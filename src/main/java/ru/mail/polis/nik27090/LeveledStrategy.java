@@ -0,0 +1,212 @@
+package ru.mail.polis.nik27090;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Leveled compaction: every level above 0 is a run of non-overlapping tables
+ * {@link Config#getLevelSizeRatio()} times bigger than the previous level, favours read and space amplification.
+ *
+ * <p>Level 0 holds flushed memtables and is merged into level 1 once it has fan-in tables.
+ * A level over its size limit pushes its oldest table into the next level merging it with the overlapping ones.
+ * A lookup thus touches at most one table per level above 0.
+ *
+ * <p>A table above level 0 with too many tombstones is rewritten on its own if no deeper table
+ * overlaps it, otherwise it is pushed down, until its tombstones can be dropped.
+ */
+final class LeveledStrategy implements CompactionStrategy {
+    private final int fanIn;
+    private final int ratio;
+    private final long tableSize;
+    private final double tombstoneRatio;
+
+    LeveledStrategy(@NotNull final Config config) {
+        this.fanIn = config.getCompactionFanIn();
+        this.ratio = config.getLevelSizeRatio();
+        this.tableSize = config.getFlushThreshold();
+        this.tombstoneRatio = config.getTombstoneRatio();
+    }
+
+    /**
+     * Picks the level exceeding its limit the most, otherwise the table with the most tombstones.
+     */
+    @Nullable
+    @Override
+    public Compaction select(@NotNull final List<SSTable> tables) {
+        if (fanIn == 0) {
+            return null;
+        }
+        final List<List<SSTable>> levels = levels(tables);
+
+        int level = -1;
+        double maxScore = 1.0;
+        if (levels.get(0).size() >= fanIn) {
+            level = 0;
+            maxScore = (double) levels.get(0).size() / fanIn;
+        }
+        double limit = (double) fanIn * tableSize;
+        for (int i = 1; i < levels.size(); i++) {
+            final double score = sizeOf(levels.get(i)) / limit;
+            if (score > maxScore) {
+                level = i;
+                maxScore = score;
+            }
+            limit *= ratio;
+        }
+
+        if (level == 0) {
+            return push(levels, 0, levels.get(0));
+        }
+        if (level > 0) {
+            SSTable oldest = null;
+            for (final SSTable table : levels.get(level)) {
+                if (oldest == null || table.getGeneration() < oldest.getGeneration()) {
+                    oldest = table;
+                }
+            }
+            return push(levels, level, Collections.singletonList(oldest));
+        }
+        return purge(levels);
+    }
+
+    /**
+     * Merges everything into the deepest level.
+     */
+    @NotNull
+    @Override
+    public Compaction major(@NotNull final List<SSTable> tables) {
+        return Compaction.toLevel(tables, Math.max(levels(tables).size() - 1, 1), tableSize);
+    }
+
+    /**
+     * Places the load right above the shallowest level overlapping it,
+     * into the deepest level if none does.
+     */
+    @Override
+    public int loadLevel(
+            @NotNull final List<SSTable> tables,
+            @NotNull final ByteBuffer first,
+            @NotNull final ByteBuffer last) {
+        final List<List<SSTable>> levels = levels(tables);
+        for (int level = 0; level < levels.size(); level++) {
+            if (!overlapping(levels.get(level), first, last).isEmpty()) {
+                return Math.max(level - 1, 0);
+            }
+        }
+        return Math.max(levels.size() - 1, 1);
+    }
+
+    @Override
+    public long loadTableSize() {
+        return tableSize;
+    }
+
+    /**
+     * Merges the tables of the level with the overlapping tables of the next one.
+     */
+    @NotNull
+    private Compaction push(
+            @NotNull final List<List<SSTable>> levels,
+            final int level,
+            @NotNull final List<SSTable> tables) {
+        final List<SSTable> inputs = new ArrayList<>(tables);
+        final ByteBuffer[] range = range(tables);
+        if (range != null && level + 1 < levels.size()) {
+            inputs.addAll(overlapping(levels.get(level + 1), range[0], range[1]));
+        }
+        inputs.sort(SSTable.ORDER);
+        return Compaction.toLevel(inputs, level + 1, tableSize);
+    }
+
+    @Nullable
+    private Compaction purge(@NotNull final List<List<SSTable>> levels) {
+        if (tombstoneRatio == 0.0) {
+            return null;
+        }
+        SSTable worst = null;
+        for (int level = 1; level < levels.size(); level++) {
+            for (final SSTable table : levels.get(level)) {
+                if (table.tombstoneRatio() > tombstoneRatio
+                        && (worst == null || table.tombstoneRatio() > worst.tombstoneRatio())) {
+                    worst = table;
+                }
+            }
+        }
+        if (worst == null) {
+            return null;
+        }
+
+        final ByteBuffer from = worst.firstKey();
+        final ByteBuffer to = worst.lastKey();
+        for (int level = worst.getLevel() + 1; level < levels.size(); level++) {
+            if (!overlapping(levels.get(level), from, to).isEmpty()) {
+                return push(levels, worst.getLevel(), Collections.singletonList(worst));
+            }
+        }
+        return Compaction.inPlace(Collections.singletonList(worst));
+    }
+
+    /**
+     * Groups the tables by level, the result has at least level 0.
+     */
+    @NotNull
+    private static List<List<SSTable>> levels(@NotNull final List<SSTable> tables) {
+        final List<List<SSTable>> result = new ArrayList<>();
+        result.add(new ArrayList<>());
+        for (final SSTable table : tables) {
+            while (result.size() <= table.getLevel()) {
+                result.add(new ArrayList<>());
+            }
+            result.get(table.getLevel()).add(table);
+        }
+        return result;
+    }
+
+    private static double sizeOf(@NotNull final List<SSTable> tables) {
+        long result = 0L;
+        for (final SSTable table : tables) {
+            result += table.sizeInBytes();
+        }
+        return result;
+    }
+
+    /**
+     * Returns the least and the greatest key of the tables or {@code null} if all of them are empty.
+     */
+    @Nullable
+    private static ByteBuffer[] range(@NotNull final List<SSTable> tables) {
+        ByteBuffer from = null;
+        ByteBuffer to = null;
+        for (final SSTable table : tables) {
+            if (table.isEmpty()) {
+                continue;
+            }
+            if (from == null || table.firstKey().compareTo(from) < 0) {
+                from = table.firstKey();
+            }
+            if (to == null || table.lastKey().compareTo(to) > 0) {
+                to = table.lastKey();
+            }
+        }
+        return from == null ? null : new ByteBuffer[]{from, to};
+    }
+
+    @NotNull
+    private static List<SSTable> overlapping(
+            @NotNull final List<SSTable> tables,
+            @NotNull final ByteBuffer from,
+            @NotNull final ByteBuffer to) {
+        final List<SSTable> result = new ArrayList<>();
+        for (final SSTable table : tables) {
+            if (table.overlaps(from, to)) {
+                result.add(table);
+            }
+        }
+        return result;
+    }
+}
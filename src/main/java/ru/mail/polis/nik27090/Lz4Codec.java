@@ -0,0 +1,263 @@
+package ru.mail.polis.nik27090;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pure Java codec of the LZ4 block format.
+ *
+ * <p>The data is a run of sequences {@code token | literalLength* | literals | offset:short | matchLength*},
+ * the token keeps four bits of both lengths, longer lengths continue in bytes of {@code 255} and the
+ * terminating byte. A match copies {@code matchLength + 4} bytes from {@code offset} bytes back,
+ * the last sequence has literals only. The compressor is a greedy single-probe hash
+ * accelerating over the incompressible data, as the reference one.
+ */
+final class Lz4Codec implements Codec {
+    static final Lz4Codec INSTANCE = new Lz4Codec();
+
+    private static final byte ID = 1;
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_FIND_LIMIT = 12;
+    private static final int MAX_DISTANCE = 0xFFFF;
+    private static final int HASH_LOG = 12;
+    private static final int SKIP_TRIGGER = 6;
+    private static final int RUN_MASK = 0x0F;
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private Lz4Codec() {
+        // Use INSTANCE
+    }
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public int maxCompressedLength(final int length) {
+        return length + length / 255 + 16;
+    }
+
+    @Override
+    public int compress(
+            @NotNull final byte[] src,
+            final int length,
+            @NotNull final byte[] dst) {
+        int anchor = 0;
+        int out = 0;
+        if (length >= MATCH_FIND_LIMIT) {
+            final int[] table = new int[1 << HASH_LOG];
+            final int limit = length - MATCH_FIND_LIMIT;
+            final int matchLimit = length - LAST_LITERALS;
+            int in = 1;
+            while (in <= limit) {
+                final int hash = hash(src, in);
+                int ref = table[hash];
+                table[hash] = in;
+                if (ref >= in || in - ref > MAX_DISTANCE || readInt(src, ref) != readInt(src, in)) {
+                    in += 1 + ((in - anchor) >>> SKIP_TRIGGER);
+                    continue;
+                }
+
+                int start = in;
+                while (start > anchor && ref > 0 && src[start - 1] == src[ref - 1]) {
+                    start--;
+                    ref--;
+                }
+                int end = start + MIN_MATCH;
+                int match = ref + MIN_MATCH;
+                while (end < matchLimit && src[end] == src[match]) {
+                    end++;
+                    match++;
+                }
+                out = writeSequence(dst, out, src, anchor, start - anchor, start - ref, end - start - MIN_MATCH);
+                in = end;
+                anchor = end;
+            }
+        }
+        return writeLiterals(dst, out, src, anchor, length - anchor);
+    }
+
+    /**
+     * Decodes on heap arrays, which is several times faster than byte by byte access to the mapped
+     * and direct buffers, and moves the data in and out with bulk copies. The arrays are reused by the thread
+     * and a heap destination is decoded into directly.
+     */
+    @Override
+    public void decompress(
+            @NotNull final ByteBuffer src,
+            final int offset,
+            final int length,
+            @NotNull final ByteBuffer dst,
+            final int rawLength) {
+        final Scratch scratch = SCRATCH.get();
+        final byte[] in = scratch.input(length);
+        src.duplicate().position(offset).get(in, 0, length);
+        dst.clear();
+        try {
+            if (dst.hasArray() && dst.arrayOffset() == 0) {
+                decompress(in, length, dst.array(), rawLength);
+                dst.limit(rawLength);
+            } else {
+                final byte[] out = scratch.output(rawLength);
+                decompress(in, length, out, rawLength);
+                dst.put(out, 0, rawLength).flip();
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalStateException("Truncated block", e);
+        }
+    }
+
+    private static void decompress(
+            @NotNull final byte[] src,
+            final int srcLength,
+            @NotNull final byte[] dst,
+            final int dstLength) {
+        int in = 0;
+        int out = 0;
+        while (true) {
+            final int token = src[in++] & 0xFF;
+            int literalLength = token >>> 4;
+            if (literalLength == RUN_MASK) {
+                int b;
+                do {
+                    b = src[in++] & 0xFF;
+                    literalLength += b;
+                } while (b == 0xFF);
+            }
+            if (in + literalLength > srcLength || out + literalLength > dstLength) {
+                throw new IllegalStateException("Corrupted block at " + in);
+            }
+            System.arraycopy(src, in, dst, out, literalLength);
+            in += literalLength;
+            out += literalLength;
+            if (in == srcLength) {
+                break;
+            }
+
+            if (in + 2 > srcLength) {
+                throw new IllegalStateException("Truncated block at " + in);
+            }
+            final int distance = (src[in] & 0xFF) | (src[in + 1] & 0xFF) << 8;
+            in += 2;
+            int matchLength = token & RUN_MASK;
+            if (matchLength == RUN_MASK) {
+                int b;
+                do {
+                    b = src[in++] & 0xFF;
+                    matchLength += b;
+                } while (b == 0xFF);
+            }
+            matchLength += MIN_MATCH;
+            if (distance == 0 || distance > out || out + matchLength > dstLength) {
+                throw new IllegalStateException("Corrupted block at " + in);
+            }
+            if (distance >= matchLength) {
+                System.arraycopy(dst, out - distance, dst, out, matchLength);
+            } else {
+                // The match overlaps with its own output repeating the last distance bytes
+                for (int i = 0; i < matchLength; i++) {
+                    dst[out + i] = dst[out - distance + i];
+                }
+            }
+            out += matchLength;
+        }
+        if (out != dstLength) {
+            throw new IllegalStateException("Corrupted block: " + out + " bytes instead of " + dstLength);
+        }
+    }
+
+    private static int writeSequence(
+            @NotNull final byte[] dst,
+            final int offset,
+            @NotNull final byte[] src,
+            final int literalOffset,
+            final int literalLength,
+            final int distance,
+            final int matchLength) {
+        int out = offset;
+        final int token = Math.min(literalLength, RUN_MASK) << 4 | Math.min(matchLength, RUN_MASK);
+        dst[out++] = (byte) token;
+        out = writeLength(dst, out, literalLength);
+        System.arraycopy(src, literalOffset, dst, out, literalLength);
+        out += literalLength;
+        dst[out++] = (byte) distance;
+        dst[out++] = (byte) (distance >>> 8);
+        return writeLength(dst, out, matchLength);
+    }
+
+    private static int writeLiterals(
+            @NotNull final byte[] dst,
+            final int offset,
+            @NotNull final byte[] src,
+            final int literalOffset,
+            final int literalLength) {
+        int out = offset;
+        dst[out++] = (byte) (Math.min(literalLength, RUN_MASK) << 4);
+        out = writeLength(dst, out, literalLength);
+        System.arraycopy(src, literalOffset, dst, out, literalLength);
+        return out + literalLength;
+    }
+
+    /**
+     * Writes the continuation of a length which doesn't fit the token.
+     */
+    private static int writeLength(
+            @NotNull final byte[] dst,
+            final int offset,
+            final int length) {
+        if (length < RUN_MASK) {
+            return offset;
+        }
+        int out = offset;
+        int rest = length - RUN_MASK;
+        while (rest >= 0xFF) {
+            dst[out++] = (byte) 0xFF;
+            rest -= 0xFF;
+        }
+        dst[out++] = (byte) rest;
+        return out;
+    }
+
+    private static int readInt(
+            @NotNull final byte[] src,
+            final int offset) {
+        return (src[offset] & 0xFF)
+                | (src[offset + 1] & 0xFF) << 8
+                | (src[offset + 2] & 0xFF) << 16
+                | (src[offset + 3] & 0xFF) << 24;
+    }
+
+    private static int hash(
+            @NotNull final byte[] src,
+            final int offset) {
+        return (readInt(src, offset) * -1640531535) >>> (Integer.SIZE - HASH_LOG);
+    }
+
+    /**
+     * Arrays of a thread to decode in, grown on demand.
+     */
+    private static final class Scratch {
+        private byte[] input = new byte[0];
+        private byte[] output = new byte[0];
+
+        @NotNull
+        byte[] input(final int size) {
+            if (input.length < size) {
+                input = new byte[size];
+            }
+            return input;
+        }
+
+        @NotNull
+        byte[] output(final int size) {
+            if (output.length < size) {
+                output = new byte[size];
+            }
+            return output;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package ru.mail.polis.nik27090;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32C;
+
+/**
+ * Log of the edits of the set of tables on disk, so that the storage opens without reading the tables.
+ *
+ * <p>The {@code MANIFEST} file is a sequence of {@code length:int | crc32c:int | edit} records, where an edit is
+ * {@code nextGeneration:int | flushed:int | removed:int | generation:int[removed] | added:int
+ * | (staged:int | summary)[added]} with the {@link SSTable#summarize(ByteBuffer) summaries} of the added tables.
+ * A record torn by a crash ends the log.
+ *
+ * <p>The memtables are flushed from the oldest to the newest, so the greatest generation of a memtable
+ * whose table has been logged tells the logs left by a crash which needn't be replayed,
+ * even after the table is merged away.
+ *
+ * <p>An edit is durable before the storage uses it: the added tables are written before it and the removed ones
+ * are deleted after it. An added table may be staged as {@code <staged>.sst.staged} under a generation of its own,
+ * e.g. the result of an in place compaction replacing the file of an input, and is renamed to its table once
+ * the edit is durable. Replaying the log completes the renames interrupted by a crash, so the staged files left
+ * are those of the edits which were not logged, like the tables the log doesn't know.
+ *
+ * <p>The log is rewritten as a single edit on open and once it grows several times bigger than that.
+ */
+final class Manifest implements Closeable {
+    static final String FILE = "MANIFEST";
+    static final String STAGED = SSTable.SUFFIX + ".staged";
+
+    private static final Logger log = LoggerFactory.getLogger(Manifest.class);
+
+    private static final int HEADER = Integer.BYTES + Integer.BYTES;
+    private static final int NOT_STAGED = -1;
+    static final int NOT_FLUSHED = -1;
+    /**
+     * The log is rewritten once it is this many times bigger than a single edit of the live tables.
+     */
+    private static final int REWRITE_RATIO = 4;
+    private static final long MIN_REWRITE_SIZE = 1024 * 1024;
+
+    @NotNull
+    private final File storage;
+    private final Map<Integer, SSTable> tables = new TreeMap<>();
+    private int nextGeneration;
+    private int flushed = NOT_FLUSHED;
+    /**
+     * Unlike a {@link FileChannel} isn't closed by an interrupt, e.g. of a compaction cancelled when its edit
+     * is being logged.
+     */
+    private RandomAccessFile output;
+    private long size;
+    private long rewriteSize;
+
+    private Manifest(@NotNull final File storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Replays the log of the storage completing the interrupted renames.
+     *
+     * @return the log with its tables to be mapped on first read,
+     * {@code null} if there is none, e.g. the storage was written before the log was introduced
+     */
+    @Nullable
+    static Manifest read(
+            @NotNull final File storage,
+            @Nullable final BlockCache cache,
+            @Nullable final ValueLog valueLog) throws IOException {
+        final File file = new File(storage, FILE);
+        if (!file.exists()) {
+            return null;
+        }
+
+        final Manifest manifest = new Manifest(storage);
+        final Map<Integer, Integer> renames = new TreeMap<>();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            while (mapped.remaining() >= HEADER) {
+                final int length = mapped.getInt(mapped.position());
+                final int checksum = mapped.getInt(mapped.position() + Integer.BYTES);
+                if (length < 0 || length > mapped.remaining() - HEADER) {
+                    break;
+                }
+                final ByteBuffer edit = mapped.duplicate().position(mapped.position() + HEADER);
+                edit.limit(edit.position() + length);
+                if (checksum(edit) != checksum) {
+                    break;
+                }
+                manifest.replay(edit, cache, valueLog, renames);
+                mapped.position(edit.limit());
+            }
+        }
+
+        boolean renamed = false;
+        for (final Map.Entry<Integer, Integer> rename : renames.entrySet()) {
+            final File staged = stagedFile(storage, rename.getKey());
+            if (staged.exists() && manifest.tables.containsKey(rename.getValue())) {
+                java.nio.file.Files.move(
+                        staged.toPath(),
+                        new File(storage, rename.getValue() + SSTable.SUFFIX).toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+                log.info("Completed the rename of {}", staged);
+                renamed = true;
+            }
+        }
+        if (renamed) {
+            DurableFiles.forceDirectory(storage);
+        }
+        return manifest;
+    }
+
+    /**
+     * Starts a new log of the given tables replacing the existing one.
+     *
+     * @param flushed the generation of the newest memtable flushed, see {@link #getFlushed()}
+     */
+    @NotNull
+    static Manifest create(
+            @NotNull final File storage,
+            @NotNull final Collection<SSTable> tables,
+            final int nextGeneration,
+            final int flushed) throws IOException {
+        final Manifest manifest = new Manifest(storage);
+        for (final SSTable table : tables) {
+            manifest.tables.put(table.getGeneration(), table);
+        }
+        manifest.nextGeneration = nextGeneration;
+        manifest.flushed = flushed;
+        manifest.rewrite();
+        return manifest;
+    }
+
+    @NotNull
+    static File stagedFile(
+            @NotNull final File storage,
+            final int staged) {
+        return new File(storage, staged + STAGED);
+    }
+
+    /**
+     * Returns the live tables by generation.
+     */
+    @NotNull
+    Collection<SSTable> getTables() {
+        return Collections.unmodifiableCollection(tables.values());
+    }
+
+    /**
+     * Returns the generation greater than any generation in use when the last edit was logged.
+     */
+    int getNextGeneration() {
+        return nextGeneration;
+    }
+
+    /**
+     * Returns the generation of the newest memtable whose table has been logged, its log and the logs
+     * of the older memtables are left only by a crash, {@link #NOT_FLUSHED} if none.
+     */
+    int getFlushed() {
+        return flushed;
+    }
+
+    /**
+     * Logs the edit durably and renames the staged tables.
+     *
+     * @param nextGeneration greater than any generation in use, including the staged ones
+     * @param staged         generations of the staged files of the added tables, or {@code -1} for the tables
+     *                       written in place, {@code null} if none is staged
+     */
+    void apply(
+            final int nextGeneration,
+            @NotNull final List<SSTable> removed,
+            @NotNull final List<SSTable> added,
+            @Nullable final int[] staged) throws IOException {
+        apply(nextGeneration, NOT_FLUSHED, removed, added, staged);
+    }
+
+    /**
+     * Logs the edit durably and renames the staged tables.
+     *
+     * @param flushed the generation of the memtable the added table is flushed from, no older memtable
+     *                may be left unflushed, or {@link #NOT_FLUSHED}
+     */
+    synchronized void apply(
+            final int nextGeneration,
+            final int flushed,
+            @NotNull final List<SSTable> removed,
+            @NotNull final List<SSTable> added,
+            @Nullable final int[] staged) throws IOException {
+        this.flushed = Math.max(this.flushed, flushed);
+        append(nextGeneration, removed, added, staged);
+
+        if (staged != null) {
+            for (int i = 0; i < added.size(); i++) {
+                if (staged[i] != NOT_STAGED) {
+                    java.nio.file.Files.move(
+                            stagedFile(storage, staged[i]).toPath(),
+                            new File(storage, added.get(i).getGeneration() + SSTable.SUFFIX).toPath(),
+                            StandardCopyOption.ATOMIC_MOVE);
+                }
+            }
+            // Before the caller deletes the inputs replaced by the renamed tables
+            DurableFiles.forceDirectory(storage);
+        }
+
+        this.nextGeneration = Math.max(this.nextGeneration, nextGeneration);
+        for (final SSTable table : removed) {
+            tables.remove(table.getGeneration());
+        }
+        for (final SSTable table : added) {
+            tables.put(table.getGeneration(), table);
+        }
+        if (size > rewriteSize) {
+            rewrite();
+        }
+    }
+
+    /**
+     * Closes the log, a log only {@link #read} has nothing open.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (output != null) {
+            output.close();
+        }
+    }
+
+    private void append(
+            final int nextGeneration,
+            @NotNull final List<SSTable> removed,
+            @NotNull final List<SSTable> added,
+            @Nullable final int[] staged) throws IOException {
+        int length = Integer.BYTES + Integer.BYTES + Integer.BYTES + removed.size() * Integer.BYTES + Integer.BYTES;
+        for (final SSTable table : added) {
+            length += Integer.BYTES + table.summarySize();
+        }
+        final ByteBuffer record = ByteBuffer.allocate(HEADER + length);
+        record.position(HEADER);
+        record.putInt(nextGeneration);
+        record.putInt(flushed);
+        record.putInt(removed.size());
+        for (final SSTable table : removed) {
+            record.putInt(table.getGeneration());
+        }
+        record.putInt(added.size());
+        for (int i = 0; i < added.size(); i++) {
+            record.putInt(staged == null ? NOT_STAGED : staged[i]);
+            added.get(i).summarize(record);
+        }
+        record.flip();
+        record.putInt(0, length);
+        record.putInt(Integer.BYTES, checksum(record.duplicate().position(HEADER)));
+        output.seek(size);
+        output.write(record.array(), 0, record.limit());
+        output.getFD().sync();
+        size += record.limit();
+    }
+
+    private void replay(
+            @NotNull final ByteBuffer edit,
+            @Nullable final BlockCache cache,
+            @Nullable final ValueLog valueLog,
+            @NotNull final Map<Integer, Integer> renames) {
+        nextGeneration = Math.max(nextGeneration, edit.getInt());
+        flushed = Math.max(flushed, edit.getInt());
+        final int removed = edit.getInt();
+        for (int i = 0; i < removed; i++) {
+            tables.remove(edit.getInt());
+        }
+        final int added = edit.getInt();
+        for (int i = 0; i < added; i++) {
+            final int staged = edit.getInt();
+            final SSTable table = SSTable.fromSummary(storage, edit, cache, valueLog);
+            tables.put(table.getGeneration(), table);
+            if (staged != NOT_STAGED) {
+                renames.put(staged, table.getGeneration());
+            }
+        }
+    }
+
+    /**
+     * Replaces the log with a single edit adding the live tables.
+     */
+    private void rewrite() throws IOException {
+        final File file = new File(storage, FILE);
+        final File temp = new File(storage, FILE + SSTable.TEMP);
+        final RandomAccessFile previous = output;
+        output = new RandomAccessFile(temp, "rw");
+        output.setLength(0L);
+        size = 0L;
+        append(nextGeneration, Collections.emptyList(), new ArrayList<>(tables.values()), null);
+        DurableFiles.move(temp, file);
+        if (previous != null) {
+            previous.close();
+        }
+        rewriteSize = Math.max(REWRITE_RATIO * size, MIN_REWRITE_SIZE);
+        log.debug("Rewrote the manifest of {} tables", tables.size());
+    }
+
+    private static int checksum(@NotNull final ByteBuffer edit) {
+        final CRC32C crc = new CRC32C();
+        crc.update(edit.duplicate());
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,655 @@
+package ru.mail.polis.nik27090;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.WriteBatch;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Size-bounded memtable keeping keys, values and its sorted index in a single direct arena.
+ *
+ * <p>The index is a lock-free skip list whose nodes live in the arena next to the data, so the table
+ * creates no per-entry heap objects. Nodes and value records are append-only: an update appends
+ * a new value record and repoints the node, a removal appends a tombstone record.
+ * Every write carries a sequence number and a node only ever moves to a value with a greater one,
+ * so concurrent writes to the same key resolve the same way as their replay from the log.
+ * A value record links the one it replaced, so a snapshot reads the newest version not newer than itself.
+ * A write losing to a newer one is linked below it, since a reader may see the former and not the latter.
+ * Nodes are never unlinked, so concurrent writers only race on linking a node into each level,
+ * which is resolved by CAS on the {@code next} pointers in the arena.
+ * The list is singly linked, a cursor moving backward searches for the predecessor from the head in logarithmic
+ * time instead.
+ *
+ * <p>Node layout: {@code keyLength:int | value:int | height:int | next:int[height] | key}.
+ * Value record layout: {@code seq:long | prev:int | length:int | bytes}, where length {@code -1} marks a tombstone
+ * and {@code prev} is the replaced value record or "nil".
+ * All records are 4-byte aligned, offset {@code 0} is the head node and doubles as "nil".
+ */
+final class MemTable implements Table {
+    private static final int MAX_HEIGHT = 12;
+    private static final int BRANCHING = 4;
+
+    private static final int NIL = 0;
+    private static final int HEAD = 0;
+
+    private static final int KEY_LENGTH = 0;
+    private static final int VALUE = KEY_LENGTH + Integer.BYTES;
+    private static final int HEIGHT = VALUE + Integer.BYTES;
+    private static final int NEXT = HEIGHT + Integer.BYTES;
+
+    private static final int SEQ = 0;
+    private static final int PREV = SEQ + Long.BYTES;
+    private static final int LENGTH = PREV + Integer.BYTES;
+    private static final int DATA = LENGTH + Integer.BYTES;
+
+    private static final int TOMBSTONE = -1;
+    private static final int FULL = -1;
+
+    /**
+     * Atomic access to the aligned ints of the arena.
+     */
+    private static final VarHandle INT =
+            MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private final ByteBuffer arena;
+    private final ByteBuffer view;
+    private final int generation;
+
+    private final AtomicInteger allocated;
+    private final AtomicInteger height = new AtomicInteger(1);
+
+    /**
+     * Creates a memtable able to hold {@code capacity} bytes of keys, values and index.
+     *
+     * @param generation generation assigned to the cells of this table
+     */
+    MemTable(
+            final int capacity,
+            final int generation) {
+        this.arena = ByteBuffer.allocateDirect(nodeSize(MAX_HEIGHT, 0) + capacity).order(ByteOrder.nativeOrder());
+        this.view = arena.asReadOnlyBuffer().order(ByteOrder.nativeOrder());
+        this.generation = generation;
+        arena.putInt(HEAD + HEIGHT, MAX_HEIGHT);
+        this.allocated = new AtomicInteger(nodeSize(MAX_HEIGHT, 0));
+    }
+
+    /**
+     * Returns the upper bound of arena bytes needed to store the given entry.
+     */
+    static int sizeOf(
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer value) {
+        return sizeOf(key.remaining(), value == null ? TOMBSTONE : value.remaining());
+    }
+
+    /**
+     * Returns the upper bound of arena bytes needed to store an entry of the given size.
+     *
+     * @param valueLength value length or {@code -1} for a tombstone
+     */
+    static int sizeOf(
+            final int keyLength,
+            final int valueLength) {
+        return nodeSize(MAX_HEIGHT, keyLength) + valueSize(valueLength);
+    }
+
+    /**
+     * Inserts or updates value by given key, safe to call from many threads.
+     *
+     * @param seq sequence number of the write, the greatest one wins
+     * @return {@code false} if the arena has no room left for the entry
+     */
+    boolean upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value,
+            final long seq) {
+        return put(key, value, seq);
+    }
+
+    /**
+     * Stores a tombstone for given key.
+     *
+     * @param seq sequence number of the write, the greatest one wins
+     * @return {@code false} if the arena has no room left for the entry
+     */
+    boolean remove(
+            @NotNull final ByteBuffer key,
+            final long seq) {
+        return put(key, null, seq);
+    }
+
+    boolean isEmpty() {
+        return next(HEAD, 0) == NIL;
+    }
+
+    int getGeneration() {
+        return generation;
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return allocated.get();
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> iterator(@NotNull final ByteBuffer from) {
+        return new CellIterator(findGreaterOrEqual(from), false);
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> liveIterator(@NotNull final ByteBuffer from) {
+        return new CellIterator(findGreaterOrEqual(from), true);
+    }
+
+    /**
+     * Returns a cursor reading the cells in place from the arena, the values are never pooled.
+     */
+    @NotNull
+    @Override
+    public CellCursor cursor(
+            final boolean pooled,
+            final long seq) {
+        return new ArenaCursor(seq);
+    }
+
+    @Nullable
+    @Override
+    public ByteBuffer get(@NotNull final ByteBuffer key) {
+        return get(key, Long.MAX_VALUE);
+    }
+
+    /**
+     * Looks up the newest version of the key written not later than the given sequence number.
+     *
+     * @return the value, {@link #TOMBSTONE} if the key is removed or {@code null} if the table has no cell for it
+     */
+    @Nullable
+    ByteBuffer get(
+            @NotNull final ByteBuffer key,
+            final long seq) {
+        final int node = findGreaterOrEqual(key);
+        if (node == NIL || compare(node, key) != 0) {
+            return null;
+        }
+        final int valueOffset = version(node, seq);
+        if (valueOffset == NIL) {
+            return null;
+        }
+        final int length = arena.getInt(valueOffset + LENGTH);
+        return length == TOMBSTONE ? Table.TOMBSTONE : Bytes.slice(view, valueOffset + DATA, length);
+    }
+
+    /**
+     * Applies the writes of the batch with consecutive sequence numbers starting from the given one,
+     * safe to call from many threads. The space for the whole batch is reserved at once,
+     * so either all the writes are applied or none.
+     *
+     * @return {@code false} if the arena has no room left for the batch
+     */
+    boolean apply(
+            @NotNull final WriteBatch batch,
+            final long firstSeq) {
+        final int[] heights = new int[batch.size()];
+        long total = 0L;
+        for (int i = 0; i < heights.length; i++) {
+            heights[i] = randomHeight();
+            final ByteBuffer value = batch.value(i);
+            total += nodeSize(heights[i], batch.key(i).remaining())
+                    + valueSize(value == null ? TOMBSTONE : value.remaining());
+        }
+        if (total > Integer.MAX_VALUE) {
+            return false;
+        }
+        int offset = allocate((int) total);
+        if (offset == FULL) {
+            return false;
+        }
+
+        final int[] prev = new int[MAX_HEIGHT];
+        final int[] next = new int[MAX_HEIGHT];
+        for (int i = 0; i < heights.length; i++) {
+            offset = put(offset, heights[i], batch.key(i), batch.value(i), firstSeq + i, prev, next);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the upper bound of arena bytes needed to store the given batch.
+     */
+    static long sizeOf(@NotNull final WriteBatch batch) {
+        long result = 0L;
+        for (int i = 0; i < batch.size(); i++) {
+            result += sizeOf(batch.key(i), batch.value(i));
+        }
+        return result;
+    }
+
+    private boolean put(
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer value,
+            final long seq) {
+        final int nodeHeight = randomHeight();
+        final int valueSize = valueSize(value == null ? TOMBSTONE : value.remaining());
+        final int offset = allocate(nodeSize(nodeHeight, key.remaining()) + valueSize);
+        if (offset == FULL) {
+            return false;
+        }
+        put(offset, nodeHeight, key, value, seq, new int[MAX_HEIGHT], new int[MAX_HEIGHT]);
+        return true;
+    }
+
+    /**
+     * Writes the entry to the reserved space at the given offset and links it into the index.
+     *
+     * @return the end of the space taken by the entry
+     */
+    private int put(
+            final int offset,
+            final int nodeHeight,
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer value,
+            final long seq,
+            @NotNull final int[] prev,
+            @NotNull final int[] next) {
+        final int valueSize = valueSize(value == null ? TOMBSTONE : value.remaining());
+        final int end = offset + valueSize + nodeSize(nodeHeight, key.remaining());
+        final int valueOffset = offset;
+        writeValue(valueOffset, value, seq);
+        final int node = offset + valueSize;
+        arena.putInt(node + KEY_LENGTH, key.remaining());
+        arena.putInt(node + VALUE, valueOffset);
+        arena.putInt(node + HEIGHT, nodeHeight);
+        Bytes.put(arena, keyOffset(node), key);
+
+        findGreaterOrEqual(key, prev, next);
+        raiseHeight(nodeHeight);
+
+        // Level 0 decides whether the key is new
+        while (true) {
+            if (next[0] != NIL && compare(next[0], key) == 0) {
+                // Lost the race or an update: the node stays unlinked garbage in the arena
+                setValue(next[0], valueOffset, seq);
+                return end;
+            }
+            setNext(node, 0, next[0]);
+            if (casNext(prev[0], 0, next[0], node)) {
+                break;
+            }
+            findOnLevel(key, prev, next, 0);
+        }
+
+        for (int level = 1; level < nodeHeight; level++) {
+            while (true) {
+                setNext(node, level, next[level]);
+                if (casNext(prev[level], level, next[level], node)) {
+                    break;
+                }
+                findOnLevel(key, prev, next, level);
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Finds the first node with key greater or equal to the given one.
+     */
+    private int findGreaterOrEqual(@NotNull final ByteBuffer key) {
+        int node = HEAD;
+        int level = height.get() - 1;
+        while (true) {
+            final int next = next(node, level);
+            if (next != NIL && compare(next, key) < 0) {
+                node = next;
+            } else if (level == 0) {
+                return next;
+            } else {
+                level--;
+            }
+        }
+    }
+
+    /**
+     * Finds the last node with key less than the given one, or less or equal if asked to,
+     * the last node of all if the key is {@code null}.
+     *
+     * @return the node or "nil" if there is none
+     */
+    private int findLast(
+            @Nullable final ByteBuffer key,
+            final boolean inclusive) {
+        int node = HEAD;
+        int level = height.get() - 1;
+        while (true) {
+            final int next = next(node, level);
+            if (next != NIL && (key == null || isBefore(next, key, inclusive))) {
+                node = next;
+            } else if (level == 0) {
+                return node;
+            } else {
+                level--;
+            }
+        }
+    }
+
+    private boolean isBefore(
+            final int node,
+            @NotNull final ByteBuffer key,
+            final boolean inclusive) {
+        final int result = compare(node, key);
+        return result < 0 || inclusive && result == 0;
+    }
+
+    /**
+     * Fills {@code prev} and {@code next} with the nodes around the given key on every level.
+     */
+    private void findGreaterOrEqual(
+            @NotNull final ByteBuffer key,
+            @NotNull final int[] prev,
+            @NotNull final int[] next) {
+        int node = HEAD;
+        for (int level = MAX_HEIGHT - 1; level >= 0; level--) {
+            prev[level] = node;
+            findOnLevel(key, prev, next, level);
+            node = prev[level];
+        }
+    }
+
+    /**
+     * Moves {@code prev[level]} right until its successor is not less than the given key.
+     */
+    private void findOnLevel(
+            @NotNull final ByteBuffer key,
+            @NotNull final int[] prev,
+            @NotNull final int[] next,
+            final int level) {
+        int node = prev[level];
+        while (true) {
+            final int candidate = next(node, level);
+            if (candidate != NIL && compare(candidate, key) < 0) {
+                node = candidate;
+            } else {
+                prev[level] = node;
+                next[level] = candidate;
+                return;
+            }
+        }
+    }
+
+    private void raiseHeight(final int nodeHeight) {
+        int current = height.get();
+        while (nodeHeight > current && !height.compareAndSet(current, nodeHeight)) {
+            current = height.get();
+        }
+    }
+
+    /**
+     * Links the value record into the versions of the node ordered from the newest,
+     * the node points to it unless it already has a newer one.
+     */
+    private void setValue(
+            final int node,
+            final int valueOffset,
+            final long seq) {
+        int link = node + VALUE;
+        while (true) {
+            final int current = (int) INT.getAcquire(arena, link);
+            if (current != NIL && arena.getLong(current + SEQ) > seq) {
+                link = current + PREV;
+                continue;
+            }
+            arena.putInt(valueOffset + PREV, current);
+            if (INT.compareAndSet(arena, link, current, valueOffset)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the newest value record of the node not newer than the given sequence number or "nil".
+     */
+    private int version(
+            final int node,
+            final long seq) {
+        int valueOffset = (int) INT.getAcquire(arena, node + VALUE);
+        while (valueOffset != NIL && arena.getLong(valueOffset + SEQ) > seq) {
+            valueOffset = (int) INT.getAcquire(arena, valueOffset + PREV);
+        }
+        return valueOffset;
+    }
+
+    private void writeValue(
+            final int offset,
+            @Nullable final ByteBuffer value,
+            final long seq) {
+        arena.putLong(offset + SEQ, seq);
+        arena.putInt(offset + PREV, NIL);
+        if (value == null) {
+            arena.putInt(offset + LENGTH, TOMBSTONE);
+        } else {
+            arena.putInt(offset + LENGTH, value.remaining());
+            Bytes.put(arena, offset + DATA, value);
+        }
+    }
+
+    /**
+     * Reserves aligned space in the arena.
+     *
+     * @return offset of the reserved space or {@link #FULL}
+     */
+    private int allocate(final int size) {
+        while (true) {
+            final int offset = allocated.get();
+            if (offset + size > arena.capacity()) {
+                return FULL;
+            }
+            if (allocated.compareAndSet(offset, offset + size)) {
+                return offset;
+            }
+        }
+    }
+
+    private int compare(
+            final int node,
+            @NotNull final ByteBuffer key) {
+        return Bytes.compare(arena, keyOffset(node), arena.getInt(node + KEY_LENGTH), key);
+    }
+
+    private int next(
+            final int node,
+            final int level) {
+        return (int) INT.getAcquire(arena, node + NEXT + level * Integer.BYTES);
+    }
+
+    private void setNext(
+            final int node,
+            final int level,
+            final int next) {
+        INT.setRelease(arena, node + NEXT + level * Integer.BYTES, next);
+    }
+
+    private boolean casNext(
+            final int node,
+            final int level,
+            final int expected,
+            final int next) {
+        return INT.compareAndSet(arena, node + NEXT + level * Integer.BYTES, expected, next);
+    }
+
+    private int keyOffset(final int node) {
+        return node + NEXT + arena.getInt(node + HEIGHT) * Integer.BYTES;
+    }
+
+    @NotNull
+    private Cell cellAt(final int node) {
+        final ByteBuffer key = Bytes.slice(view, keyOffset(node), arena.getInt(node + KEY_LENGTH));
+        final int valueOffset = (int) INT.getAcquire(arena, node + VALUE);
+        final int length = arena.getInt(valueOffset + LENGTH);
+        final ByteBuffer value = length == TOMBSTONE
+                ? null
+                : Bytes.slice(view, valueOffset + DATA, length);
+        return new Cell(key, value);
+    }
+
+    private static int randomHeight() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        int result = 1;
+        while (result < MAX_HEIGHT && random.nextInt(BRANCHING) == 0) {
+            result++;
+        }
+        return result;
+    }
+
+    private static int nodeSize(
+            final int height,
+            final int keyLength) {
+        return align(NEXT + height * Integer.BYTES + keyLength);
+    }
+
+    private static int valueSize(final int length) {
+        return align(DATA + Math.max(length, 0));
+    }
+
+    private static int align(final int size) {
+        return (size + Integer.BYTES - 1) & -Integer.BYTES;
+    }
+
+    private boolean isTombstone(final int node) {
+        final int valueOffset = (int) INT.getAcquire(arena, node + VALUE);
+        return arena.getInt(valueOffset + LENGTH) == TOMBSTONE;
+    }
+
+    private final class ArenaCursor implements CellCursor {
+        private final ByteBuffer keyView = view.duplicate();
+        private final ByteBuffer valueView = view.duplicate();
+        private final long seq;
+        private int node = NIL;
+        /**
+         * Value record of the node read once, so that a concurrent update doesn't change the cell under the cursor.
+         */
+        private int valueOffset;
+
+        ArenaCursor(final long seq) {
+            this.seq = seq;
+        }
+
+        @Override
+        public boolean seek(@NotNull final ByteBuffer key) {
+            return moveTo(findGreaterOrEqual(key));
+        }
+
+        @Override
+        public boolean next() {
+            return moveTo(MemTable.this.next(node, 0));
+        }
+
+        @Override
+        public boolean seekLast(@Nullable final ByteBuffer key) {
+            return moveBackTo(findLast(key, true));
+        }
+
+        @Override
+        public boolean prev() {
+            return node != NIL && moveBackTo(findLast(key(), false));
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer key() {
+            return keyAt(node);
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer value() {
+            return Bytes.view(valueView, valueOffset + DATA, arena.getInt(valueOffset + LENGTH));
+        }
+
+        @Override
+        public boolean isTombstone() {
+            return arena.getInt(valueOffset + LENGTH) == TOMBSTONE;
+        }
+
+        /**
+         * Moves to the given node or the first one after it having a version visible to the cursor.
+         */
+        private boolean moveTo(final int node) {
+            int current = node;
+            while (current != NIL) {
+                valueOffset = version(current, seq);
+                if (valueOffset != NIL) {
+                    break;
+                }
+                current = MemTable.this.next(current, 0);
+            }
+            this.node = current;
+            return current != NIL;
+        }
+
+        /**
+         * Moves to the given node or the last one before it having a version visible to the cursor.
+         */
+        private boolean moveBackTo(final int node) {
+            int current = node;
+            while (current != NIL) {
+                valueOffset = version(current, seq);
+                if (valueOffset != NIL) {
+                    break;
+                }
+                current = findLast(keyAt(current), false);
+            }
+            this.node = current;
+            return current != NIL;
+        }
+
+        @NotNull
+        private ByteBuffer keyAt(final int node) {
+            return Bytes.view(keyView, keyOffset(node), arena.getInt(node + KEY_LENGTH));
+        }
+    }
+
+    private final class CellIterator implements Iterator<Cell> {
+        private final boolean live;
+        private int node;
+
+        CellIterator(
+                final int node,
+                final boolean live) {
+            this.live = live;
+            this.node = node;
+            skipTombstones();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return node != NIL;
+        }
+
+        @Override
+        public Cell next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No more cells");
+            }
+
+            final Cell result = cellAt(node);
+            node = MemTable.this.next(node, 0);
+            skipTombstones();
+            return result;
+        }
+
+        private void skipTombstones() {
+            while (live && node != NIL && isTombstone(node)) {
+                node = MemTable.this.next(node, 0);
+            }
+        }
+    }
+}
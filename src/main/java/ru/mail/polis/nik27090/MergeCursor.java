@@ -0,0 +1,249 @@
+package ru.mail.polis.nik27090;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.Cursor;
+import ru.mail.polis.Iters;
+import ru.mail.polis.Record;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * {@link Cursor} merging the cursors of all the tables of the storage: the newest cell of a key wins
+ * and the keys whose newest cell is a tombstone are skipped, as in {@link Iters#mergeNewest}.
+ *
+ * <p>Nothing is allocated per record: the sources are kept in a binary heap of their indices and the key
+ * being skipped is copied to a reusable buffer. A seek picks up the current tables, if they have changed
+ * since the previous one, creating new source cursors.
+ *
+ * <p>The memtables are read as of the sequence number given at the time of each seek,
+ * see {@link Table#cursor(boolean, long)}. The active memtable is the only one to take writes,
+ * so only its cursor is created again when the number changes.
+ *
+ * <p>A descending cursor walks the keys backward: a seek moves to the last record with key less or equal
+ * to the given one and {@link #next()} to the previous record, the sources move with {@link CellCursor#prev()}.
+ */
+final class MergeCursor implements Cursor {
+    @NotNull
+    private final Supplier<TableSet> tables;
+    private final boolean pooled;
+    @NotNull
+    private final LongSupplier seq;
+    private final boolean descending;
+
+    private TableSet snapshot;
+    private long sourceSeq;
+    private CellCursor[] sources = new CellCursor[0];
+    private int[] heap = new int[0];
+    private int size;
+    private boolean valid;
+
+    private byte[] skipped = new byte[64];
+    private ByteBuffer skippedView = ByteBuffer.wrap(skipped);
+
+    /**
+     * Creates a cursor over the tables given by the supplier at the time of each seek.
+     *
+     * @param pooled whether the values may be read from pooled buffers, see {@link Table#cursor(boolean, long)}
+     * @param seq    the greatest sequence number of the writes to see, taken after the tables
+     */
+    MergeCursor(
+            @NotNull final Supplier<TableSet> tables,
+            final boolean pooled,
+            @NotNull final LongSupplier seq) {
+        this(tables, pooled, seq, false);
+    }
+
+    /**
+     * Creates a cursor over the tables given by the supplier at the time of each seek walking the keys
+     * in the given order.
+     */
+    MergeCursor(
+            @NotNull final Supplier<TableSet> tables,
+            final boolean pooled,
+            @NotNull final LongSupplier seq,
+            final boolean descending) {
+        this.tables = tables;
+        this.pooled = pooled;
+        this.seq = seq;
+        this.descending = descending;
+    }
+
+    @Override
+    public boolean seek(@NotNull final ByteBuffer key) {
+        return position(key);
+    }
+
+    /**
+     * Moves a descending cursor to the last record.
+     *
+     * @return {@code false} if there are no records
+     */
+    boolean seekLast() {
+        assert descending;
+        return position(null);
+    }
+
+    private boolean position(@Nullable final ByteBuffer key) {
+        final TableSet current = tables.get();
+        // The tables taken before hold all the writes up to it
+        final long upTo = seq.getAsLong();
+        if (current != snapshot) {
+            snapshot = current;
+            final List<Table> all = current.all();
+            sources = new CellCursor[all.size()];
+            for (int i = 0; i < sources.length; i++) {
+                sources[i] = all.get(i).cursor(pooled, upTo);
+            }
+            heap = new int[sources.length];
+        } else if (upTo != sourceSeq) {
+            sources[sources.length - 1] = current.memTable.cursor(pooled, upTo);
+        }
+        sourceSeq = upTo;
+
+        size = 0;
+        for (int i = 0; i < sources.length; i++) {
+            if (descending ? sources[i].seekLast(key) : sources[i].seek(key)) {
+                heap[size++] = i;
+            }
+        }
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+        valid = skipTombstones();
+        return valid;
+    }
+
+    @Override
+    public boolean next() {
+        if (!valid) {
+            return false;
+        }
+        skipKey();
+        valid = skipTombstones();
+        return valid;
+    }
+
+    @Override
+    public boolean isValid() {
+        return valid;
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer key() {
+        return current().key();
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer value() {
+        return current().value();
+    }
+
+    /**
+     * Returns the records from the current one on, the keys are copied and the values are sliced,
+     * so the cursor must not read from pooled buffers.
+     */
+    @NotNull
+    Iterator<Record> records() {
+        assert !pooled;
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return valid;
+            }
+
+            @Override
+            public Record next() {
+                final ByteBuffer key = key();
+                final ByteBuffer copy = ByteBuffer.allocate(key.remaining()).put(key).flip();
+                final Record result = Record.of(copy, value().slice());
+                MergeCursor.this.next();
+                return result;
+            }
+        };
+    }
+
+    @NotNull
+    private CellCursor current() {
+        if (!valid) {
+            throw new NoSuchElementException("No current record");
+        }
+        return sources[heap[0]];
+    }
+
+    /**
+     * Skips the keys whose newest cell is a tombstone.
+     */
+    private boolean skipTombstones() {
+        while (size > 0) {
+            if (!sources[heap[0]].isTombstone()) {
+                return true;
+            }
+            skipKey();
+        }
+        return false;
+    }
+
+    /**
+     * Moves all the sources at the key of the top one past it.
+     */
+    private void skipKey() {
+        final ByteBuffer key = sources[heap[0]].key();
+        final int length = key.remaining();
+        if (length > skipped.length) {
+            skipped = new byte[Math.max(length, skipped.length * 2)];
+            skippedView = ByteBuffer.wrap(skipped);
+        }
+        key.get(skipped, 0, length);
+        Bytes.view(skippedView, 0, length);
+        do {
+            advanceTop();
+        } while (size > 0 && sources[heap[0]].key().equals(skippedView));
+    }
+
+    private void advanceTop() {
+        final CellCursor top = sources[heap[0]];
+        if (!(descending ? top.prev() : top.next())) {
+            heap[0] = heap[--size];
+        }
+        siftDown(0);
+    }
+
+    private void siftDown(final int from) {
+        int parent = from;
+        while (true) {
+            final int left = 2 * parent + 1;
+            if (left >= size) {
+                return;
+            }
+            final int right = left + 1;
+            final int child = right < size && less(heap[right], heap[left]) ? right : left;
+            if (!less(heap[child], heap[parent])) {
+                return;
+            }
+            final int tmp = heap[parent];
+            heap[parent] = heap[child];
+            heap[child] = tmp;
+            parent = child;
+        }
+    }
+
+    /**
+     * Orders the sources by their current keys in the order of the cursor,
+     * the newer source goes first among equal keys.
+     */
+    private boolean less(
+            final int left,
+            final int right) {
+        final int order = sources[left].key().compareTo(sources[right].key());
+        final int result = descending ? -order : order;
+        return result < 0 || result == 0 && left > right;
+    }
+}
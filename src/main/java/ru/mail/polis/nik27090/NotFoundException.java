@@ -0,0 +1,20 @@
+package ru.mail.polis.nik27090;
+
+import java.util.NoSuchElementException;
+
+/**
+ * {@link NoSuchElementException} without a stack trace, thrown by {@link DAOImpl#get} on a miss.
+ * Filling in the stack trace would cost more than the lookup itself.
+ */
+final class NotFoundException extends NoSuchElementException {
+    private static final long serialVersionUID = 1L;
+
+    NotFoundException() {
+        super("Not found");
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
@@ -0,0 +1,39 @@
+package ru.mail.polis.nik27090;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Maps the keys to the prefixes indexed by the prefix Bloom filters of the tables, see
+ * {@link Config#getPrefixExtractor()}. A prefix scan skips the tables whose filter rules out the prefix
+ * of the scanned one.
+ *
+ * <p>The prefix of a key must be a prefix of the key and the prefix of every key starting with it,
+ * e.g. the first bytes of a fixed length, so that all the keys of a scan share the prefix of the scanned one.
+ */
+public interface PrefixExtractor {
+    /**
+     * Returns the prefix of the key, {@code null} if the key has none, e.g. is too short.
+     */
+    @Nullable
+    ByteBuffer prefix(@NotNull ByteBuffer key);
+
+    /**
+     * Identifies the extractor in the tables, the filters written by another extractor are ignored.
+     */
+    @NotNull
+    String name();
+
+    /**
+     * Returns the extractor of the first {@code length} bytes of the keys.
+     */
+    @NotNull
+    static PrefixExtractor fixedLength(final int length) {
+        if (length <= 0) {
+            throw new IllegalArgumentException("Non-positive prefix length: " + length);
+        }
+        return new FixedLengthPrefix(length);
+    }
+}
@@ -0,0 +1,1182 @@
+package ru.mail.polis.nik27090;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32C;
+
+/**
+ * Immutable sorted table on disk read through a memory mapping.
+ *
+ * <p>File layout: {@code block* | index | footer}.
+ * <ul>
+ * <li>A block is {@code codec:byte | firstKeyLength:varint | firstKey | data | checksum:int} where {@code data} is
+ * either the raw block for {@link Codec#NONE} or {@code rawLength:varint | compressed} for
+ * the other {@link Codec}s. The first key is kept uncompressed to search the index in place.
+ * The checksum is the CRC32C of the block up to it.</li>
+ * <li>A raw block of about the configured block size is {@code cell* | restart:int[restarts] | restarts:int}.
+ * A cell is {@code shared:varint | unshared:varint | tag:varint | keySuffix | value}: the key
+ * is the first {@code shared} bytes of the previous key followed by the {@code unshared} bytes of the suffix.
+ * The tag is {@code 0} for a tombstone, {@code 1} for a pointer to the {@link ValueLog} and
+ * the value length plus two for a value stored in place. Every
+ * {@link Config#getRestartInterval()}-th cell of a block is a restart point with the key stored in full,
+ * its offset within the block is in the restart array. A cell never spans blocks.</li>
+ * <li>The sparse index is {@code blockOffset:long[blocks]}, the index itself holds no keys.</li>
+ * <li>The {@link BloomFilter} over the keys follows the index.</li>
+ * <li>The last key of the table {@code keyLength:int | key} follows the Bloom filter.</li>
+ * <li>The value log segments the table points to {@code segments:int | (segment:int | bytes:long)[segments]}
+ * follow the last key.</li>
+ * <li>The prefix filter {@code extractorLength:int | extractor | filter} follows the segments: the {@link BloomFilter}
+ * over the prefixes of the keys given by the {@link PrefixExtractor} of the UTF-8 encoded name, which is empty
+ * if the table has no prefix filter.</li>
+ * <li>The footer is {@code indexOffset:long | blocks:int | cells:long | tombstones:long | bloomOffset:long
+ * | lastKey:long | references:long | prefix:long | level:int | checksum:int | magic:long}, where {@code lastKey}
+ * is the offset of the last key or {@code -1} for an empty table and {@code checksum} is the CRC32C of everything
+ * from the index up to the footer.</li>
+ * </ul>
+ * The checksum of the index and the rest is verified when the table is mapped. A block is verified every time it is
+ * read from the mapping, a block read from the {@link BlockCache} was verified when it was cached.
+ * A seek binary searches the index, then the restart points of a single block
+ * and decodes at most a restart interval of cells. A cursor moving backward finds the restart point preceding
+ * the current cell and decodes forward from it, so a step back decodes at most a restart interval too.
+ * Uncompressed blocks are read in place from the mapping, compressed ones are decompressed into pooled buffers,
+ * all go through the shared {@link BlockCache} if there is one.
+ *
+ * <p>Only the values of the blocks read in place are returned as slices, of the mapping, the values of
+ * the decompressed and the cached blocks are copied: a pooled buffer is reused once the reader moves on
+ * and a slice would pin a cached block the cache no longer accounts for after its eviction.
+ * Nothing is unmapped explicitly: a slice keeps its mapping reachable, so it stays valid after the file
+ * has been compacted away and deleted, and the mapping is released by the garbage collector once the last
+ * slice is gone.
+ *
+ * <p>A table known from its {@link #summarize(ByteBuffer) summary} in the {@link Manifest} is mapped on the first
+ * read of its cells, the key range and the statistics come from the summary until then.
+ * A table is always read before its file is deleted, so a table which is still unmapped has its file.
+ */
+final class SSTable implements Table {
+    static final String SUFFIX = ".sst";
+    static final String TEMP = ".tmp";
+
+    static final long MAGIC = 0x4C534D5353540008L;
+
+    static final int TOMBSTONE_TAG = 0;
+    static final int SEPARATED_TAG = 1;
+    static final int INLINE_TAG = 2;
+    /**
+     * Tables are addressed by int offsets.
+     */
+    static final long MAX_SIZE = Integer.MAX_VALUE;
+
+    private static final BufferPool BUFFERS = new BufferPool(64);
+
+    private static final int FOOTER =
+            Long.BYTES + Integer.BYTES + Long.BYTES + Long.BYTES + Long.BYTES + Long.BYTES + Long.BYTES + Long.BYTES
+                    + Integer.BYTES + Integer.BYTES + Long.BYTES;
+
+    /**
+     * Orders tables from the oldest to the newest: a deeper level holds older cells,
+     * within a level a table of a greater generation is newer.
+     */
+    static final Comparator<SSTable> ORDER = Comparator
+            .comparingInt(SSTable::getLevel).reversed()
+            .thenComparingInt(SSTable::getGeneration);
+
+    @NotNull
+    private final File file;
+    private final int generation;
+    @Nullable
+    private final BlockCache cache;
+    @Nullable
+    private final ValueLog valueLog;
+    private final int id;
+    private final long size;
+    private final long cells;
+    private final long tombstones;
+    @Nullable
+    private final ByteBuffer firstKey;
+    @Nullable
+    private final ByteBuffer lastKey;
+    private final int level;
+    @NotNull
+    private final Map<Integer, Long> references;
+
+    // Read by map(), published by the volatile write of isMapped
+    private ByteBuffer mapped;
+    private int indexOffset;
+    private int blocks;
+    private BloomFilter bloom;
+    /**
+     * Name of the extractor of the prefixes in the prefix filter, empty if there is no filter.
+     */
+    private String prefixExtractor;
+    private BloomFilter prefixBloom;
+    /**
+     * Mappings of the referenced value log segments, kept as long as the table is used.
+     */
+    private Map<Integer, ByteBuffer> segments;
+    private volatile boolean isMapped;
+
+    private SSTable(
+            @NotNull final File file,
+            @NotNull final ByteBuffer mapped,
+            final int generation,
+            @Nullable final BlockCache cache,
+            @Nullable final ValueLog valueLog) throws IOException {
+        this.file = file;
+        this.generation = generation;
+        this.cache = cache;
+        this.valueLog = valueLog;
+        this.id = cache == null ? 0 : cache.register();
+        this.size = mapped.limit();
+        final ByteBuffer footer = mapped.duplicate().position(mapped.limit() - FOOTER + Long.BYTES + Integer.BYTES);
+        this.cells = footer.getLong();
+        this.tombstones = footer.getLong();
+        footer.getLong();
+        final int lastKeyOffset = (int) footer.getLong();
+        final int referencesOffset = (int) footer.getLong();
+        footer.getLong();
+        this.level = footer.getInt();
+
+        final int count = mapped.getInt(referencesOffset);
+        final Map<Integer, Long> referenced = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            final int offset = referencesOffset + Integer.BYTES + i * (Integer.BYTES + Long.BYTES);
+            referenced.put(mapped.getInt(offset), mapped.getLong(offset + Integer.BYTES));
+        }
+        this.references = Collections.unmodifiableMap(referenced);
+
+        setMapping(mapped);
+        if (blocks == 0) {
+            this.firstKey = null;
+            this.lastKey = null;
+        } else {
+            final int block = blockOffset(0);
+            this.firstKey = Bytes.slice(mapped, firstKeyOffset(block), Bytes.getVarInt(mapped, block + 1));
+            this.lastKey = Bytes.slice(mapped, lastKeyOffset + Integer.BYTES, mapped.getInt(lastKeyOffset));
+        }
+    }
+
+    private SSTable(
+            @NotNull final File file,
+            @NotNull final ByteBuffer summary,
+            @Nullable final BlockCache cache,
+            @Nullable final ValueLog valueLog) {
+        this.file = file;
+        this.cache = cache;
+        this.valueLog = valueLog;
+        this.id = cache == null ? 0 : cache.register();
+        this.generation = summary.getInt();
+        this.level = summary.getInt();
+        this.size = summary.getLong();
+        this.cells = summary.getLong();
+        this.tombstones = summary.getLong();
+        this.firstKey = readKey(summary);
+        this.lastKey = readKey(summary);
+        final int count = summary.getInt();
+        final Map<Integer, Long> referenced = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            referenced.put(summary.getInt(), summary.getLong());
+        }
+        this.references = Collections.unmodifiableMap(referenced);
+    }
+
+    /**
+     * Maps the given file.
+     */
+    @NotNull
+    static SSTable open(
+            @NotNull final File file,
+            final int generation) throws IOException {
+        return open(file, generation, null, null);
+    }
+
+    /**
+     * Maps the given file reading the blocks through the cache.
+     */
+    @NotNull
+    static SSTable open(
+            @NotNull final File file,
+            final int generation,
+            @Nullable final BlockCache cache) throws IOException {
+        return open(file, generation, cache, null);
+    }
+
+    /**
+     * Maps the given file reading the blocks through the cache and the values through the value log.
+     */
+    @NotNull
+    static SSTable open(
+            @NotNull final File file,
+            final int generation,
+            @Nullable final BlockCache cache,
+            @Nullable final ValueLog valueLog) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size < FOOTER || size > MAX_SIZE) {
+                throw new IOException("Unexpected size " + size + " of " + file);
+            }
+            final ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            verify(file, mapped);
+            return new SSTable(file, mapped.asReadOnlyBuffer(), generation, cache, valueLog);
+        }
+    }
+
+    /**
+     * Writes cells in ascending key order to the given file of a level 0 table.
+     */
+    static void write(
+            @NotNull final File file,
+            @NotNull final Iterator<Cell> cells,
+            @NotNull final Config config) throws IOException {
+        write(file, cells, config, null);
+    }
+
+    /**
+     * Writes cells in ascending key order to the given file of a level 0 table moving big values to the value log.
+     */
+    static void write(
+            @NotNull final File file,
+            @NotNull final Iterator<Cell> cells,
+            @NotNull final Config config,
+            @Nullable final ValueLog valueLog) throws IOException {
+        try (SSTableWriter writer = new SSTableWriter(file, config, 0, valueLog)) {
+            while (cells.hasNext()) {
+                writer.add(cells.next());
+            }
+            writer.finish();
+        }
+    }
+
+    /**
+     * Overwrites the level in the footer of a finished table file, which must not be open yet.
+     */
+    static void setLevel(
+            @NotNull final File file,
+            final int level) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES).putInt(0, level);
+            final long position = channel.size() - Long.BYTES - Integer.BYTES - Integer.BYTES;
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Creates the table of the given summary in the storage directory without mapping its file.
+     */
+    @NotNull
+    static SSTable fromSummary(
+            @NotNull final File storage,
+            @NotNull final ByteBuffer summary,
+            @Nullable final BlockCache cache,
+            @Nullable final ValueLog valueLog) {
+        final int generation = summary.getInt(summary.position());
+        return new SSTable(new File(storage, generation + SUFFIX), summary, cache, valueLog);
+    }
+
+    /**
+     * Returns the size of {@link #summarize(ByteBuffer)}.
+     */
+    int summarySize() {
+        return Integer.BYTES + Integer.BYTES + Long.BYTES + Long.BYTES + Long.BYTES
+                + Integer.BYTES + (firstKey == null ? 0 : firstKey.remaining())
+                + Integer.BYTES + (lastKey == null ? 0 : lastKey.remaining())
+                + Integer.BYTES + references.size() * (Integer.BYTES + Long.BYTES);
+    }
+
+    /**
+     * Writes what the storage needs to know about the table without reading it:
+     * {@code generation:int | level:int | size:long | cells:long | tombstones:long
+     * | firstKeyLength:int | firstKey | lastKeyLength:int | lastKey | segments:int | (segment:int | bytes:long)[segments]},
+     * where the key lengths are {@code -1} for an empty table.
+     */
+    void summarize(@NotNull final ByteBuffer summary) {
+        summary.putInt(generation)
+                .putInt(level)
+                .putLong(size)
+                .putLong(cells)
+                .putLong(tombstones);
+        writeKey(summary, firstKey);
+        writeKey(summary, lastKey);
+        summary.putInt(references.size());
+        for (final Map.Entry<Integer, Long> reference : references.entrySet()) {
+            summary.putInt(reference.getKey()).putLong(reference.getValue());
+        }
+    }
+
+    int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Returns the level of the table: {@code 0} for flushed memtables, tables of other levels
+     * come from the leveled compaction and don't overlap with the other tables of the same level.
+     */
+    int getLevel() {
+        return level;
+    }
+
+    /**
+     * Returns the number of bytes of each value log segment the table points to.
+     */
+    @NotNull
+    Map<Integer, Long> getReferences() {
+        return references;
+    }
+
+    boolean isEmpty() {
+        return firstKey == null;
+    }
+
+    /**
+     * Returns the share of tombstones among the cells of the table.
+     */
+    double tombstoneRatio() {
+        return cells == 0 ? 0.0 : (double) tombstones / cells;
+    }
+
+    /**
+     * Returns the least key of a non-empty table.
+     */
+    @NotNull
+    ByteBuffer firstKey() {
+        assert firstKey != null;
+        return firstKey.duplicate();
+    }
+
+    /**
+     * Returns the greatest key of a non-empty table.
+     */
+    @NotNull
+    ByteBuffer lastKey() {
+        assert lastKey != null;
+        return lastKey.duplicate();
+    }
+
+    /**
+     * Adds the first keys of the blocks to the list, the keys split the table into parts of about the block size.
+     */
+    void blockKeys(@NotNull final List<ByteBuffer> keys) {
+        map();
+        for (int block = 0; block < blocks; block++) {
+            final int offset = blockOffset(block);
+            keys.add(Bytes.slice(mapped, firstKeyOffset(offset), Bytes.getVarInt(mapped, offset + 1)));
+        }
+    }
+
+    /**
+     * Returns the number of blocks of the table, mapping it.
+     */
+    int blockCount() {
+        map();
+        return blocks;
+    }
+
+    /**
+     * Returns the length of the block on disk.
+     */
+    int blockLength(final int block) {
+        map();
+        return checksumOffset(block) + Integer.BYTES - blockOffset(block);
+    }
+
+    /**
+     * Verifies the checksum of the block unless it is cached, a cached block was verified when it was read.
+     *
+     * @return {@code false} if the block is corrupted
+     */
+    boolean scrub(final int block) {
+        map();
+        if (cache != null && cache.contains(id, block)) {
+            return true;
+        }
+        return isIntact(blockOffset(block), checksumOffset(block));
+    }
+
+    /**
+     * Returns {@code false} if the table definitely has no cell for the key,
+     * checking the key range and the Bloom filter.
+     */
+    boolean mightContain(@NotNull final ByteBuffer key) {
+        if (isEmpty() || firstKey.compareTo(key) > 0 || lastKey.compareTo(key) < 0) {
+            return false;
+        }
+        map();
+        return bloom.mightContain(key);
+    }
+
+    /**
+     * Returns {@code false} if the table definitely has no cell with key starting with the prefix,
+     * checking the key range and the prefix filter if it was written by the given extractor.
+     */
+    boolean mightContainPrefix(
+            @NotNull final ByteBuffer prefix,
+            @Nullable final PrefixExtractor extractor) {
+        if (isEmpty()
+                || lastKey.compareTo(prefix) < 0
+                || firstKey.compareTo(prefix) > 0 && !Bytes.startsWith(firstKey, 0, firstKey.remaining(), prefix)) {
+            return false;
+        }
+        if (extractor == null) {
+            return true;
+        }
+        final ByteBuffer extracted = extractor.prefix(prefix);
+        if (extracted == null) {
+            return true;
+        }
+        map();
+        return !prefixExtractor.equals(extractor.name()) || prefixBloom.mightContain(extracted);
+    }
+
+    /**
+     * Returns whether the table may have cells within the given key range.
+     */
+    boolean overlaps(
+            @NotNull final ByteBuffer from,
+            @NotNull final ByteBuffer to) {
+        return !isEmpty()
+                && firstKey.compareTo(to) <= 0
+                && lastKey.compareTo(from) >= 0;
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return size;
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> iterator(@NotNull final ByteBuffer from) {
+        map();
+        return new CellIterator(from, false, true);
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> liveIterator(@NotNull final ByteBuffer from) {
+        map();
+        return new CellIterator(from, true, true);
+    }
+
+    @NotNull
+    @Override
+    public CellCursor cursor(
+            final boolean pooled,
+            final long seq) {
+        map();
+        return new TableCursor(pooled);
+    }
+
+    /**
+     * Returns the cells as stored, with pointers to the value log instead of the separated values.
+     */
+    @NotNull
+    Iterator<Cell> rawIterator(@NotNull final ByteBuffer from) {
+        map();
+        return new CellIterator(from, false, false);
+    }
+
+    /**
+     * Looks up the key consulting the Bloom filter first.
+     */
+    @Nullable
+    @Override
+    public ByteBuffer get(@NotNull final ByteBuffer key) {
+        if (!mightContain(key)) {
+            return null;
+        }
+        final BlockReader reader = new BlockReader();
+        load(reader, findBlock(key));
+        try {
+            if (!reader.seek(key) || reader.compareKey(key) != 0) {
+                return null;
+            }
+            if (reader.isTombstone()) {
+                return Table.TOMBSTONE;
+            }
+            return reader.isSeparated() ? resolve(reader.value()) : reader.value();
+        } finally {
+            reader.release();
+        }
+    }
+
+    /**
+     * Returns the last block starting with a key not greater than the given one.
+     */
+    private int findBlock(@NotNull final ByteBuffer key) {
+        int left = 0;
+        int right = blocks - 1;
+        while (left < right) {
+            final int mid = (left + right + 1) >>> 1;
+            if (compareFirstKey(mid, key) <= 0) {
+                left = mid;
+            } else {
+                right = mid - 1;
+            }
+        }
+        return left;
+    }
+
+    private int blockOffset(final int block) {
+        return (int) mapped.getLong(indexOffset + block * Long.BYTES);
+    }
+
+    /**
+     * Returns the offset of the checksum which ends the block.
+     */
+    private int checksumOffset(final int block) {
+        return (block + 1 < blocks ? blockOffset(block + 1) : indexOffset) - Integer.BYTES;
+    }
+
+    private boolean isIntact(
+            final int start,
+            final int end) {
+        return checksum(mapped, start, end) == mapped.getInt(end);
+    }
+
+    private int firstKeyOffset(final int blockOffset) {
+        return blockOffset + 1 + Bytes.varIntSize(Bytes.getVarInt(mapped, blockOffset + 1));
+    }
+
+    private int compareFirstKey(
+            final int block,
+            @NotNull final ByteBuffer key) {
+        final int offset = blockOffset(block);
+        return Bytes.compare(mapped, firstKeyOffset(offset), Bytes.getVarInt(mapped, offset + 1), key);
+    }
+
+    /**
+     * Points the reader to the raw contents of the block, from the cache if possible.
+     */
+    private void load(
+            @NotNull final BlockReader reader,
+            final int block) {
+        reader.release();
+        if (cache != null) {
+            final ByteBuffer cached = cache.get(id, block);
+            if (cached != null) {
+                reader.reset(cached, false, false);
+                return;
+            }
+        }
+
+        final int start = blockOffset(block);
+        final int end = checksumOffset(block);
+        if (!isIntact(start, end)) {
+            throw new UncheckedIOException(new IOException("Corrupted block " + block + " of " + file));
+        }
+        final byte codec = mapped.get(start);
+        final int dataOffset = firstKeyOffset(start) + Bytes.getVarInt(mapped, start + 1);
+        ByteBuffer data;
+        boolean pooled = false;
+        boolean inPlace = false;
+        if (codec == Codec.NONE) {
+            data = Bytes.slice(mapped, dataOffset, end - dataOffset);
+            inPlace = true;
+        } else {
+            final int rawLength = Bytes.getVarInt(mapped, dataOffset);
+            final int compressedOffset = dataOffset + Bytes.varIntSize(rawLength);
+            data = BUFFERS.acquire(rawLength);
+            Codec.byId(codec).decompress(mapped, compressedOffset, end - compressedOffset, data, rawLength);
+            // A block too big for the pool gets a buffer of its own
+            pooled = BufferPool.isPooled(data);
+        }
+        if (cache != null) {
+            final ByteBuffer cached = cache.put(id, block, data);
+            if (cached != data) {
+                if (pooled) {
+                    BUFFERS.release(data);
+                }
+                data = cached;
+                pooled = false;
+                inPlace = false;
+            }
+        }
+        reader.reset(data, pooled, inPlace);
+    }
+
+    /**
+     * Copies a value out of a block it must not be sliced from, see the class comment.
+     */
+    @NotNull
+    private static ByteBuffer copy(@NotNull final ByteBuffer value) {
+        final ByteBuffer copy = ByteBuffer.allocate(value.remaining());
+        copy.put(value.duplicate()).flip();
+        return copy.asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the value the pointer refers to.
+     */
+    @NotNull
+    private ByteBuffer resolve(@NotNull final ByteBuffer pointer) {
+        final ByteBuffer segment = segments.get(ValueLog.segmentOf(pointer));
+        if (segment == null) {
+            throw new IllegalStateException("No value log segment " + ValueLog.segmentOf(pointer) + " for " + this);
+        }
+        return ValueLog.resolve(segment, pointer);
+    }
+
+    @Override
+    public String toString() {
+        return generation + SUFFIX;
+    }
+
+    /**
+     * Maps the file of a table known from its summary unless done already.
+     */
+    private void map() {
+        if (isMapped) {
+            return;
+        }
+        synchronized (this) {
+            if (isMapped) {
+                return;
+            }
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                if (channel.size() != size) {
+                    throw new IOException("Unexpected size " + channel.size() + " of " + file);
+                }
+                final ByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                verify(file, mapping);
+                setMapping(mapping.asReadOnlyBuffer());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Can't map " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Checks the magic and the checksum of the index, the Bloom filter, the last key and the references.
+     */
+    private static void verify(
+            @NotNull final File file,
+            @NotNull final ByteBuffer mapped) throws IOException {
+        final int footer = mapped.limit() - FOOTER;
+        if (mapped.getLong(mapped.limit() - Long.BYTES) != MAGIC) {
+            throw new IOException("Not a table: " + file);
+        }
+        final long index = mapped.getLong(footer);
+        if (index < 0 || index > footer
+                || checksum(mapped, (int) index, footer) != mapped.getInt(mapped.limit() - Long.BYTES - Integer.BYTES)) {
+            throw new IOException("Corrupted index of " + file);
+        }
+    }
+
+    private static int checksum(
+            @NotNull final ByteBuffer mapped,
+            final int from,
+            final int to) {
+        final CRC32C crc = new CRC32C();
+        crc.update(mapped.duplicate().limit(to).position(from));
+        return (int) crc.getValue();
+    }
+
+    private void setMapping(@NotNull final ByteBuffer mapped) throws IOException {
+        final ByteBuffer footer = mapped.duplicate().position(mapped.limit() - FOOTER);
+        final int index = (int) footer.getLong();
+        final int blockCount = footer.getInt();
+        footer.getLong();
+        footer.getLong();
+        final BloomFilter filter = new BloomFilter(mapped, (int) footer.getLong());
+        footer.getLong();
+        footer.getLong();
+        final int prefixOffset = (int) footer.getLong();
+        final int extractorLength = mapped.getInt(prefixOffset);
+        final byte[] extractor = new byte[extractorLength];
+        mapped.duplicate().position(prefixOffset + Integer.BYTES).get(extractor);
+        final BloomFilter prefixFilter = new BloomFilter(mapped, prefixOffset + Integer.BYTES + extractorLength);
+        final Map<Integer, ByteBuffer> mappings = new HashMap<>();
+        if (valueLog != null) {
+            for (final int segment : references.keySet()) {
+                mappings.put(segment, valueLog.segment(segment));
+            }
+        }
+        this.mapped = mapped;
+        this.indexOffset = index;
+        this.blocks = blockCount;
+        this.bloom = filter;
+        this.prefixExtractor = new String(extractor, StandardCharsets.UTF_8);
+        this.prefixBloom = prefixFilter;
+        this.segments = mappings;
+        this.isMapped = true;
+    }
+
+    @Nullable
+    private static ByteBuffer readKey(@NotNull final ByteBuffer summary) {
+        final int length = summary.getInt();
+        if (length < 0) {
+            return null;
+        }
+        final ByteBuffer key = ByteBuffer.allocate(length);
+        summary.get(key.array());
+        return key.asReadOnlyBuffer();
+    }
+
+    private static void writeKey(
+            @NotNull final ByteBuffer summary,
+            @Nullable final ByteBuffer key) {
+        if (key == null) {
+            summary.putInt(-1);
+        } else {
+            summary.putInt(key.remaining()).put(key.duplicate());
+        }
+    }
+
+    /**
+     * Compares the key of a restart point, which is stored in full, with the given one.
+     */
+    private static int compareRestartKey(
+            @NotNull final ByteBuffer data,
+            final int cell,
+            @NotNull final ByteBuffer key) {
+        // The shared length of a restart point is zero, a single byte
+        final int unshared = Bytes.getVarInt(data, cell + 1);
+        final int valueLengthOffset = cell + 1 + Bytes.varIntSize(unshared);
+        final int keyOffset = valueLengthOffset + Bytes.varIntSize(Bytes.getVarInt(data, valueLengthOffset));
+        return Bytes.compare(data, keyOffset, unshared, key);
+    }
+
+    /**
+     * Decodes the cells of a block one after another restoring the prefix-compressed keys in a reusable buffer.
+     * Values of a block read in place are slices of the mapping, the values of any other block are copied.
+     */
+    private static final class BlockReader {
+        @Nullable
+        private ByteBuffer data;
+        private boolean pooled;
+        private boolean inPlace;
+        private ByteBuffer source;
+        private int restarts;
+        private int restartCount;
+        private int current;
+        private int next;
+
+        private ByteBuffer dataView;
+
+        private byte[] key = new byte[64];
+        private ByteBuffer keyView = ByteBuffer.wrap(key);
+        private ByteBuffer keyReadView = keyView.asReadOnlyBuffer();
+        private int keyLength;
+        private int valueOffset;
+        private int valueLength;
+        private boolean separated;
+
+        /**
+         * Points the reader to the block.
+         *
+         * @param pooled  whether the block is to be given back to the pool once the reader moves on
+         * @param inPlace whether the block is a slice of the mapping which the values can be sliced from
+         */
+        void reset(
+                @NotNull final ByteBuffer data,
+                final boolean pooled,
+                final boolean inPlace) {
+            this.data = data;
+            this.pooled = pooled;
+            this.inPlace = inPlace;
+            this.source = data.duplicate();
+            this.dataView = data.isReadOnly() ? data.duplicate() : data.asReadOnlyBuffer();
+            this.restartCount = data.getInt(data.limit() - Integer.BYTES);
+            this.restarts = data.limit() - Integer.BYTES - restartCount * Integer.BYTES;
+            this.next = 0;
+        }
+
+        /**
+         * Moves to the first cell with key greater or equal to the given one,
+         * returns {@code false} if there is no such cell in the block.
+         */
+        boolean seek(@NotNull final ByteBuffer target) {
+            int left = 0;
+            int right = restartCount - 1;
+            while (left < right) {
+                final int mid = (left + right + 1) >>> 1;
+                if (compareRestartKey(data, restart(mid), target) <= 0) {
+                    left = mid;
+                } else {
+                    right = mid - 1;
+                }
+            }
+            next = restart(left);
+            while (advance()) {
+                if (compareKey(target) >= 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Moves to the last cell with key less or equal to the given one,
+         * returns {@code false} if there is no such cell in the block.
+         */
+        boolean seekLast(@NotNull final ByteBuffer target) {
+            if (restartCount == 0 || compareRestartKey(data, restart(0), target) > 0) {
+                return false;
+            }
+            int left = 0;
+            int right = restartCount - 1;
+            while (left < right) {
+                final int mid = (left + right + 1) >>> 1;
+                if (compareRestartKey(data, restart(mid), target) <= 0) {
+                    left = mid;
+                } else {
+                    right = mid - 1;
+                }
+            }
+            next = restart(left);
+            advance();
+            while (true) {
+                final int end = next;
+                if (!advance()) {
+                    return true;
+                }
+                if (compareKey(target) > 0) {
+                    // The key buffer holds the key of the cell past the target now
+                    return moveBefore(end);
+                }
+            }
+        }
+
+        /**
+         * Moves to the last cell of the block, returns {@code false} if the block is empty.
+         */
+        boolean last() {
+            return moveBefore(restarts);
+        }
+
+        /**
+         * Moves to the previous cell, returns {@code false} at the start of the block.
+         */
+        boolean prev() {
+            return moveBefore(current);
+        }
+
+        /**
+         * Decodes the cells from the last restart point before the given cell offset up to the cell ending there.
+         */
+        private boolean moveBefore(final int end) {
+            if (end == 0) {
+                return false;
+            }
+            int left = 0;
+            int right = restartCount - 1;
+            while (left < right) {
+                final int mid = (left + right + 1) >>> 1;
+                if (restart(mid) < end) {
+                    left = mid;
+                } else {
+                    right = mid - 1;
+                }
+            }
+            next = restart(left);
+            do {
+                advance();
+            } while (next != end);
+            return true;
+        }
+
+        /**
+         * Decodes the next cell, returns {@code false} at the end of the block.
+         */
+        boolean advance() {
+            if (next == restarts) {
+                return false;
+            }
+            current = next;
+            int offset = next;
+            final int shared = Bytes.getVarInt(data, offset);
+            offset += Bytes.varIntSize(shared);
+            final int unshared = Bytes.getVarInt(data, offset);
+            offset += Bytes.varIntSize(unshared);
+            final int tag = Bytes.getVarInt(data, offset);
+            offset += Bytes.varIntSize(tag);
+
+            keyLength = shared + unshared;
+            if (keyLength > key.length) {
+                key = Arrays.copyOf(key, Math.max(keyLength, key.length * 2));
+                keyView = ByteBuffer.wrap(key);
+                keyReadView = keyView.asReadOnlyBuffer();
+            }
+            source.position(offset);
+            source.get(key, shared, unshared);
+            valueOffset = offset + unshared;
+            separated = tag == SEPARATED_TAG;
+            if (tag == TOMBSTONE_TAG) {
+                valueLength = -1;
+            } else {
+                valueLength = separated ? ValueLog.POINTER : tag - INLINE_TAG;
+            }
+            next = valueOffset + Math.max(valueLength, 0);
+            return true;
+        }
+
+        /**
+         * Gives a pooled block back, the reader must be reset before the next use.
+         */
+        void release() {
+            if (pooled) {
+                BUFFERS.release(data);
+                pooled = false;
+            }
+            data = null;
+        }
+
+        int compareKey(@NotNull final ByteBuffer target) {
+            return Bytes.compare(keyView, 0, keyLength, target);
+        }
+
+        boolean isTombstone() {
+            return valueLength < 0;
+        }
+
+        /**
+         * Returns whether the value is a pointer to the {@link ValueLog}.
+         */
+        boolean isSeparated() {
+            return separated;
+        }
+
+        /**
+         * Returns the reused view of the current key.
+         */
+        @NotNull
+        ByteBuffer keyView() {
+            return Bytes.view(keyReadView, 0, keyLength);
+        }
+
+        /**
+         * Returns the reused view of the current value valid until the reader moves.
+         */
+        @NotNull
+        ByteBuffer valueView() {
+            return Bytes.view(dataView, valueOffset, valueLength);
+        }
+
+        /**
+         * Returns the current value, a slice of the mapping for a block read in place, otherwise a copy.
+         */
+        @NotNull
+        ByteBuffer value() {
+            if (inPlace) {
+                return Bytes.slice(data, valueOffset, valueLength);
+            }
+            return copy(Bytes.view(dataView, valueOffset, valueLength));
+        }
+
+        boolean isInPlace() {
+            return inPlace;
+        }
+
+        @NotNull
+        Cell cell() {
+            final ByteBuffer copy = ByteBuffer.wrap(Arrays.copyOf(key, keyLength));
+            return new Cell(copy, isTombstone() ? null : value(), separated);
+        }
+
+        private int restart(final int index) {
+            return data.getInt(restarts + index * Integer.BYTES);
+        }
+    }
+
+    private final class TableCursor implements CellCursor {
+        private final boolean pooled;
+        private final BlockReader reader = new BlockReader();
+        private int block;
+        private boolean valid;
+        private int segment = -1;
+        private ByteBuffer segmentView;
+
+        TableCursor(final boolean pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public boolean seek(@NotNull final ByteBuffer key) {
+            if (blocks == 0) {
+                valid = false;
+                return false;
+            }
+            block = findBlock(key);
+            load(reader, block);
+            valid = reader.seek(key);
+            return valid || nextBlock();
+        }
+
+        @Override
+        public boolean next() {
+            if (!valid) {
+                return false;
+            }
+            valid = reader.advance();
+            return valid || nextBlock();
+        }
+
+        @Override
+        public boolean seekLast(@Nullable final ByteBuffer key) {
+            if (blocks == 0) {
+                valid = false;
+                return false;
+            }
+            block = key == null ? blocks - 1 : findBlock(key);
+            load(reader, block);
+            valid = key == null ? reader.last() : reader.seekLast(key);
+            return valid || prevBlock();
+        }
+
+        @Override
+        public boolean prev() {
+            if (!valid) {
+                return false;
+            }
+            valid = reader.prev();
+            return valid || prevBlock();
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer key() {
+            return reader.keyView();
+        }
+
+        /**
+         * Returns the view of the value, a copy for a cursor not {@code pooled} unless the block is read in place.
+         */
+        @NotNull
+        @Override
+        public ByteBuffer value() {
+            final ByteBuffer value = reader.valueView();
+            if (!reader.isSeparated()) {
+                return pooled || reader.isInPlace() ? value : copy(value);
+            }
+            final int id = ValueLog.segmentOf(value);
+            if (id != segment) {
+                final ByteBuffer mapped = segments.get(id);
+                if (mapped == null) {
+                    throw new IllegalStateException("No value log segment " + id + " for " + SSTable.this);
+                }
+                segment = id;
+                segmentView = mapped.duplicate();
+            }
+            return Bytes.view(segmentView, ValueLog.offsetOf(value), ValueLog.lengthOf(value));
+        }
+
+        @Override
+        public boolean isTombstone() {
+            return reader.isTombstone();
+        }
+
+        /**
+         * Moves to the first cell of the next non-empty block.
+         */
+        private boolean nextBlock() {
+            while (!valid) {
+                block++;
+                if (block >= blocks) {
+                    reader.release();
+                    return false;
+                }
+                load(reader, block);
+                valid = reader.advance();
+            }
+            return true;
+        }
+
+        /**
+         * Moves to the last cell of the previous non-empty block.
+         */
+        private boolean prevBlock() {
+            while (!valid) {
+                block--;
+                if (block < 0) {
+                    reader.release();
+                    return false;
+                }
+                load(reader, block);
+                valid = reader.last();
+            }
+            return true;
+        }
+    }
+
+    private final class CellIterator implements Iterator<Cell> {
+        private final boolean live;
+        private final boolean resolveValues;
+        private final BlockReader reader = new BlockReader();
+        private int block;
+        private boolean valid;
+
+        CellIterator(
+                @NotNull final ByteBuffer from,
+                final boolean live,
+                final boolean resolveValues) {
+            this.live = live;
+            this.resolveValues = resolveValues;
+            if (blocks > 0) {
+                this.block = findBlock(from);
+                load(reader, block);
+                this.valid = reader.seek(from);
+                skip();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return valid;
+        }
+
+        @Override
+        public Cell next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No more cells");
+            }
+
+            final Cell cell = reader.cell();
+            final Cell result = resolveValues && cell.isSeparated()
+                    ? new Cell(cell.getKey(), resolve(cell.getValue()))
+                    : cell;
+            valid = reader.advance();
+            skip();
+            return result;
+        }
+
+        /**
+         * Moves to the next block at the end of the current one and, if asked to,
+         * walks over a run of tombstones without materializing the cells.
+         */
+        private void skip() {
+            while (true) {
+                if (!valid) {
+                    block++;
+                    if (block >= blocks) {
+                        reader.release();
+                        return;
+                    }
+                    load(reader, block);
+                    valid = reader.advance();
+                } else if (live && reader.isTombstone()) {
+                    valid = reader.advance();
+                } else {
+                    return;
+                }
+            }
+        }
+    }
+}
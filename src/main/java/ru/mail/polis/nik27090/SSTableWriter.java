@@ -0,0 +1,442 @@
+package ru.mail.polis.nik27090;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32C;
+
+/**
+ * Streams cells in ascending key order into a new {@link SSTable} file.
+ *
+ * <p>The data goes to a temporary file which is moved to the target location by {@link #finish()},
+ * so a reader never sees a partially written table. A block is assembled in memory and compressed
+ * as a whole once it is full. Big values go to the {@link ValueLog}, if there is one, leaving pointers in the table.
+ */
+final class SSTableWriter implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final File temp;
+    private final FileChannel channel;
+    private final int level;
+    private final int blockSize;
+    private final int restartInterval;
+    @Nullable
+    private final Codec codec;
+    private final BloomFilter.Builder bloom;
+    @Nullable
+    private final PrefixExtractor prefixExtractor;
+    private final BloomFilter.Builder prefixBloom;
+    @Nullable
+    private final ValueLog valueLog;
+    private final int valueThreshold;
+    @Nullable
+    private ValueLog.Appender appender;
+    @NotNull
+    private Set<Integer> relocated = Collections.emptySet();
+    /**
+     * Bytes of each value log segment referenced by the table.
+     */
+    private final Map<Integer, Long> references = new TreeMap<>();
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CRC32C checksum = new CRC32C();
+
+    private long position;
+    private long cells;
+    private long tombstones;
+    /**
+     * The previous key, the next one is stored as a suffix after their common prefix.
+     */
+    private byte[] lastKey = new byte[64];
+    private ByteBuffer lastKeyView = ByteBuffer.wrap(lastKey);
+    private int lastKeyLength;
+
+    private ByteBuffer block;
+    private byte[] compressed = new byte[0];
+    private int blocks;
+    private long[] blockOffsets = new long[64];
+    private int blockCells;
+    private int restarts;
+    private int[] restartOffsets = new int[64];
+
+    private boolean finished;
+
+    /**
+     * Creates a writer of a table of the given level, see {@link SSTable#getLevel()}.
+     */
+    SSTableWriter(
+            @NotNull final File file,
+            @NotNull final Config config,
+            final int level) throws IOException {
+        this(file, config, level, null);
+    }
+
+    /**
+     * Creates a writer of a table of the given level moving big values to the value log.
+     */
+    SSTableWriter(
+            @NotNull final File file,
+            @NotNull final Config config,
+            final int level,
+            @Nullable final ValueLog valueLog) throws IOException {
+        this.file = file;
+        this.valueLog = valueLog;
+        this.valueThreshold = config.getValueThreshold();
+        this.level = level;
+        this.temp = new File(file.getParent(), file.getName() + SSTable.TEMP);
+        this.blockSize = config.getBlockSize();
+        this.restartInterval = config.getRestartInterval();
+        this.codec = Codec.of(config.getCompression());
+        this.block = ByteBuffer.allocate(blockSize + blockSize / 2);
+        this.bloom = new BloomFilter.Builder(config.getBloomBitsPerKey());
+        this.prefixExtractor = config.getPrefixExtractor();
+        this.prefixBloom = new BloomFilter.Builder(prefixExtractor == null ? 0 : config.getBloomBitsPerKey());
+        this.channel = FileChannel.open(
+                temp.toPath(),
+                StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Makes the writer copy the values of the given value log segments to a new segment
+     * instead of keeping pointers to them.
+     */
+    void relocate(@NotNull final Set<Integer> segments) {
+        this.relocated = segments;
+    }
+
+    /**
+     * Appends the cell, cells must come in strictly ascending key order.
+     */
+    void add(@NotNull final Cell cell) throws IOException {
+        final ByteBuffer key = cell.getKey();
+        if (block.position() >= blockSize) {
+            finishBlock();
+        }
+
+        bloom.add(key);
+        if (prefixExtractor != null) {
+            addPrefix(key);
+        }
+        final int keyLength = key.remaining();
+        int shared = 0;
+        if (blockCells % restartInterval == 0) {
+            addRestart();
+        } else {
+            shared = sharedPrefix(key);
+        }
+        ByteBuffer value = cell.getValue();
+        boolean separated = cell.isSeparated();
+        if (separated) {
+            if (relocated.contains(ValueLog.segmentOf(value))) {
+                value = appender().append(valueLog.read(value));
+            }
+            reference(value);
+        } else if (value != null && valueLog != null && valueThreshold > 0 && value.remaining() >= valueThreshold) {
+            value = appender().append(value);
+            separated = true;
+            reference(value);
+        }
+        final int valueLength = value == null ? 0 : value.remaining();
+        ensureBlock(3 * (Integer.BYTES + 1) + keyLength - shared + valueLength);
+        putVarInt(block, shared);
+        putVarInt(block, keyLength - shared);
+        final int tag;
+        if (value == null) {
+            tag = SSTable.TOMBSTONE_TAG;
+        } else if (separated) {
+            tag = SSTable.SEPARATED_TAG;
+        } else {
+            tag = valueLength + SSTable.INLINE_TAG;
+        }
+        putVarInt(block, tag);
+        block.put(key.duplicate().position(key.position() + shared));
+        if (value == null) {
+            tombstones++;
+        } else {
+            block.put(value.duplicate());
+        }
+
+        if (keyLength > lastKey.length) {
+            lastKey = new byte[Math.max(keyLength, lastKey.length * 2)];
+            lastKeyView = ByteBuffer.wrap(lastKey);
+        }
+        key.duplicate().get(lastKey, 0, keyLength);
+        lastKeyLength = keyLength;
+        blockCells++;
+        cells++;
+    }
+
+    /**
+     * Adds the prefix of the key to the prefix filter unless the previous key has the same one.
+     */
+    private void addPrefix(@NotNull final ByteBuffer key) {
+        final ByteBuffer prefix = prefixExtractor.prefix(key);
+        if (prefix != null && (cells == 0 || !Bytes.startsWith(lastKeyView, 0, lastKeyLength, prefix))) {
+            prefixBloom.add(prefix);
+        }
+    }
+
+    /**
+     * Returns the number of bytes written so far, the current block is counted uncompressed.
+     */
+    long size() {
+        return position + block.position();
+    }
+
+    /**
+     * Returns the number of bytes written so far including the value log.
+     */
+    long written() {
+        return size() + (appender == null ? 0L : appender.size());
+    }
+
+    /**
+     * Writes the index, the Bloom filters and the footer and atomically publishes the file.
+     */
+    void finish() throws IOException {
+        if (blockCells > 0) {
+            finishBlock();
+        }
+        // Assembled in memory to be checksummed as a whole
+        final ByteBuffer filter = bloom.build();
+        final ByteBuffer prefixFilter = prefixBloom.build();
+        final byte[] extractor = prefixExtractor == null
+                ? new byte[0]
+                : prefixExtractor.name().getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer meta = ByteBuffer.allocate(
+                blocks * Long.BYTES
+                        + filter.remaining()
+                        + (blocks == 0 ? 0 : Integer.BYTES + lastKeyLength)
+                        + Integer.BYTES + references.size() * (Integer.BYTES + Long.BYTES)
+                        + Integer.BYTES + extractor.length + prefixFilter.remaining());
+        final long indexOffset = position;
+        for (int i = 0; i < blocks; i++) {
+            meta.putLong(blockOffsets[i]);
+        }
+        final long bloomOffset = indexOffset + meta.position();
+        meta.put(filter);
+        final long lastKeyOffset = blocks == 0 ? -1L : indexOffset + meta.position();
+        if (blocks > 0) {
+            meta.putInt(lastKeyLength);
+            meta.put(lastKey, 0, lastKeyLength);
+        }
+        final long referencesOffset = indexOffset + meta.position();
+        meta.putInt(references.size());
+        for (final Map.Entry<Integer, Long> reference : references.entrySet()) {
+            meta.putInt(reference.getKey());
+            meta.putLong(reference.getValue());
+        }
+        final long prefixOffset = indexOffset + meta.position();
+        meta.putInt(extractor.length);
+        meta.put(extractor);
+        meta.put(prefixFilter);
+        meta.flip();
+        checksum.reset();
+        checksum.update(meta.duplicate());
+        put(meta);
+
+        putLong(indexOffset);
+        putInt(blocks);
+        putLong(cells);
+        putLong(tombstones);
+        putLong(bloomOffset);
+        putLong(lastKeyOffset);
+        putLong(referencesOffset);
+        putLong(prefixOffset);
+        putInt(level);
+        putInt((int) checksum.getValue());
+        putLong(SSTable.MAGIC);
+        flush();
+        channel.force(false);
+        channel.close();
+        // The values go first, a table never points to a missing segment
+        if (appender != null) {
+            appender.finish();
+        }
+        // Before the manifest logs the table
+        DurableFiles.move(temp, file);
+        finished = true;
+    }
+
+    /**
+     * Discards the temporary file unless the table has been finished.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!finished) {
+            channel.close();
+            java.nio.file.Files.deleteIfExists(temp.toPath());
+            if (appender != null) {
+                appender.close();
+            }
+        }
+    }
+
+    /**
+     * Appends the restart offsets to the current block and writes it out with the header and the checksum,
+     * see {@link SSTable}.
+     */
+    private void finishBlock() throws IOException {
+        ensureBlock((restarts + 1) * Integer.BYTES);
+        for (int i = 0; i < restarts; i++) {
+            block.putInt(restartOffsets[i]);
+        }
+        block.putInt(restarts);
+        final int rawLength = block.position();
+
+        if (blocks == blockOffsets.length) {
+            blockOffsets = Arrays.copyOf(blockOffsets, blocks * 2);
+        }
+        blockOffsets[blocks] = position;
+        blocks++;
+
+        byte codecId = Codec.NONE;
+        int compressedLength = rawLength;
+        if (codec != null) {
+            final int max = codec.maxCompressedLength(rawLength);
+            if (compressed.length < max) {
+                compressed = new byte[max];
+            }
+            compressedLength = codec.compress(block.array(), rawLength, compressed);
+            // Not worth decompressing otherwise
+            if (compressedLength <= rawLength - rawLength / 8) {
+                codecId = codec.id();
+            }
+        }
+        // The first key is a restart point stored in full after the empty shared prefix
+        final int unshared = Bytes.getVarInt(block, 1);
+        final int valueLengthOffset = 1 + Bytes.varIntSize(unshared);
+        final int keyOffset = valueLengthOffset + Bytes.varIntSize(Bytes.getVarInt(block, valueLengthOffset));
+        final ByteBuffer header = ByteBuffer.allocate(Byte.BYTES + 2 * (Integer.BYTES + 1) + unshared);
+        header.put(codecId);
+        putVarInt(header, unshared);
+        header.put(block.array(), keyOffset, unshared);
+        final ByteBuffer data;
+        if (codecId == Codec.NONE) {
+            data = block.flip();
+        } else {
+            putVarInt(header, rawLength);
+            data = ByteBuffer.wrap(compressed, 0, compressedLength);
+        }
+        header.flip();
+        checksum.reset();
+        checksum.update(header.duplicate());
+        checksum.update(data.duplicate());
+        put(header);
+        put(data);
+        putInt((int) checksum.getValue());
+
+        block.clear();
+        restarts = 0;
+        blockCells = 0;
+    }
+
+    @NotNull
+    private ValueLog.Appender appender() {
+        if (appender == null) {
+            appender = valueLog.appender();
+        }
+        return appender;
+    }
+
+    private void reference(@NotNull final ByteBuffer pointer) {
+        references.merge(ValueLog.segmentOf(pointer), (long) ValueLog.lengthOf(pointer), Long::sum);
+    }
+
+    private void addRestart() {
+        if (restarts == restartOffsets.length) {
+            restartOffsets = Arrays.copyOf(restartOffsets, restarts * 2);
+        }
+        restartOffsets[restarts] = block.position();
+        restarts++;
+    }
+
+    /**
+     * Returns the length of the common prefix of the key and the previous one.
+     */
+    private int sharedPrefix(@NotNull final ByteBuffer key) {
+        final int offset = key.position();
+        final int length = Math.min(key.remaining(), lastKeyLength);
+        int shared = 0;
+        while (shared < length && key.get(offset + shared) == lastKey[shared]) {
+            shared++;
+        }
+        return shared;
+    }
+
+    /**
+     * Grows the block buffer to fit a big cell.
+     */
+    private void ensureBlock(final int bytes) {
+        if (block.remaining() < bytes) {
+            final ByteBuffer grown = ByteBuffer.allocate(Math.max(block.capacity() * 2, block.position() + bytes));
+            grown.put(block.flip());
+            block = grown;
+        }
+    }
+
+    private static void putVarInt(
+            @NotNull final ByteBuffer dst,
+            final int value) {
+        int rest = value;
+        while ((rest & ~0x7F) != 0) {
+            dst.put((byte) ((rest & 0x7F) | 0x80));
+            rest >>>= 7;
+        }
+        dst.put((byte) rest);
+    }
+
+    private void putInt(final int value) throws IOException {
+        ensure(Integer.BYTES);
+        buffer.putInt(value);
+        position += Integer.BYTES;
+    }
+
+    private void putLong(final long value) throws IOException {
+        ensure(Long.BYTES);
+        buffer.putLong(value);
+        position += Long.BYTES;
+    }
+
+    private void put(@NotNull final ByteBuffer src) throws IOException {
+        final int length = src.remaining();
+        if (length > buffer.remaining()) {
+            flush();
+        }
+        if (length > buffer.capacity()) {
+            while (src.hasRemaining()) {
+                channel.write(src);
+            }
+        } else {
+            buffer.put(src);
+        }
+        position += length;
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void ensure(final int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package ru.mail.polis.nik27090;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Hands out the sequence numbers of the writes and tells the readers the greatest number
+ * up to which all the writes are applied.
+ *
+ * <p>A writer claims one of a fixed number of slots and stores there a lower bound of the numbers
+ * it takes next, the slot is freed once the writes are applied. A reader takes the last number handed out
+ * and then the smallest bound in the slots, everything below it is applied, so the writers never wait
+ * for each other to become visible. There are a few slots per processor, a writer finding
+ * all of them taken waits for one to be freed.
+ */
+final class Sequencer {
+    private static final long FREE = Long.MAX_VALUE;
+    /**
+     * Longs from one slot to the next keeping the slots in separate cache lines.
+     */
+    private static final int STRIDE = 8;
+
+    private final AtomicLong sequence;
+    /**
+     * The greatest visible number returned so far, a slot claimed late may hold a bound below it.
+     */
+    private final AtomicLong visible;
+    private final AtomicLongArray slots;
+    private final int mask;
+
+    /**
+     * Continues after the given number, all the writes up to it are visible.
+     */
+    Sequencer(final long last) {
+        this.sequence = new AtomicLong(last);
+        this.visible = new AtomicLong(last);
+        final int count = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1;
+        this.slots = new AtomicLongArray(count * STRIDE);
+        for (int i = 0; i < count; i++) {
+            slots.set(i * STRIDE, FREE);
+        }
+        this.mask = count - 1;
+    }
+
+    /**
+     * Claims a slot for the writes of the caller, which takes their numbers by {@link #next(int)}
+     * and frees the slot by {@link #exit(int)} once they are applied.
+     */
+    int enter() {
+        int slot = (int) Thread.currentThread().getId() & mask;
+        while (true) {
+            // Taken before the numbers, so it's not greater than any of them
+            if (slots.compareAndSet(slot * STRIDE, FREE, sequence.get() + 1)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+            if (slot == 0) {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Returns the first of the given number of consecutive new numbers.
+     */
+    long next(final int count) {
+        return sequence.getAndAdd(count) + 1;
+    }
+
+    /**
+     * Frees the slot, the writes of the caller are applied.
+     */
+    void exit(final int slot) {
+        slots.set(slot * STRIDE, FREE);
+    }
+
+    /**
+     * Returns the greatest number such that it and all the smaller ones are applied or never used,
+     * the result never decreases.
+     */
+    long visible() {
+        long result = sequence.get();
+        for (int i = 0; i <= mask; i++) {
+            result = Math.min(result, slots.get(i * STRIDE) - 1);
+        }
+        long current = visible.get();
+        while (result > current) {
+            if (visible.compareAndSet(current, result)) {
+                return result;
+            }
+            current = visible.get();
+        }
+        return current;
+    }
+
+    /**
+     * Waits for the number to become visible, i.e. for the writes with smaller numbers
+     * still being applied, so that a writer reads its own writes.
+     */
+    void await(final long seq) {
+        while (visible() < seq) {
+            Thread.yield();
+        }
+    }
+}
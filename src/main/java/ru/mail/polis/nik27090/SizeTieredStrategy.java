@@ -0,0 +1,164 @@
+package ru.mail.polis.nik27090;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Size-tiered compaction: merges runs of tables of similar size, favours write amplification.
+ *
+ * <p>Only a run of tables adjacent in {@link SSTable#ORDER} may be merged: the result takes the place
+ * of the newest input, so a table left between the inputs would be shadowed by older cells.
+ * Tables smaller than a memtable are counted as a memtable, so fresh flushes always form a tier.
+ *
+ * <p>A table with too many tombstones is merged with the older tables overlapping it, so that
+ * all of its tombstones can be dropped, even if it doesn't fall into a tier.
+ *
+ * <p>A major compaction splits its result into non-overlapping tables on level {@code 1},
+ * below the tables flushed while it runs.
+ */
+final class SizeTieredStrategy implements CompactionStrategy {
+    private static final double LOW = 0.5;
+    private static final double HIGH = 1.5;
+
+    private final int fanIn;
+    private final long minSize;
+    private final double tombstoneRatio;
+    private final long maxSize;
+
+    SizeTieredStrategy(@NotNull final Config config) {
+        this(config, SSTable.MAX_SIZE);
+    }
+
+    /**
+     * Creates the strategy keeping the tables within the given size, e.g. a small one in tests.
+     */
+    SizeTieredStrategy(
+            @NotNull final Config config,
+            final long maxSize) {
+        this.fanIn = config.getCompactionFanIn();
+        this.minSize = config.getFlushThreshold();
+        this.tombstoneRatio = config.getTombstoneRatio();
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Picks the newest run of at least fan-in tables within the tier bounds,
+     * otherwise the oldest table with too many tombstones.
+     */
+    @Nullable
+    @Override
+    public Compaction select(@NotNull final List<SSTable> tables) {
+        if (fanIn == 0) {
+            return null;
+        }
+        for (int newest = tables.size() - 1; newest >= fanIn - 1; newest--) {
+            long total = tierSize(tables.get(newest));
+            long bytes = tables.get(newest).sizeInBytes();
+            int oldest = newest;
+            while (oldest > 0) {
+                final SSTable candidate = tables.get(oldest - 1);
+                final long size = tierSize(candidate);
+                final double average = (double) total / (newest - oldest + 1);
+                // The result must still fit a table
+                if (size < average * LOW || size > average * HIGH
+                        || bytes + candidate.sizeInBytes() > maxSize) {
+                    break;
+                }
+                total += size;
+                bytes += candidate.sizeInBytes();
+                oldest--;
+            }
+            if (newest - oldest + 1 >= fanIn) {
+                return Compaction.inPlace(tables.subList(oldest, newest + 1));
+            }
+        }
+        return purge(tables);
+    }
+
+    /**
+     * Merges the tables into tables of half the maximum size, which leaves room for the index,
+     * the filter and the cell crossing the limit.
+     */
+    @NotNull
+    @Override
+    public Compaction major(@NotNull final List<SSTable> tables) {
+        return Compaction.toLevel(tables, 1, maxSize / 2);
+    }
+
+    /**
+     * All the tables are on level {@code 0}, the load goes on top of them.
+     */
+    @Override
+    public int loadLevel(
+            @NotNull final List<SSTable> tables,
+            @NotNull final ByteBuffer first,
+            @NotNull final ByteBuffer last) {
+        return 0;
+    }
+
+    /**
+     * Returns the size letting a run of fan-in loaded tables be merged into a table.
+     */
+    @Override
+    public long loadTableSize() {
+        return maxSize / Math.max(fanIn, 1);
+    }
+
+    @Nullable
+    private Compaction purge(@NotNull final List<SSTable> tables) {
+        if (tombstoneRatio == 0.0) {
+            return null;
+        }
+        for (int i = 0; i < tables.size(); i++) {
+            if (tables.get(i).tombstoneRatio() > tombstoneRatio) {
+                final List<SSTable> run = tables.subList(purgeStart(tables, i), i + 1);
+                long bytes = 0L;
+                for (final SSTable table : run) {
+                    bytes += table.sizeInBytes();
+                }
+                if (bytes <= maxSize) {
+                    return Compaction.inPlace(run);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the start of the run ending with the given table such that no older table overlaps the run.
+     */
+    private static int purgeStart(
+            @NotNull final List<SSTable> tables,
+            final int end) {
+        ByteBuffer from = tables.get(end).firstKey();
+        ByteBuffer to = tables.get(end).lastKey();
+        int start = end;
+        for (int i = end - 1; i >= 0; i--) {
+            if (!tables.get(i).overlaps(from, to)) {
+                continue;
+            }
+            // Take everything in between to keep the run adjacent
+            for (int j = i; j < start; j++) {
+                final SSTable table = tables.get(j);
+                if (table.isEmpty()) {
+                    continue;
+                }
+                if (table.firstKey().compareTo(from) < 0) {
+                    from = table.firstKey();
+                }
+                if (table.lastKey().compareTo(to) > 0) {
+                    to = table.lastKey();
+                }
+            }
+            start = i;
+        }
+        return start;
+    }
+
+    private long tierSize(@NotNull final SSTable table) {
+        return Math.max(table.sizeInBytes(), minSize);
+    }
+}
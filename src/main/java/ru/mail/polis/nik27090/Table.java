@@ -0,0 +1,57 @@
+package ru.mail.polis.nik27090;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * Sorted source of {@link Cell}s, either in memory or on disk.
+ */
+interface Table {
+    /**
+     * Marker returned by {@link #get(ByteBuffer)} for a removed key, compared by identity.
+     */
+    ByteBuffer TOMBSTONE = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
+    /**
+     * Provides cells (tombstones included) starting at "from" key (inclusive) in ascending key order.
+     */
+    @NotNull
+    Iterator<Cell> iterator(@NotNull ByteBuffer from) throws IOException;
+
+    /**
+     * Returns the cells with keys greater or equal to the given one skipping the tombstones,
+     * enough for the oldest of the merged tables as there's nothing older for its tombstones to shadow.
+     */
+    @NotNull
+    Iterator<Cell> liveIterator(@NotNull ByteBuffer from) throws IOException;
+
+    /**
+     * Returns a cursor over the cells, tombstones included.
+     *
+     * @param pooled whether the values may be views of pooled buffers, which are valid only until
+     *               the cursor moves, rather than values which stay valid to be sliced
+     * @param seq    the greatest sequence number of the writes to see, tables on disk ignore it
+     *               as they are written before any snapshot reading them is taken
+     */
+    @NotNull
+    CellCursor cursor(
+            boolean pooled,
+            long seq);
+
+    /**
+     * Looks up the cell of the given key.
+     *
+     * @return the value, {@link #TOMBSTONE} if the key is removed or {@code null} if the table has no cell for it
+     */
+    @Nullable
+    ByteBuffer get(@NotNull ByteBuffer key) throws IOException;
+
+    /**
+     * Returns the number of bytes occupied by the table.
+     */
+    long sizeInBytes();
+}
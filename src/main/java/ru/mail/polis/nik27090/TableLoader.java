@@ -0,0 +1,154 @@
+package ru.mail.polis.nik27090;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.BulkLoad;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.IntSupplier;
+
+/**
+ * {@link BulkLoad} writing the records straight to tables of about the given size,
+ * which the storage attaches at once on commit. The values stay in the tables, compaction moves
+ * the big ones to the {@link ValueLog} later.
+ *
+ * <p>The tables are staged as {@link Manifest#stagedFile(File, int) staged files} unknown to the storage,
+ * on commit the {@link Manifest} adds them as tables of new generations in a single edit.
+ * The staged files of the loads which were not committed are deleted on open.
+ */
+final class TableLoader implements BulkLoad {
+
+    /**
+     * Attaches the staged tables to the storage.
+     */
+    @FunctionalInterface
+    interface Committer {
+        /**
+         * @param staged generations of the staged tables
+         * @param first  the first key of the load
+         * @param last   the last key of the load
+         */
+        void commit(
+                @NotNull int[] staged,
+                @NotNull ByteBuffer first,
+                @NotNull ByteBuffer last) throws IOException;
+    }
+
+    @NotNull
+    private final File storage;
+    @NotNull
+    private final Config config;
+    private final long tableSize;
+    @NotNull
+    private final IntSupplier generations;
+    @NotNull
+    private final Committer committer;
+
+    private int[] staged = new int[16];
+    private int tables;
+    @Nullable
+    private SSTableWriter writer;
+    @Nullable
+    private ByteBuffer first;
+    private byte[] last = new byte[64];
+    private ByteBuffer lastView;
+    private boolean done;
+
+    TableLoader(
+            @NotNull final File storage,
+            @NotNull final Config config,
+            final long tableSize,
+            @NotNull final IntSupplier generations,
+            @NotNull final Committer committer) {
+        this.storage = storage;
+        this.config = config;
+        this.tableSize = tableSize;
+        this.generations = generations;
+        this.committer = committer;
+    }
+
+    @Override
+    public void add(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) throws IOException {
+        if (done) {
+            throw new IllegalStateException("Load is already finished");
+        }
+        final int length = key.remaining();
+        if (lastView != null && key.compareTo(lastView) <= 0) {
+            throw new IllegalArgumentException("Keys must be strictly ascending");
+        }
+        if (writer != null && writer.size() >= tableSize) {
+            finishTable();
+        }
+        if (writer == null) {
+            startTable();
+        }
+        writer.add(new Cell(key, value));
+
+        if (first == null) {
+            first = ByteBuffer.allocate(length).put(key.duplicate()).flip();
+        }
+        if (length > last.length || lastView == null) {
+            last = new byte[Math.max(length, 2 * last.length)];
+            lastView = ByteBuffer.wrap(last);
+        }
+        key.duplicate().get(last, 0, length);
+        Bytes.view(lastView, 0, length);
+    }
+
+    @Override
+    public void commit() throws IOException {
+        if (done) {
+            throw new IllegalStateException("Load is already finished");
+        }
+        if (writer != null) {
+            finishTable();
+        }
+        if (tables > 0) {
+            committer.commit(
+                    Arrays.copyOf(staged, tables),
+                    first,
+                    ByteBuffer.wrap(Arrays.copyOf(last, lastView.remaining())));
+        }
+        // Closing a load failed to commit deletes the staged tables
+        done = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+        if (!done) {
+            done = true;
+            for (int i = 0; i < tables; i++) {
+                java.nio.file.Files.deleteIfExists(Manifest.stagedFile(storage, staged[i]).toPath());
+            }
+        }
+    }
+
+    private void startTable() throws IOException {
+        final int generation = generations.getAsInt();
+        if (tables == staged.length) {
+            staged = Arrays.copyOf(staged, 2 * tables);
+        }
+        staged[tables++] = generation;
+        writer = new SSTableWriter(Manifest.stagedFile(storage, generation), config, 0);
+    }
+
+    private void finishTable() throws IOException {
+        assert writer != null;
+        try {
+            writer.finish();
+        } finally {
+            writer.close();
+            writer = null;
+        }
+    }
+
+}
@@ -0,0 +1,136 @@
+package ru.mail.polis.nik27090;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable snapshot of the tables forming the storage: the active memtable,
+ * full memtables being flushed and tables on disk.
+ */
+final class TableSet {
+    @NotNull
+    final MemTable memTable;
+    /**
+     * Full memtables waiting for flush from the oldest to the newest.
+     */
+    @NotNull
+    final List<MemTable> flushing;
+    /**
+     * Tables on disk from the oldest to the newest, see {@link SSTable#ORDER}.
+     */
+    @NotNull
+    final List<SSTable> ssTables;
+
+    TableSet(
+            @NotNull final MemTable memTable,
+            @NotNull final List<MemTable> flushing,
+            @NotNull final List<SSTable> ssTables) {
+        this.memTable = memTable;
+        this.flushing = Collections.unmodifiableList(flushing);
+        this.ssTables = Collections.unmodifiableList(ssTables);
+    }
+
+    /**
+     * Returns all the tables from the oldest to the newest.
+     */
+    @NotNull
+    List<Table> all() {
+        final List<Table> result = new ArrayList<>(ssTables.size() + flushing.size() + 1);
+        result.addAll(ssTables);
+        result.addAll(flushing);
+        result.add(memTable);
+        return result;
+    }
+
+    /**
+     * Returns the set without the tables on disk which definitely have no cell with key starting with the prefix,
+     * see {@link SSTable#mightContainPrefix(ByteBuffer, PrefixExtractor)}. The memtables are kept.
+     */
+    @NotNull
+    TableSet withPrefix(
+            @NotNull final ByteBuffer prefix,
+            @Nullable final PrefixExtractor extractor) {
+        final List<SSTable> matching = new ArrayList<>(ssTables.size());
+        for (final SSTable table : ssTables) {
+            if (table.mightContainPrefix(prefix, extractor)) {
+                matching.add(table);
+            }
+        }
+        return matching.size() == ssTables.size() ? this : new TableSet(memTable, flushing, matching);
+    }
+
+    /**
+     * Probes the tables from the newest to the oldest and stops at the first cell of the key.
+     *
+     * @param seq the greatest sequence number of the writes to see
+     * @return the value, {@link Table#TOMBSTONE} if the key is removed or {@code null} if there is no cell for it
+     */
+    @Nullable
+    ByteBuffer get(
+            @NotNull final ByteBuffer key,
+            final long seq) throws IOException {
+        ByteBuffer value = memTable.get(key, seq);
+        for (int i = flushing.size() - 1; value == null && i >= 0; i--) {
+            value = flushing.get(i).get(key, seq);
+        }
+        for (int i = ssTables.size() - 1; value == null && i >= 0; i--) {
+            value = ssTables.get(i).get(key);
+        }
+        return value;
+    }
+
+    /**
+     * Replaces the active memtable with an empty one and schedules the current one for flush.
+     */
+    @NotNull
+    TableSet rotate(@NotNull final MemTable empty) {
+        final List<MemTable> full = new ArrayList<>(flushing.size() + 1);
+        full.addAll(flushing);
+        full.add(memTable);
+        return new TableSet(empty, full, ssTables);
+    }
+
+    /**
+     * Replaces the flushed memtable with the table on disk.
+     */
+    @NotNull
+    TableSet flushed(
+            @NotNull final MemTable flushed,
+            @NotNull final SSTable table) {
+        final List<MemTable> full = new ArrayList<>(flushing);
+        full.remove(flushed);
+        final List<SSTable> tables = new ArrayList<>(ssTables.size() + 1);
+        tables.addAll(ssTables);
+        tables.add(table);
+        tables.sort(SSTable.ORDER);
+        return new TableSet(memTable, full, tables);
+    }
+
+    /**
+     * Adds the tables on disk, e.g. of a bulk load.
+     */
+    @NotNull
+    TableSet loaded(@NotNull final List<SSTable> loaded) {
+        return compacted(Collections.emptyList(), loaded);
+    }
+
+    /**
+     * Replaces the compacted tables on disk with the result of their compaction.
+     */
+    @NotNull
+    TableSet compacted(
+            @NotNull final List<SSTable> compacted,
+            @NotNull final List<SSTable> result) {
+        final List<SSTable> tables = new ArrayList<>(ssTables);
+        tables.removeAll(compacted);
+        tables.addAll(result);
+        tables.sort(SSTable.ORDER);
+        return new TableSet(memTable, flushing, tables);
+    }
+}
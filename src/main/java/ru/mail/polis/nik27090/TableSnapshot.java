@@ -0,0 +1,118 @@
+package ru.mail.polis.nik27090;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.Cursor;
+import ru.mail.polis.Iters;
+import ru.mail.polis.Record;
+import ru.mail.polis.Snapshot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * {@link Snapshot} reading a {@link TableSet} as of a sequence number.
+ *
+ * <p>The tables of the set never change, except for the memtables still taking writes, which are read as of
+ * the sequence number. The tables merged by compaction stay readable through their mappings as long as
+ * the snapshot refers to them, so compaction needn't keep the versions the snapshot sees.
+ */
+final class TableSnapshot implements Snapshot {
+    private final long seq;
+    @Nullable
+    private final PrefixExtractor prefixExtractor;
+    @Nullable
+    private volatile TableSet tables;
+
+    /**
+     * Creates a snapshot, all the writes with sequence numbers up to the given one must be applied in full.
+     *
+     * @param prefixExtractor the extractor of the prefixes in the prefix filters of the tables,
+     *                        see {@link Config#getPrefixExtractor()}
+     */
+    TableSnapshot(
+            @NotNull final TableSet tables,
+            final long seq,
+            @Nullable final PrefixExtractor prefixExtractor) {
+        this.tables = tables;
+        this.seq = seq;
+        this.prefixExtractor = prefixExtractor;
+    }
+
+    @Override
+    public long getSequence() {
+        return seq;
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Record> iterator(@NotNull final ByteBuffer from) {
+        final TableSet snapshot = tables();
+        final MergeCursor cursor = new MergeCursor(() -> snapshot, false, () -> seq);
+        cursor.seek(from);
+        return cursor.records();
+    }
+
+    /**
+     * Walks the tables backward, see {@link CellCursor#prev()}.
+     */
+    @NotNull
+    @Override
+    public Iterator<Record> descendingIterator(@Nullable final ByteBuffer from) {
+        final TableSet snapshot = tables();
+        final MergeCursor cursor = new MergeCursor(() -> snapshot, false, () -> seq, true);
+        if (from == null) {
+            cursor.seekLast();
+        } else {
+            cursor.seek(from);
+        }
+        return cursor.records();
+    }
+
+    /**
+     * Merges only the tables which may have keys starting with the prefix judging by their key ranges
+     * and prefix filters.
+     */
+    @NotNull
+    @Override
+    public Iterator<Record> prefixScan(@NotNull final ByteBuffer prefix) {
+        final TableSet snapshot = tables().withPrefix(prefix, prefixExtractor);
+        final MergeCursor cursor = new MergeCursor(() -> snapshot, false, () -> seq);
+        cursor.seek(prefix);
+        final ByteBuffer bound = Iters.prefixBound(prefix);
+        final Iterator<Record> records = cursor.records();
+        return bound == null ? records : Iters.until(records, Record.of(bound, ByteBuffer.allocate(0)));
+    }
+
+    /**
+     * Returns a cursor reading the blocks into pooled buffers.
+     */
+    @NotNull
+    @Override
+    public Cursor cursor() {
+        final TableSet snapshot = tables();
+        return new MergeCursor(() -> snapshot, true, () -> seq);
+    }
+
+    @Nullable
+    @Override
+    public ByteBuffer getIfPresent(@NotNull final ByteBuffer key) throws IOException {
+        final ByteBuffer value = tables().get(key, seq);
+        return value == Table.TOMBSTONE ? null : value;
+    }
+
+    @Override
+    public void close() {
+        tables = null;
+    }
+
+    @NotNull
+    private TableSet tables() {
+        final TableSet result = tables;
+        if (result == null) {
+            throw new IllegalStateException("Snapshot is closed");
+        }
+        return result;
+    }
+}
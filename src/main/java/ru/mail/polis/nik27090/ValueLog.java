@@ -0,0 +1,251 @@
+package ru.mail.polis.nik27090;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.IntSupplier;
+
+/**
+ * Large values kept apart from the tables, as in WiscKey, so that compaction moves only pointers to them.
+ *
+ * <p>The log is a set of immutable segments {@code <id>.vlog}, a segment is a plain concatenation of values.
+ * Segments are written by an {@link Appender} together with the table referencing them and published
+ * before the table. A pointer is {@code segment:int | offset:int | length:int}.
+ *
+ * <p>Every table records how many bytes of each segment it references, see {@link SSTable#getReferences()}.
+ * A segment referenced by no table is deleted, a segment with much garbage is collected by
+ * rewriting the tables referencing it with its live values moved to a new segment.
+ */
+final class ValueLog implements Closeable {
+    static final String SUFFIX = ".vlog";
+    static final int POINTER = Integer.BYTES + Integer.BYTES + Integer.BYTES;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @NotNull
+    private final File storage;
+    @NotNull
+    private final IntSupplier ids;
+    private final ConcurrentMap<Integer, ByteBuffer> segments = new ConcurrentHashMap<>();
+
+    /**
+     * Creates the log in the storage directory taking the ids of new segments from the given supplier.
+     */
+    ValueLog(
+            @NotNull final File storage,
+            @NotNull final IntSupplier ids) {
+        this.storage = storage;
+        this.ids = ids;
+    }
+
+    static int segmentOf(@NotNull final ByteBuffer pointer) {
+        return pointer.getInt(pointer.position());
+    }
+
+    /**
+     * Returns the mapping of the segment.
+     */
+    @NotNull
+    ByteBuffer segment(final int id) throws IOException {
+        final ByteBuffer mapped = segments.get(id);
+        if (mapped != null) {
+            return mapped;
+        }
+        final File file = file(id);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > SSTable.MAX_SIZE) {
+                throw new IOException("Unexpected size " + size + " of " + file);
+            }
+            final ByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).asReadOnlyBuffer();
+            final ByteBuffer previous = segments.putIfAbsent(id, segment);
+            return previous == null ? segment : previous;
+        }
+    }
+
+    /**
+     * Returns the size of the segment in bytes.
+     */
+    long size(final int id) throws IOException {
+        return segment(id).limit();
+    }
+
+    /**
+     * Returns the value the pointer refers to.
+     */
+    @NotNull
+    ByteBuffer read(@NotNull final ByteBuffer pointer) throws IOException {
+        return resolve(segment(segmentOf(pointer)), pointer);
+    }
+
+    /**
+     * Returns the value the pointer refers to in the given mapping of its segment.
+     */
+    @NotNull
+    static ByteBuffer resolve(
+            @NotNull final ByteBuffer segment,
+            @NotNull final ByteBuffer pointer) {
+        return Bytes.slice(segment, offsetOf(pointer), lengthOf(pointer));
+    }
+
+    static int offsetOf(@NotNull final ByteBuffer pointer) {
+        return pointer.getInt(pointer.position() + Integer.BYTES);
+    }
+
+    static int lengthOf(@NotNull final ByteBuffer pointer) {
+        return pointer.getInt(pointer.position() + Integer.BYTES + Integer.BYTES);
+    }
+
+    /**
+     * Deletes the segment, the tables and the values still referencing its mapping keep reading it
+     * until they are garbage collected.
+     */
+    void delete(final int id) throws IOException {
+        segments.remove(id);
+        java.nio.file.Files.deleteIfExists(file(id).toPath());
+    }
+
+    /**
+     * Drops the mappings of the segments, the values already read stay readable until garbage collected.
+     */
+    @Override
+    public void close() {
+        segments.clear();
+    }
+
+    @NotNull
+    Appender appender() {
+        return new Appender();
+    }
+
+    @NotNull
+    File file(final int id) {
+        return new File(storage, id + SUFFIX);
+    }
+
+    /**
+     * Writes values to new segments starting another one once a segment reaches the size limit of a mapping.
+     * Like {@link SSTableWriter}, writes to temporary files published by {@link #finish()}.
+     */
+    final class Appender implements Closeable {
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final List<File> published = new ArrayList<>();
+        private int id;
+        @Nullable
+        private File temp;
+        @Nullable
+        private FileChannel channel;
+        private long position;
+        private long written;
+        private boolean finished;
+
+        private Appender() {
+            // Use ValueLog.appender()
+        }
+
+        /**
+         * Appends the value and returns the pointer to it.
+         */
+        @NotNull
+        ByteBuffer append(@NotNull final ByteBuffer value) throws IOException {
+            final int length = value.remaining();
+            if (channel == null || position + length > SSTable.MAX_SIZE) {
+                roll();
+            }
+            final ByteBuffer pointer = ByteBuffer.allocate(POINTER)
+                    .putInt(id)
+                    .putInt((int) position)
+                    .putInt(length)
+                    .flip();
+            if (length > buffer.remaining()) {
+                flush();
+            }
+            if (length > buffer.capacity()) {
+                final ByteBuffer src = value.duplicate();
+                while (src.hasRemaining()) {
+                    channel.write(src);
+                }
+            } else {
+                buffer.put(value.duplicate());
+            }
+            position += length;
+            written += length;
+            return pointer;
+        }
+
+        /**
+         * Returns the number of bytes appended to all the segments.
+         */
+        long size() {
+            return written;
+        }
+
+        /**
+         * Makes the segments durable and publishes them.
+         */
+        void finish() throws IOException {
+            if (channel != null) {
+                publish();
+            }
+            finished = true;
+        }
+
+        /**
+         * Discards the segments unless they have been finished.
+         */
+        @Override
+        public void close() throws IOException {
+            if (finished) {
+                return;
+            }
+            if (channel != null) {
+                channel.close();
+                java.nio.file.Files.deleteIfExists(temp.toPath());
+            }
+            for (final File file : published) {
+                java.nio.file.Files.deleteIfExists(file.toPath());
+            }
+        }
+
+        private void roll() throws IOException {
+            if (channel != null) {
+                publish();
+            }
+            id = ids.getAsInt();
+            temp = new File(storage, id + SUFFIX + SSTable.TEMP);
+            channel = FileChannel.open(
+                    temp.toPath(),
+                    StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE);
+            position = 0L;
+        }
+
+        private void publish() throws IOException {
+            flush();
+            channel.force(false);
+            channel.close();
+            channel = null;
+            final File file = file(id);
+            DurableFiles.move(temp, file);
+            published.add(file);
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,422 @@
+package ru.mail.polis.nik27090;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.mail.polis.WriteBatch;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of the writes to a single {@link MemTable}.
+ *
+ * <p>Record layout: {@code checksum:int | seq:long | keyLength:int | valueLength:int | key | value},
+ * value length {@code -1} marks a tombstone. Records carry the sequence number of the write,
+ * so replay does not depend on the order in which concurrent writers got into the log.
+ *
+ * <p>A {@link WriteBatch} is logged as a single record
+ * {@code checksum:int | firstSeq:long | -2:int | bodyLength:int | (keyLength:int | valueLength:int | key | value)*},
+ * its writes get consecutive sequence numbers. A truncated batch is ignored as a whole on replay.
+ *
+ * <p>The checksum is the CRC32C of the rest of the record. Replay stops at the first record which is torn
+ * or doesn't match its checksum.
+ *
+ * <p>Writers first {@link #append} and then wait for durability with {@link #sync},
+ * so that a single {@link FileChannel#force} covers the records of all writers queued at that moment.
+ */
+final class WriteAheadLog implements Closeable {
+    static final String SUFFIX = ".log";
+
+    private static final Logger log = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    private static final int CHECKSUM = 0;
+    private static final int SEQ = CHECKSUM + Integer.BYTES;
+    private static final int KEY_LENGTH = SEQ + Long.BYTES;
+    private static final int VALUE_LENGTH = KEY_LENGTH + Integer.BYTES;
+    private static final int HEADER = VALUE_LENGTH + Integer.BYTES;
+    private static final int TOMBSTONE = -1;
+    private static final int BATCH = -2;
+    private static final int ENTRY_HEADER = Integer.BYTES + Integer.BYTES;
+
+    private final File file;
+    private final FileChannel channel;
+    private final Config.SyncMode mode;
+
+    /**
+     * End of the last appended record, guarded by {@code this}.
+     */
+    private volatile long written;
+
+    private final Object syncLock = new Object();
+    /**
+     * End of the durable prefix of the log, guarded by {@link #syncLock}.
+     */
+    private long synced;
+    private boolean closed;
+
+    WriteAheadLog(
+            @NotNull final File file,
+            @NotNull final Config.SyncMode mode) throws IOException {
+        this.file = file;
+        this.mode = mode;
+        this.channel = FileChannel.open(
+                file.toPath(),
+                StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Appends the write to the log.
+     *
+     * @param value the value or {@code null} for a tombstone
+     * @return position to pass to {@link #sync(long)}
+     */
+    long append(
+            final long seq,
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer value) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putLong(SEQ, seq);
+        header.putInt(KEY_LENGTH, key.remaining());
+        header.putInt(VALUE_LENGTH, value == null ? TOMBSTONE : value.remaining());
+        final CRC32C crc = new CRC32C();
+        crc.update(header.duplicate().position(SEQ));
+        crc.update(key.duplicate());
+        if (value != null) {
+            crc.update(value.duplicate());
+        }
+        header.putInt(CHECKSUM, (int) crc.getValue());
+
+        final ByteBuffer[] record = value == null
+                ? new ByteBuffer[]{header, key.duplicate()}
+                : new ByteBuffer[]{header, key.duplicate(), value.duplicate()};
+        long remaining = HEADER + key.remaining() + (value == null ? 0 : value.remaining());
+        synchronized (this) {
+            final long end = written + remaining;
+            while (remaining > 0) {
+                remaining -= channel.write(record);
+            }
+            written = end;
+            return end;
+        }
+    }
+
+    /**
+     * Appends the writes of the batch to the log as a single record.
+     *
+     * @param firstSeq sequence number of the first write of the batch
+     * @return position to pass to {@link #sync(long)}
+     */
+    long append(
+            final long firstSeq,
+            @NotNull final WriteBatch batch) throws IOException {
+        final long bodyLength = (long) batch.size() * ENTRY_HEADER + batch.sizeInBytes();
+        if (HEADER + bodyLength > Integer.MAX_VALUE) {
+            throw new IOException("Batch is too big to log: " + bodyLength + " bytes");
+        }
+        final ByteBuffer record = ByteBuffer.allocate(HEADER + (int) bodyLength);
+        record.position(SEQ);
+        record.putLong(firstSeq);
+        record.putInt(BATCH);
+        record.putInt((int) bodyLength);
+        for (int i = 0; i < batch.size(); i++) {
+            final ByteBuffer key = batch.key(i);
+            final ByteBuffer value = batch.value(i);
+            record.putInt(key.remaining());
+            record.putInt(value == null ? TOMBSTONE : value.remaining());
+            record.put(key);
+            if (value != null) {
+                record.put(value);
+            }
+        }
+        record.flip();
+        final CRC32C crc = new CRC32C();
+        crc.update(record.duplicate().position(SEQ));
+        record.putInt(CHECKSUM, (int) crc.getValue());
+
+        synchronized (this) {
+            final long end = written + record.remaining();
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+            written = end;
+            return end;
+        }
+    }
+
+    /**
+     * Blocks until the log is durable up to the given position according to the sync mode.
+     */
+    void sync(final long position) throws IOException {
+        switch (mode) {
+            case ALWAYS:
+                synchronized (syncLock) {
+                    // The first waiter forces the records of everybody queued behind it
+                    if (synced < position) {
+                        force();
+                    }
+                }
+                break;
+
+            case GROUP:
+                synchronized (syncLock) {
+                    while (synced < position) {
+                        try {
+                            syncLock.wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException("Interrupted while waiting for group commit");
+                        }
+                    }
+                }
+                break;
+
+            case NONE:
+                break; // Left to the OS
+
+            default:
+                throw new IllegalStateException("Unsupported sync mode: " + mode);
+        }
+    }
+
+    /**
+     * Makes everything appended so far durable and releases the writers waiting for it.
+     */
+    void force() throws IOException {
+        synchronized (syncLock) {
+            final long target = written;
+            if (closed || synced >= target) {
+                return;
+            }
+            channel.force(false);
+            synced = target;
+            syncLock.notifyAll();
+        }
+    }
+
+    /**
+     * Releases the writers waiting for the group commit of a log which takes no more appends, e.g. rotated
+     * with its memtable, instead of leaving them waiting until the log is deleted after the flush.
+     * The syncer only forces the current log.
+     */
+    void seal() throws IOException {
+        if (mode == Config.SyncMode.GROUP) {
+            force();
+        }
+    }
+
+    /**
+     * Closes the log, the records must be already persisted elsewhere.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (syncLock) {
+            closed = true;
+            synced = Long.MAX_VALUE;
+            syncLock.notifyAll();
+        }
+        channel.close();
+    }
+
+    /**
+     * Closes and deletes the log once its memtable is flushed.
+     */
+    void delete() throws IOException {
+        close();
+        java.nio.file.Files.delete(file.toPath());
+    }
+
+    /**
+     * Splits the complete records of the given log file into at most {@code parts} chunks of about the same size
+     * to replay them concurrently, the memtable resolves the writes to the same key by their sequence numbers.
+     * The log ends at a truncated record, e.g. left by a crash in the middle of a write, or a corrupted one.
+     */
+    @NotNull
+    static List<ByteBuffer> split(
+            @NotNull final File file,
+            final int parts) throws IOException {
+        final ByteBuffer mapped = map(file);
+        final int chunkSize = (int) ((mapped.limit() + (long) parts - 1) / parts);
+        final List<ByteBuffer> chunks = new ArrayList<>(parts);
+        int from = 0;
+        int offset = 0;
+        while (isValid(mapped, offset)) {
+            offset = next(mapped, offset);
+            if (offset - from >= chunkSize) {
+                chunks.add(Bytes.slice(mapped, from, offset - from));
+                from = offset;
+            }
+        }
+        if (offset > from) {
+            chunks.add(Bytes.slice(mapped, from, offset - from));
+        }
+        if (offset != mapped.limit()) {
+            log.warn("Ignoring truncated or corrupted tail of {} at {}", file, offset);
+        }
+        return chunks;
+    }
+
+    /**
+     * Applies the records of a chunk of the given log file to the memtable, safe to call from many threads.
+     *
+     * @param chunk complete records, see {@link #split}
+     * @return the greatest sequence number found in the chunk
+     */
+    static long replay(
+            @NotNull final File file,
+            @NotNull final ByteBuffer chunk,
+            @NotNull final MemTable memTable) throws IOException {
+        long maxSeq = 0L;
+        for (int offset = 0; offset < chunk.limit(); offset = next(chunk, offset)) {
+            long seq = chunk.getLong(offset + SEQ);
+            final int keyLength = chunk.getInt(offset + KEY_LENGTH);
+            final int valueLength = chunk.getInt(offset + VALUE_LENGTH);
+            if (keyLength == BATCH) {
+                final int end = offset + HEADER + valueLength;
+                for (int entry = offset + HEADER; entry < end; entry = nextEntry(chunk, entry)) {
+                    apply(file, memTable, chunk, entry, entry + ENTRY_HEADER, seq++);
+                }
+                seq--;
+            } else {
+                apply(file, memTable, chunk, offset + KEY_LENGTH, offset + HEADER, seq);
+            }
+            maxSeq = Math.max(maxSeq, seq);
+        }
+        return maxSeq;
+    }
+
+    /**
+     * Returns the memtable capacity enough to replay the given log file.
+     */
+    static int capacity(@NotNull final File file) throws IOException {
+        final ByteBuffer mapped = map(file);
+        long result = 0L;
+        int offset = 0;
+        while (isValid(mapped, offset)) {
+            final int keyLength = mapped.getInt(offset + KEY_LENGTH);
+            final int valueLength = mapped.getInt(offset + VALUE_LENGTH);
+            if (keyLength == BATCH) {
+                final int end = offset + HEADER + valueLength;
+                for (int entry = offset + HEADER; entry < end; entry = nextEntry(mapped, entry)) {
+                    result += MemTable.sizeOf(mapped.getInt(entry), mapped.getInt(entry + Integer.BYTES));
+                }
+            } else {
+                result += MemTable.sizeOf(keyLength, valueLength);
+            }
+            offset = next(mapped, offset);
+        }
+        if (result > Integer.MAX_VALUE) {
+            throw new IOException("Log is too big to replay: " + file);
+        }
+        return (int) result;
+    }
+
+    @NotNull
+    private static ByteBuffer map(@NotNull final File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Applies the write whose key and value lengths are at the given offset and data at the other one.
+     */
+    private static void apply(
+            @NotNull final File file,
+            @NotNull final MemTable memTable,
+            @NotNull final ByteBuffer mapped,
+            final int lengths,
+            final int data,
+            final long seq) throws IOException {
+        final int keyLength = mapped.getInt(lengths);
+        final int valueLength = mapped.getInt(lengths + Integer.BYTES);
+        final ByteBuffer key = Bytes.slice(mapped, data, keyLength);
+        final boolean applied = valueLength == TOMBSTONE
+                ? memTable.remove(key, seq)
+                : memTable.upsert(key, Bytes.slice(mapped, data + keyLength, valueLength), seq);
+        if (!applied) {
+            throw new IOException("Memtable is too small to replay " + file);
+        }
+    }
+
+    /**
+     * Checks that the record at the offset is complete and matches its checksum.
+     */
+    private static boolean isValid(
+            @NotNull final ByteBuffer mapped,
+            final int offset) {
+        if (!isComplete(mapped, offset)) {
+            return false;
+        }
+        final CRC32C crc = new CRC32C();
+        crc.update(mapped.duplicate().position(offset + SEQ).limit(next(mapped, offset)));
+        return (int) crc.getValue() == mapped.getInt(offset + CHECKSUM);
+    }
+
+    private static boolean isComplete(
+            @NotNull final ByteBuffer mapped,
+            final int offset) {
+        if (mapped.limit() - offset < HEADER) {
+            return false;
+        }
+        final int keyLength = mapped.getInt(offset + KEY_LENGTH);
+        final int valueLength = mapped.getInt(offset + VALUE_LENGTH);
+        if (keyLength == BATCH) {
+            return valueLength >= 0
+                    && mapped.limit() - offset - HEADER >= valueLength
+                    && isCompleteBatch(mapped, offset + HEADER, offset + HEADER + valueLength);
+        }
+        return keyLength >= 0
+                && valueLength >= TOMBSTONE
+                && (long) mapped.limit() - offset - HEADER >= (long) keyLength + Math.max(valueLength, 0);
+    }
+
+    /**
+     * Checks that the entries of a batch exactly fill its body.
+     */
+    private static boolean isCompleteBatch(
+            @NotNull final ByteBuffer mapped,
+            final int from,
+            final int end) {
+        int entry = from;
+        while (end - entry >= ENTRY_HEADER) {
+            final int keyLength = mapped.getInt(entry);
+            final int valueLength = mapped.getInt(entry + Integer.BYTES);
+            if (keyLength < 0 || valueLength < TOMBSTONE
+                    || end - entry - ENTRY_HEADER < (long) keyLength + Math.max(valueLength, 0)) {
+                return false;
+            }
+            entry = nextEntry(mapped, entry);
+        }
+        return entry == end;
+    }
+
+    private static int next(
+            @NotNull final ByteBuffer mapped,
+            final int offset) {
+        final int keyLength = mapped.getInt(offset + KEY_LENGTH);
+        final int valueLength = mapped.getInt(offset + VALUE_LENGTH);
+        if (keyLength == BATCH) {
+            return offset + HEADER + valueLength;
+        }
+        return offset + HEADER + keyLength + Math.max(valueLength, 0);
+    }
+
+    private static int nextEntry(
+            @NotNull final ByteBuffer mapped,
+            final int entry) {
+        final int keyLength = mapped.getInt(entry);
+        final int valueLength = mapped.getInt(entry + Integer.BYTES);
+        return entry + ENTRY_HEADER + keyLength + Math.max(valueLength, 0);
+    }
+}
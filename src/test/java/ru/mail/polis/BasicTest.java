@@ -200,6 +200,28 @@ class BasicTest extends TestBase {
         }
     }
 
+    @Test
+    void getIfPresent(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKey();
+        final ByteBuffer value = randomValue();
+        try (DAO dao = DAOFactory.create(data)) {
+            assertNull(dao.getIfPresent(key));
+            dao.upsert(key, value);
+        }
+
+        // Tombstone in the memtable shadows the value on disk
+        try (DAO dao = DAOFactory.create(data)) {
+            assertEquals(value, dao.getIfPresent(key));
+            dao.remove(key);
+            assertNull(dao.getIfPresent(key));
+            assertThrows(NoSuchElementException.class, () -> dao.get(key));
+        }
+
+        try (DAO dao = DAOFactory.create(data)) {
+            assertNull(dao.getIfPresent(key));
+        }
+    }
+
     @Test
     void removeAbsent(@TempDir File data) throws IOException {
         final ByteBuffer key = randomKey();
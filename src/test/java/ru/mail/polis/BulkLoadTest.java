@@ -0,0 +1,159 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.nik27090.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that a {@link BulkLoad} becomes visible on commit as the newest write of its keys.
+ */
+class BulkLoadTest extends TestBase {
+    private static final int KEYS = 10_000;
+    private static final Config CONFIG = Config.builder()
+            .flushThreshold(64 * 1024)
+            .build();
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%08d", i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ByteBuffer value(
+            final int i,
+            final int round) {
+        return ByteBuffer.wrap((i + "-" + round).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void load(
+            final DAO dao,
+            final int round) throws IOException {
+        try (BulkLoad load = dao.bulkLoad()) {
+            for (int i = 0; i < KEYS; i++) {
+                load.add(key(i), value(i, round));
+            }
+            load.commit();
+        }
+    }
+
+    private static void check(
+            final DAO dao,
+            final int round) throws IOException {
+        final Iterator<Record> records = dao.iterator(ByteBuffer.allocate(0));
+        for (int i = 0; i < KEYS; i++) {
+            final Record record = records.next();
+            assertEquals(key(i), record.getKey());
+            assertEquals(value(i, round), record.getValue());
+        }
+        assertFalse(records.hasNext());
+    }
+
+    @Test
+    void loadShadowsEarlierWrites(@TempDir File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data, CONFIG)) {
+            // Partly flushed, partly in the memtable
+            for (int i = 0; i < KEYS; i += 2) {
+                dao.upsert(key(i), value(i, 0));
+            }
+            for (int i = 1; i < KEYS; i += 4) {
+                dao.remove(key(i));
+            }
+
+            load(dao, 1);
+            check(dao, 1);
+        }
+
+        try (DAO dao = DAOFactory.create(data, CONFIG)) {
+            check(dao, 1);
+        }
+    }
+
+    @Test
+    void laterWritesShadowLoad(@TempDir File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data, CONFIG)) {
+            load(dao, 0);
+            dao.upsert(key(0), value(0, 1));
+            dao.remove(key(1));
+            assertEquals(value(0, 1), dao.get(key(0)));
+            assertThrows(NoSuchElementException.class, () -> dao.get(key(1)));
+        }
+
+        try (DAO dao = DAOFactory.create(data, CONFIG)) {
+            assertEquals(value(0, 1), dao.get(key(0)));
+            assertThrows(NoSuchElementException.class, () -> dao.get(key(1)));
+            assertEquals(value(2, 0), dao.get(key(2)));
+        }
+    }
+
+    @Test
+    void writesDuringCommitShadowLoad(@TempDir File data) throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final int last;
+        try (DAO dao = DAOFactory.create(data, CONFIG)) {
+            final AtomicBoolean committed = new AtomicBoolean();
+            // Flushes several memtables while the load is attached, the round after the commit wins
+            final Future<Integer> writer = executor.submit(() -> {
+                int round = 1;
+                for (boolean after = false; !after; round++) {
+                    after = committed.get();
+                    for (int i = 0; i < KEYS; i++) {
+                        dao.upsert(key(i), value(i, round));
+                    }
+                }
+                return round - 1;
+            });
+            load(dao, 0);
+            committed.set(true);
+            last = writer.get();
+            check(dao, last);
+        } finally {
+            executor.shutdown();
+        }
+
+        try (DAO dao = DAOFactory.create(data, CONFIG)) {
+            check(dao, last);
+            dao.compact();
+            check(dao, last);
+        }
+    }
+
+    @Test
+    void uncommittedLoadIsDiscarded(@TempDir File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data, CONFIG)) {
+            dao.upsert(key(0), value(0, 0));
+            try (BulkLoad load = dao.bulkLoad()) {
+                for (int i = 0; i < KEYS; i++) {
+                    load.add(key(i), value(i, 1));
+                }
+            }
+            assertEquals(value(0, 0), dao.get(key(0)));
+            assertThrows(NoSuchElementException.class, () -> dao.get(key(1)));
+        }
+
+        final File[] files = data.listFiles((dir, name) -> name.contains(".load"));
+        assertEquals(0, files.length);
+    }
+
+    @Test
+    void keysMustAscend(@TempDir File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data, CONFIG);
+             BulkLoad load = dao.bulkLoad()) {
+            load.add(key(1), value(1, 0));
+            assertThrows(IllegalArgumentException.class, () -> load.add(key(1), value(1, 0)));
+            assertThrows(IllegalArgumentException.class, () -> load.add(key(0), value(0, 0)));
+        }
+    }
+}
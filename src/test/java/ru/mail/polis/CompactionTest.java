@@ -16,14 +16,21 @@
 
 package ru.mail.polis;
 
+import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.nik27090.Config;
+import ru.mail.polis.nik27090.DAOImpl;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -129,4 +136,93 @@ class CompactionTest extends TestBase {
         // Heuristic
         assertTrue(size < valueSize);
     }
+
+    @Test
+    void tiered(@TempDir File data) throws IOException, InterruptedException {
+        compactInBackground(data, Config.CompactionStyle.TIERED, 16);
+    }
+
+    @Test
+    void leveled(@TempDir File data) throws IOException, InterruptedException {
+        compactInBackground(data, Config.CompactionStyle.LEVELED, 48);
+    }
+
+    @Test
+    void purgeInBackground(@TempDir File data) throws IOException, InterruptedException {
+        final int keyCount = 1000;
+        final int fillerCount = 5000;
+        final Config config = Config.builder()
+                .flushThreshold(64 * 1024)
+                .compactionBytesPerSecond(0)
+                .build();
+
+        try (DAOImpl dao = new DAOImpl(data, config)) {
+            for (int i = 0; i < keyCount; i++) {
+                dao.upsert(key(i), randomValue());
+            }
+            for (int i = 0; i < keyCount; i++) {
+                dao.remove(key(i));
+            }
+            // Push the tombstones to disk
+            final ByteBuffer empty = ByteBuffer.allocate(0);
+            for (int i = keyCount; i < keyCount + fillerCount; i++) {
+                dao.upsert(key(i), empty);
+            }
+
+            // The tombstones shadowing everything get dropped together with the data
+            final long limit = keyCount * 1024L / 4;
+            final long deadline = System.currentTimeMillis() + 10_000L;
+            while (dao.getTablesSize() > limit && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10L);
+            }
+            assertTrue(dao.getTablesSize() <= limit, "Size: " + dao.getTablesSize());
+
+            final Iterator<Record> records = dao.iterator(ByteBuffer.allocate(0));
+            for (int i = keyCount; i < keyCount + fillerCount; i++) {
+                assertEquals(key(i), records.next().getKey());
+            }
+            assertFalse(records.hasNext());
+        }
+    }
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%016d", i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void compactInBackground(
+            @NotNull final File data,
+            @NotNull final Config.CompactionStyle style,
+            final int maxTables) throws IOException, InterruptedException {
+        final int keyCount = 1000;
+        final int overwrites = 20;
+        final Config config = Config.builder()
+                .flushThreshold(64 * 1024)
+                .compactionFanIn(2)
+                .compactionBytesPerSecond(0)
+                .compactionStyle(style)
+                .build();
+
+        final Map<ByteBuffer, ByteBuffer> expected = new HashMap<>();
+        try (DAOImpl dao = new DAOImpl(data, config)) {
+            for (int round = 0; round < overwrites; round++) {
+                for (int i = 0; i < keyCount; i++) {
+                    final ByteBuffer key = key(i);
+                    final ByteBuffer value = randomValue();
+                    dao.upsert(key, value);
+                    expected.put(key, value);
+                }
+            }
+
+            // Hundreds of flushes end up in a few tables
+            final long deadline = System.currentTimeMillis() + 10_000L;
+            while (dao.getTableCount() > maxTables && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10L);
+            }
+            assertTrue(dao.getTableCount() <= maxTables, "Tables: " + dao.getTableCount());
+
+            for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.entrySet()) {
+                assertEquals(entry.getValue(), dao.get(entry.getKey()));
+            }
+        }
+    }
 }
@@ -0,0 +1,97 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.nik27090.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Concurrent writers against a small memtable to exercise lock-free inserts and flushes.
+ */
+class ConcurrentTest extends TestBase {
+    private static final int THREADS = 8;
+    private static final int KEYS_PER_THREAD = 10_000;
+
+    @Test
+    void concurrentUpserts(@TempDir File data) throws Exception {
+        final Config config = Config.builder().flushThreshold(256 * 1024).build();
+        final List<List<ByteBuffer>> keys = new ArrayList<>(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            final List<ByteBuffer> threadKeys = new ArrayList<>(KEYS_PER_THREAD);
+            for (int i = 0; i < KEYS_PER_THREAD; i++) {
+                threadKeys.add(randomKey());
+            }
+            keys.add(threadKeys);
+        }
+
+        try (DAO dao = DAOFactory.create(data, config)) {
+            final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+            try {
+                final Collection<Future<?>> futures = new ArrayList<>(THREADS);
+                for (final List<ByteBuffer> threadKeys : keys) {
+                    futures.add(executor.submit(() -> {
+                        for (final ByteBuffer key : threadKeys) {
+                            dao.upsert(key, key);
+                        }
+                        return null;
+                    }));
+                }
+                for (final Future<?> future : futures) {
+                    future.get();
+                }
+            } finally {
+                executor.shutdown();
+                assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+            }
+
+            for (final List<ByteBuffer> threadKeys : keys) {
+                for (final ByteBuffer key : threadKeys) {
+                    assertEquals(key, dao.get(key));
+                }
+            }
+        }
+    }
+
+    @Test
+    void sameKeyFromManyThreads(@TempDir File data) throws Exception {
+        final ByteBuffer key = randomKey();
+        try (DAO dao = DAOFactory.create(data)) {
+            final List<Thread> threads = new ArrayList<>(THREADS);
+            for (int t = 0; t < THREADS; t++) {
+                final ByteBuffer value = ByteBuffer.allocate(Integer.BYTES).putInt(0, t);
+                threads.add(new Thread(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        try {
+                            dao.upsert(key, value);
+                        } catch (IOException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                }));
+            }
+            threads.forEach(Thread::start);
+            for (final Thread thread : threads) {
+                thread.join();
+            }
+
+            // Exactly one version survives
+            final java.util.Iterator<Record> iterator = dao.iterator(ByteBuffer.allocate(0));
+            assertEquals(key, iterator.next().getKey());
+            assertFalse(iterator.hasNext());
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.nik27090.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks {@link Cursor}s of the storage against its iterators.
+ */
+class CursorTest extends TestBase {
+    private static final Config CONFIG = Config.builder()
+            .flushThreshold(64 * 1024)
+            .build();
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%08d", i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static NavigableMap<ByteBuffer, ByteBuffer> fill(
+            final DAO dao,
+            final int keys) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        final Random random = new Random(42);
+        for (int i = 0; i < keys * 4; i++) {
+            final ByteBuffer key = key(random.nextInt(keys));
+            if (random.nextInt(4) == 0) {
+                dao.remove(key);
+                expected.remove(key);
+            } else {
+                final ByteBuffer value = randomBuffer(1 + random.nextInt(200));
+                dao.upsert(key, value);
+                expected.put(key, value);
+            }
+        }
+        return expected;
+    }
+
+    @Test
+    void scanMatchesIterator(@TempDir File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data, CONFIG)) {
+            final NavigableMap<ByteBuffer, ByteBuffer> expected = fill(dao, 5000);
+
+            final Cursor cursor = dao.cursor();
+            final Iterator<Record> records = dao.iterator(ByteBuffer.allocate(0));
+            final Iterator<Map.Entry<ByteBuffer, ByteBuffer>> entries = expected.entrySet().iterator();
+            for (boolean valid = cursor.seek(ByteBuffer.allocate(0)); valid; valid = cursor.next()) {
+                final Map.Entry<ByteBuffer, ByteBuffer> entry = entries.next();
+                final Record record = records.next();
+                assertEquals(entry.getKey(), cursor.key());
+                assertEquals(entry.getValue(), cursor.value());
+                assertEquals(entry.getKey(), record.getKey());
+                assertEquals(entry.getValue(), record.getValue());
+            }
+            assertFalse(entries.hasNext());
+            assertFalse(records.hasNext());
+            assertFalse(cursor.isValid());
+            assertThrows(NoSuchElementException.class, cursor::key);
+        }
+    }
+
+    @Test
+    void seekAnywhere(@TempDir File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data, CONFIG)) {
+            final NavigableMap<ByteBuffer, ByteBuffer> expected = fill(dao, 5000);
+
+            final Cursor cursor = dao.cursor();
+            final Random random = new Random(7);
+            for (int i = 0; i < 1000; i++) {
+                final ByteBuffer from = key(random.nextInt(5100));
+                final Map.Entry<ByteBuffer, ByteBuffer> entry = expected.ceilingEntry(from);
+                assertEquals(entry != null, cursor.seek(from));
+                if (entry != null) {
+                    assertEquals(entry.getKey(), cursor.key());
+                    assertEquals(entry.getValue(), cursor.value());
+                }
+            }
+        }
+    }
+
+    @Test
+    void seekSeesLaterWrites(@TempDir File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data, CONFIG)) {
+            final Cursor cursor = dao.cursor();
+            assertFalse(cursor.seek(ByteBuffer.allocate(0)));
+
+            // Enough to flush several times
+            final ByteBuffer value = randomValue();
+            for (int i = 0; i < 1000; i++) {
+                dao.upsert(key(i), value);
+            }
+            dao.remove(key(0));
+
+            assertTrue(cursor.seek(ByteBuffer.allocate(0)));
+            int count = 0;
+            do {
+                assertEquals(key(count + 1), cursor.key());
+                assertEquals(value, cursor.value());
+                count++;
+            } while (cursor.next());
+            assertEquals(999, count);
+        }
+    }
+}
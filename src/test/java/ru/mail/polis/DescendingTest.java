@@ -0,0 +1,125 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.nik27090.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Checks the descending iterators of the storage against a model.
+ */
+class DescendingTest extends TestBase {
+    private static final int KEYS = 5000;
+    private static final Config CONFIG = Config.builder()
+            .flushThreshold(64 * 1024)
+            .build();
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%08d", i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static NavigableMap<ByteBuffer, ByteBuffer> fill(final DAO dao) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        final Random random = new Random(42);
+        for (int i = 0; i < KEYS * 4; i++) {
+            final ByteBuffer key = key(random.nextInt(KEYS));
+            if (random.nextInt(4) == 0) {
+                dao.remove(key);
+                expected.remove(key);
+            } else {
+                final ByteBuffer value = randomBuffer(1 + random.nextInt(200));
+                dao.upsert(key, value);
+                expected.put(key, value);
+            }
+        }
+        return expected;
+    }
+
+    private static void check(
+            final Map<ByteBuffer, ByteBuffer> expected,
+            final Iterator<Record> records) {
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.entrySet()) {
+            final Record record = records.next();
+            assertEquals(entry.getKey(), record.getKey());
+            assertEquals(entry.getValue(), record.getValue());
+        }
+        assertFalse(records.hasNext());
+    }
+
+    private static void checkAll(
+            final DAO dao,
+            final NavigableMap<ByteBuffer, ByteBuffer> expected) throws IOException {
+        check(expected.descendingMap(), dao.descendingIterator(null));
+
+        final Random random = new Random(7);
+        for (int i = 0; i < 100; i++) {
+            final ByteBuffer from = key(random.nextInt(KEYS + 100));
+            final ByteBuffer to = key(random.nextInt(KEYS + 100));
+            check(expected.headMap(from, true).descendingMap(), dao.descendingIterator(from));
+            check(
+                    from.compareTo(to) < 0 ? new TreeMap<>() : expected.subMap(to, false, from, true).descendingMap(),
+                    dao.descendingRange(from, to));
+        }
+    }
+
+    @Test
+    void matchesModel(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> expected;
+        try (DAO dao = DAOFactory.create(data, CONFIG)) {
+            expected = fill(dao);
+            checkAll(dao, expected);
+        }
+
+        try (DAO dao = DAOFactory.create(data, CONFIG)) {
+            checkAll(dao, expected);
+            dao.compact();
+            checkAll(dao, expected);
+        }
+    }
+
+    @Test
+    void latestOfTimeOrderedKeys(@TempDir File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data, CONFIG)) {
+            assertFalse(dao.descendingIterator(null).hasNext());
+
+            final ByteBuffer value = randomValue();
+            for (int i = 0; i < 1000; i++) {
+                dao.upsert(key(i), value);
+            }
+            dao.remove(key(999));
+
+            final Iterator<Record> latest = dao.descendingIterator(null);
+            for (int i = 998; i > 988; i--) {
+                assertEquals(key(i), latest.next().getKey());
+            }
+            assertFalse(dao.descendingRange(key(10), key(10)).hasNext());
+            assertFalse(dao.descendingRange(key(10), key(11)).hasNext());
+        }
+    }
+
+    @Test
+    void snapshotWalksBackward(@TempDir File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data, CONFIG)) {
+            final NavigableMap<ByteBuffer, ByteBuffer> expected = fill(dao);
+            try (Snapshot snapshot = dao.snapshot()) {
+                fill(dao);
+                check(expected.descendingMap(), snapshot.descendingIterator(null));
+                check(
+                        expected.headMap(key(KEYS / 2), true).descendingMap(),
+                        snapshot.descendingRange(key(KEYS / 2), null));
+            }
+        }
+    }
+}
@@ -4,8 +4,13 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
 import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
 /**
  * Unit tests for {@link Iters} facilities.
@@ -13,6 +18,14 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
  * @author Dmitry Schitinin
  */
 class ItersTest {
+    private static ByteBuffer from(final int... bytes) {
+        final byte[] buffer = new byte[bytes.length];
+        for (int i = 0; i < buffer.length; i++) {
+            buffer[i] = (byte) bytes[i];
+        }
+        return ByteBuffer.wrap(buffer);
+    }
+
     @Test
     void until() {
         assertFalse(Iters.until(Iters.empty(), 0).hasNext());
@@ -27,6 +40,31 @@ class ItersTest {
         assertEquals(6, Iterators.size(Iters.until(sixNumbers.iterator(), 100)));
     }
 
+    @Test
+    void reversed() {
+        assertFalse(Iters.reversed(Iters.<Integer>empty(), null).hasNext());
+
+        final ImmutableList<Integer> sixNumbers = ImmutableList.of(1, 2, 3, 4, 5, 6);
+
+        assertFalse(Iters.reversed(sixNumbers.iterator(), 0).hasNext());
+        assertEquals(ImmutableList.of(3, 2, 1), ImmutableList.copyOf(Iters.reversed(sixNumbers.iterator(), 3)));
+        assertEquals(
+                ImmutableList.of(6, 5, 4, 3, 2, 1),
+                ImmutableList.copyOf(Iters.reversed(sixNumbers.iterator(), null)));
+    }
+
+    @Test
+    void prefixBound() {
+        assertEquals(from(1), Iters.prefixBound(from(0)));
+        assertEquals(from(-126), Iters.prefixBound(from(-127)));
+        assertEquals(from(0, 1), Iters.prefixBound(from(0, 0)));
+        assertEquals(from(127, 127), Iters.prefixBound(from(127, 126)));
+        assertEquals(from(127), Iters.prefixBound(from(126, 127)));
+        assertEquals(from(1), Iters.prefixBound(from(0, 127, 127)));
+        assertNull(Iters.prefixBound(from(127, 127)));
+        assertNull(Iters.prefixBound(from()));
+    }
+
     @Test
     void collapseEquals() {
         assertFalse(Iters.collapseEquals(Iters.empty()).hasNext());
@@ -39,4 +77,37 @@ class ItersTest {
                 ImmutableList.of(1, 2, 3, 5, 6),
                 ImmutableList.copyOf(collapsed));
     }
+
+    @Test
+    void mergeNewest() {
+        assertFalse(Iters.mergeNewest(ImmutableList.of(), Integer::compare, x -> true).hasNext());
+
+        // Elements are {key, generation}
+        final ImmutableList<int[]> oldest = ImmutableList.of(new int[]{1, 0}, new int[]{3, 0}, new int[]{5, 0});
+        final ImmutableList<int[]> middle = ImmutableList.of(new int[]{2, 1}, new int[]{3, 1}, new int[]{6, 1});
+        final ImmutableList<int[]> newest = ImmutableList.of(new int[]{3, 2}, new int[]{5, 2});
+        final Iterator<int[]> merged = Iters.mergeNewest(
+                ImmutableList.of(oldest.iterator(), middle.iterator(), newest.iterator()),
+                (left, right) -> Integer.compare(left[0], right[0]),
+                x -> true);
+
+        final ImmutableList<int[]> expected = ImmutableList.of(
+                new int[]{1, 0}, new int[]{2, 1}, new int[]{3, 2}, new int[]{5, 2}, new int[]{6, 1});
+        for (final int[] element : expected) {
+            assertArrayEquals(element, merged.next());
+        }
+        assertFalse(merged.hasNext());
+    }
+
+    @Test
+    void mergeNewestSkipsDead() {
+        // Negative numbers are tombstones of their absolute values
+        final ImmutableList<Integer> oldest = ImmutableList.of(1, 2, 3, 4);
+        final ImmutableList<Integer> newest = ImmutableList.of(-2, -3, 5);
+        final Iterator<Integer> merged = Iters.mergeNewest(
+                ImmutableList.of(oldest.iterator(), newest.iterator()),
+                (left, right) -> Integer.compare(Math.abs(left), Math.abs(right)),
+                x -> x > 0);
+        assertEquals(ImmutableList.of(1, 4, 5), ImmutableList.copyOf(merged));
+    }
 }
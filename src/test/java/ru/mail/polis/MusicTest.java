@@ -119,12 +119,17 @@ class MusicTest extends TestBase {
         try (DAO dao = DAOFactory.create(data)) {
             // Artists
             assertEquals(5, Iterators.size(dao.range(artistFrom("Ar1"), next(artistFrom("Ar1")))));
+            assertEquals(5, Iterators.size(dao.prefixScan(artistFrom("Ar1"))));
             assertEquals(2, Iterators.size(dao.range(artistFrom("Ar2"), next(artistFrom("Ar2")))));
+            assertEquals(2, Iterators.size(dao.prefixScan(artistFrom("Ar2"))));
 
             // Albums
             assertEquals(2, Iterators.size(dao.range(albumFrom("Ar1", "Al11"), next(albumFrom("Ar1", "Al11")))));
+            assertEquals(2, Iterators.size(dao.prefixScan(albumFrom("Ar1", "Al11"))));
             assertEquals(3, Iterators.size(dao.range(albumFrom("Ar1", "Al12"), next(albumFrom("Ar1", "Al12")))));
+            assertEquals(3, Iterators.size(dao.prefixScan(albumFrom("Ar1", "Al12"))));
             assertEquals(2, Iterators.size(dao.range(albumFrom("Ar2", "Al21"), next(albumFrom("Ar2", "Al21")))));
+            assertEquals(2, Iterators.size(dao.prefixScan(albumFrom("Ar2", "Al21"))));
         }
     }
 }
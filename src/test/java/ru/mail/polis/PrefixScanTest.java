@@ -0,0 +1,114 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.nik27090.Config;
+import ru.mail.polis.nik27090.PrefixExtractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Checks {@link DAO#prefixScan(ByteBuffer)} of per-tenant keys against a model.
+ */
+class PrefixScanTest extends TestBase {
+    private static final int TENANTS = 50;
+    private static final Config CONFIG = Config.builder()
+            .flushThreshold(64 * 1024)
+            .prefixExtractor(PrefixExtractor.fixedLength(4))
+            .build();
+
+    private static ByteBuffer from(final String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ByteBuffer tenant(final int tenant) {
+        return from(String.format("%04d", tenant));
+    }
+
+    private static void check(
+            final DAO dao,
+            final NavigableMap<ByteBuffer, ByteBuffer> expected,
+            final ByteBuffer prefix) throws IOException {
+        final Iterator<Record> records = dao.prefixScan(prefix);
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.entrySet()) {
+            if (entry.getKey().remaining() >= prefix.remaining()
+                    && entry.getKey().duplicate().limit(prefix.remaining()).equals(prefix)) {
+                final Record record = records.next();
+                assertEquals(entry.getKey(), record.getKey());
+                assertEquals(entry.getValue(), record.getValue());
+            }
+        }
+        assertFalse(records.hasNext());
+    }
+
+    private static void checkAll(
+            final DAO dao,
+            final NavigableMap<ByteBuffer, ByteBuffer> expected) throws IOException {
+        for (int tenant = 0; tenant <= TENANTS; tenant++) {
+            check(dao, expected, tenant(tenant));
+            check(dao, expected, from(String.format("%04d00", tenant)));
+        }
+        // Shorter than the extracted prefixes
+        check(dao, expected, from("00"));
+        check(dao, expected, ByteBuffer.allocate(0));
+    }
+
+    @Test
+    void tenantsAcrossTables(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        final Random random = new Random(42);
+        try (DAO dao = DAOFactory.create(data, CONFIG)) {
+            // A tenant at a time, so that most tables hold a few tenants only
+            for (int tenant = 0; tenant < TENANTS; tenant += 2) {
+                for (int i = 0; i < 500; i++) {
+                    final ByteBuffer key = from(String.format("%04d%04d", tenant, random.nextInt(300)));
+                    if (random.nextInt(4) == 0) {
+                        dao.remove(key);
+                        expected.remove(key);
+                    } else {
+                        final ByteBuffer value = randomBuffer(1 + random.nextInt(200));
+                        dao.upsert(key, value);
+                        expected.put(key, value);
+                    }
+                }
+            }
+            checkAll(dao, expected);
+        }
+
+        try (DAO dao = DAOFactory.create(data, CONFIG)) {
+            checkAll(dao, expected);
+            dao.compact();
+            checkAll(dao, expected);
+        }
+    }
+
+    @Test
+    void snapshotScansAsOfItself(@TempDir File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data, CONFIG)) {
+            dao.upsert(from("00010001"), from("a"));
+            dao.upsert(from("00020001"), from("b"));
+            try (Snapshot snapshot = dao.snapshot()) {
+                dao.upsert(from("00010002"), from("c"));
+                dao.remove(from("00010001"));
+
+                final Iterator<Record> records = snapshot.prefixScan(tenant(1));
+                assertEquals(from("00010001"), records.next().getKey());
+                assertFalse(records.hasNext());
+            }
+            final Iterator<Record> records = dao.prefixScan(tenant(1));
+            assertEquals(from("00010002"), records.next().getKey());
+            assertFalse(records.hasNext());
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.nik27090.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that {@link Snapshot}s and iterators see the storage as of the moment they were taken.
+ */
+class SnapshotTest extends TestBase {
+    private static final int KEYS = 1000;
+    private static final Config CONFIG = Config.builder()
+            .flushThreshold(16 * 1024)
+            .build();
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%08d", i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ByteBuffer value(
+            final int i,
+            final int round) {
+        return ByteBuffer.wrap((i + "-" + round).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void fill(
+            final DAO dao,
+            final int round) throws IOException {
+        for (int i = 0; i < KEYS; i++) {
+            dao.upsert(key(i), value(i, round));
+        }
+    }
+
+    /**
+     * Expects the even keys at the given round.
+     */
+    private static void check(
+            final Iterator<Record> records,
+            final int round) {
+        for (int i = 0; i < KEYS; i += 2) {
+            final Record record = records.next();
+            assertEquals(key(i), record.getKey());
+            assertEquals(value(i, round), record.getValue());
+        }
+        assertFalse(records.hasNext());
+    }
+
+    @Test
+    void snapshotIgnoresLaterWrites(@TempDir File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data, CONFIG)) {
+            fill(dao, 0);
+            for (int i = 1; i < KEYS; i += 2) {
+                dao.remove(key(i));
+            }
+
+            try (Snapshot snapshot = dao.snapshot()) {
+                // Overwrite, remove and add keys flushing and compacting on the way
+                fill(dao, 1);
+                for (int i = 0; i < KEYS; i += 2) {
+                    dao.remove(key(i));
+                }
+                dao.upsert(key(KEYS), value(KEYS, 1));
+                dao.compact();
+
+                check(snapshot.iterator(ByteBuffer.allocate(0)), 0);
+                for (int i = 0; i < KEYS; i++) {
+                    final ByteBuffer key = key(i);
+                    if (i % 2 == 0) {
+                        assertEquals(value(i, 0), snapshot.get(key));
+                    } else {
+                        assertThrows(NoSuchElementException.class, () -> snapshot.get(key));
+                    }
+                }
+                assertNull(snapshot.getIfPresent(key(KEYS)));
+
+                final Cursor cursor = snapshot.cursor();
+                assertTrue(cursor.seek(key(KEYS - 2)));
+                assertEquals(value(KEYS - 2, 0), cursor.value());
+                assertFalse(cursor.next());
+            }
+
+            assertEquals(value(1, 1), dao.get(key(1)));
+            assertThrows(NoSuchElementException.class, () -> dao.get(key(0)));
+        }
+    }
+
+    @Test
+    void iteratorIgnoresLaterWrites(@TempDir File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data, CONFIG)) {
+            fill(dao, 0);
+            for (int i = 1; i < KEYS; i += 2) {
+                dao.remove(key(i));
+            }
+
+            final Iterator<Record> records = dao.iterator(ByteBuffer.allocate(0));
+            // The last keys are still in the memtable the iterator reads
+            for (int i = KEYS - 1; i >= 0; i--) {
+                dao.upsert(key(i), value(i, 1));
+            }
+            dao.compact();
+            check(records, 0);
+        }
+    }
+
+    @Test
+    void snapshotSeesWholeBatches(@TempDir File data) throws Exception {
+        final int keys = 100;
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (DAO dao = DAOFactory.create(data, CONFIG)) {
+            final Future<?> writer = executor.submit(() -> {
+                final WriteBatch batch = new WriteBatch();
+                for (int round = 0; round < 300; round++) {
+                    batch.clear();
+                    for (int i = 0; i < keys; i++) {
+                        batch.upsert(key(i), value(0, round));
+                    }
+                    dao.write(batch);
+                }
+                return null;
+            });
+
+            while (!writer.isDone()) {
+                try (Snapshot snapshot = dao.snapshot()) {
+                    final Iterator<Record> records = snapshot.iterator(ByteBuffer.allocate(0));
+                    if (!records.hasNext()) {
+                        continue;
+                    }
+                    final ByteBuffer expected = records.next().getValue();
+                    int count = 1;
+                    while (records.hasNext()) {
+                        assertEquals(expected, records.next().getValue());
+                        count++;
+                    }
+                    assertEquals(keys, count);
+                }
+            }
+            writer.get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void closedSnapshotThrows(@TempDir File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.upsert(key(0), value(0, 0));
+            final Snapshot snapshot = dao.snapshot();
+            final Iterator<Record> records = snapshot.iterator(ByteBuffer.allocate(0));
+            snapshot.close();
+
+            assertThrows(IllegalStateException.class, () -> snapshot.get(key(0)));
+            assertThrows(IllegalStateException.class, snapshot::cursor);
+            assertEquals(value(0, 0), records.next().getValue());
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.nik27090.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that writes survive a DAO which was never closed.
+ */
+class WriteAheadLogTest extends TestBase {
+    private static void crashAfter(
+            final File data,
+            final Config config,
+            final List<ByteBuffer> keys) throws IOException {
+        // Not closed on purpose: emulates a crash of the process
+        final DAO dao = DAOFactory.create(data, config);
+        for (final ByteBuffer key : keys) {
+            dao.upsert(key, key);
+        }
+        dao.remove(keys.get(0));
+    }
+
+    private static List<ByteBuffer> keys() {
+        final List<ByteBuffer> keys = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            keys.add(randomKey());
+        }
+        return keys;
+    }
+
+    private static void check(
+            final File data,
+            final List<ByteBuffer> keys) throws IOException {
+        try (DAO dao = DAOFactory.create(data)) {
+            assertThrows(java.util.NoSuchElementException.class, () -> dao.get(keys.get(0)));
+            for (final ByteBuffer key : keys.subList(1, keys.size())) {
+                assertEquals(key, dao.get(key));
+            }
+        }
+    }
+
+    @Test
+    void replayBuffered(@TempDir File data) throws IOException {
+        final List<ByteBuffer> keys = keys();
+        crashAfter(data, Config.DEFAULT, keys);
+        check(data, keys);
+    }
+
+    @Test
+    void replaySynced(@TempDir File data) throws IOException {
+        final List<ByteBuffer> keys = keys();
+        crashAfter(data, Config.builder().syncMode(Config.SyncMode.ALWAYS).build(), keys);
+        check(data, keys);
+    }
+
+    @Test
+    void replayGroupCommitted(@TempDir File data) throws IOException {
+        final List<ByteBuffer> keys = keys();
+        final Config config = Config.builder()
+                .syncMode(Config.SyncMode.GROUP)
+                .groupCommitInterval(100, TimeUnit.MICROSECONDS)
+                .build();
+        crashAfter(data, config, keys);
+        check(data, keys);
+    }
+
+    @Test
+    void replayAcrossFlushes(@TempDir File data) throws IOException {
+        final List<ByteBuffer> keys = keys();
+        // Unlike a crashed process the DAO left open would go on compacting the tables of the next one
+        final Config config = Config.builder()
+                .flushThreshold(1024)
+                .compactionFanIn(0)
+                .build();
+        crashAfter(data, config, keys);
+        check(data, keys);
+    }
+
+    @Test
+    void replayChunksConcurrently(@TempDir File data) throws IOException {
+        final List<ByteBuffer> keys = keys();
+        final Config config = Config.builder()
+                .recoveryThreads(4)
+                .build();
+        // Not closed on purpose: the chunks of the log overwrite the keys of each other
+        final DAO crashed = DAOFactory.create(data, config);
+        for (int round = 0; round < 10; round++) {
+            for (final ByteBuffer key : keys) {
+                crashed.upsert(key, ByteBuffer.allocate(Integer.BYTES).putInt(0, round));
+            }
+        }
+        crashed.remove(keys.get(0));
+
+        for (int i = 0; i < 2; i++) {
+            // The second time from the table the recovered memtable is flushed to
+            try (DAO dao = DAOFactory.create(data, config)) {
+                assertThrows(java.util.NoSuchElementException.class, () -> dao.get(keys.get(0)));
+                for (final ByteBuffer key : keys.subList(1, keys.size())) {
+                    assertEquals(ByteBuffer.allocate(Integer.BYTES).putInt(0, 9), dao.get(key));
+                }
+            }
+        }
+    }
+
+    @Test
+    void ignoreTornTail(@TempDir File data) throws IOException {
+        final List<ByteBuffer> keys = keys();
+        crashAfter(data, Config.DEFAULT, keys);
+
+        // Append half of a record
+        final File[] logs = data.listFiles((dir, name) -> name.endsWith(".log"));
+        assertEquals(1, logs.length);
+        try (FileChannel channel = FileChannel.open(logs[0].toPath(), StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.allocate(10).putLong(0, Long.MAX_VALUE));
+        }
+        check(data, keys);
+    }
+
+    @Test
+    void ignoreCorruptedTail(@TempDir File data) throws IOException {
+        final List<ByteBuffer> keys = keys();
+        crashAfter(data, Config.DEFAULT, keys);
+
+        // Flip the last byte of the removal of the first key
+        final File[] logs = data.listFiles((dir, name) -> name.endsWith(".log"));
+        assertEquals(1, logs.length);
+        try (FileChannel channel = FileChannel.open(logs[0].toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final long position = channel.size() - 1;
+            final ByteBuffer buffer = ByteBuffer.allocate(1);
+            channel.read(buffer, position);
+            buffer.put(0, (byte) ~buffer.get(0));
+            channel.write(buffer.flip(), position);
+        }
+        try (DAO dao = DAOFactory.create(data)) {
+            for (final ByteBuffer key : keys) {
+                assertEquals(key, dao.get(key));
+            }
+        }
+    }
+}
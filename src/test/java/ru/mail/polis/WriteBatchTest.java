@@ -0,0 +1,170 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.nik27090.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that {@link WriteBatch}es apply in order and survive a crash as a whole or not at all.
+ */
+class WriteBatchTest extends TestBase {
+    private static final int KEYS = 1000;
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%08d", i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ByteBuffer round(final int round) {
+        return ByteBuffer.allocate(Integer.BYTES).putInt(0, round);
+    }
+
+    private static WriteBatch batch(final int from) {
+        final WriteBatch batch = new WriteBatch();
+        for (int i = from; i < from + KEYS; i++) {
+            batch.upsert(key(i), key(i));
+        }
+        return batch;
+    }
+
+    private static void checkBatch(
+            final DAO dao,
+            final int from) throws IOException {
+        for (int i = from; i < from + KEYS; i++) {
+            assertEquals(key(i), dao.get(key(i)));
+        }
+    }
+
+    @Test
+    void writesApplyInOrder(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKey();
+        final ByteBuffer value = randomValue();
+        final ByteBuffer removed = randomKey();
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.upsert(removed, value);
+            final WriteBatch batch = new WriteBatch()
+                    .upsert(key, randomValue())
+                    .remove(key)
+                    .upsert(key, value)
+                    .remove(removed);
+            dao.write(batch);
+            assertEquals(value, dao.get(key));
+            assertThrows(NoSuchElementException.class, () -> dao.get(removed));
+        }
+
+        try (DAO dao = DAOFactory.create(data)) {
+            assertEquals(value, dao.get(key));
+            assertThrows(NoSuchElementException.class, () -> dao.get(removed));
+        }
+    }
+
+    @Test
+    void batchCopiesBuffers(@TempDir File data) throws IOException {
+        final ByteBuffer key = ByteBuffer.allocate(4).putInt(0, 1);
+        final WriteBatch batch = new WriteBatch()
+                .upsert(key, key);
+        key.putInt(0, 2);
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.write(batch);
+            final Iterator<Record> records = dao.iterator(ByteBuffer.allocate(0));
+            assertEquals(ByteBuffer.allocate(4).putInt(0, 1), records.next().getKey());
+            assertFalse(records.hasNext());
+        }
+    }
+
+    @Test
+    void batchSurvivesCrash(@TempDir File data) throws IOException {
+        // Not closed on purpose: emulates a crash of the process
+        final DAO crashed = DAOFactory.create(data);
+        crashed.write(batch(0));
+        crashed.write(batch(KEYS));
+
+        try (DAO dao = DAOFactory.create(data)) {
+            checkBatch(dao, 0);
+            checkBatch(dao, KEYS);
+        }
+    }
+
+    @Test
+    void tornBatchIsDiscarded(@TempDir File data) throws IOException {
+        final DAO crashed = DAOFactory.create(data);
+        crashed.write(batch(0));
+        crashed.write(batch(KEYS));
+
+        // Cut the last byte of the second batch
+        final File[] logs = data.listFiles((dir, name) -> name.endsWith(".log"));
+        assertEquals(1, logs.length);
+        try (FileChannel channel = FileChannel.open(logs[0].toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+
+        try (DAO dao = DAOFactory.create(data)) {
+            checkBatch(dao, 0);
+            for (int i = KEYS; i < 2 * KEYS; i++) {
+                final ByteBuffer key = key(i);
+                assertThrows(NoSuchElementException.class, () -> dao.get(key));
+            }
+        }
+    }
+
+    @Test
+    void batchBiggerThanMemTable(@TempDir File data) throws IOException {
+        final Config config = Config.builder()
+                .flushThreshold(1024)
+                .build();
+        try (DAO dao = DAOFactory.create(data, config)) {
+            dao.upsert(key(KEYS), randomValue());
+            dao.write(batch(0));
+            checkBatch(dao, 0);
+        }
+
+        try (DAO dao = DAOFactory.create(data, config)) {
+            checkBatch(dao, 0);
+        }
+    }
+
+    @Test
+    void readsSeeWholeBatches(@TempDir File data) throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.write(new WriteBatch().upsert(key(0), round(0)).upsert(key(1), round(0)));
+            // The second key is applied first
+            final Future<?> writer = executor.submit(() -> {
+                for (int round = 1; round <= 20_000; round++) {
+                    dao.write(new WriteBatch().upsert(key(1), round(round)).upsert(key(0), round(round)));
+                }
+                return null;
+            });
+
+            final Cursor cursor = dao.cursor();
+            while (!writer.isDone()) {
+                final int second = dao.get(key(1)).getInt(0);
+                assertTrue(dao.get(key(0)).getInt(0) >= second);
+
+                assertTrue(cursor.seek(key(0)));
+                final int first = cursor.value().getInt(0);
+                assertTrue(cursor.next());
+                assertEquals(first, cursor.value().getInt(0));
+            }
+            writer.get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
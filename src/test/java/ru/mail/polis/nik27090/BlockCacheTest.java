@@ -0,0 +1,70 @@
+package ru.mail.polis.nik27090;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BlockCacheTest {
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%08d", i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void evictsUnreferenced() {
+        final BlockCache cache = new BlockCache(300);
+        final int table = cache.register();
+        for (int block = 0; block < 3; block++) {
+            cache.put(table, block, ByteBuffer.allocate(100));
+        }
+        assertNotNull(cache.get(table, 0));
+
+        // The hand clears the reference bit of block 0 and takes block 1
+        cache.put(table, 3, ByteBuffer.allocate(100));
+        assertNotNull(cache.get(table, 0));
+        assertNull(cache.get(table, 1));
+        assertNotNull(cache.get(table, 2));
+        assertNotNull(cache.get(table, 3));
+        assertEquals(4L, cache.getHits());
+        assertEquals(1L, cache.getMisses());
+    }
+
+    @Test
+    void tablesReadThroughCache(@TempDir File data) throws IOException {
+        final int count = 10_000;
+        final List<Cell> cells = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            cells.add(new Cell(key(i), key(-i)));
+        }
+        final File file = new File(data, "0" + SSTable.SUFFIX);
+        SSTable.write(file, cells.iterator(), Config.builder().blockSize(128).build());
+
+        // Much smaller than the table to keep evicting
+        final BlockCache cache = new BlockCache(4 * 1024);
+        final SSTable table = SSTable.open(file, 0, cache);
+        for (int round = 0; round < 2; round++) {
+            final Iterator<Cell> iterator = table.iterator(ByteBuffer.allocate(0));
+            for (int i = 0; i < count; i++) {
+                final Cell cell = iterator.next();
+                assertEquals(key(i), cell.getKey());
+                assertEquals(key(-i), cell.getValue());
+                assertEquals(key(-i), table.get(key(i)));
+            }
+            assertFalse(iterator.hasNext());
+        }
+        assertTrue(cache.getHits() > 0);
+        assertTrue(cache.getMisses() > 0);
+    }
+}
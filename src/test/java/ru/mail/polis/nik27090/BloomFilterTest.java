@@ -0,0 +1,62 @@
+package ru.mail.polis.nik27090;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BloomFilterTest {
+    private static final int KEYS = 100_000;
+
+    private static ByteBuffer key(final long i) {
+        return ByteBuffer.wrap(String.format("%012d", i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static SSTable write(
+            final File data,
+            final Config config) throws IOException {
+        final List<Cell> cells = new ArrayList<>(KEYS);
+        for (int i = 0; i < KEYS; i++) {
+            cells.add(new Cell(key(i * 2L), key(i)));
+        }
+        final File file = new File(data, "0" + SSTable.SUFFIX);
+        SSTable.write(file, cells.iterator(), config);
+        return SSTable.open(file, 0);
+    }
+
+    @Test
+    void noFalseNegatives(@TempDir File data) throws IOException {
+        final SSTable table = write(data, Config.DEFAULT);
+        for (int i = 0; i < KEYS; i++) {
+            assertTrue(table.mightContain(key(i * 2L)));
+        }
+    }
+
+    @Test
+    void fewFalsePositives(@TempDir File data) throws IOException {
+        final SSTable table = write(data, Config.DEFAULT);
+        int positives = 0;
+        for (int i = 0; i < KEYS; i++) {
+            if (table.mightContain(key(i * 2L + 1))) {
+                positives++;
+            }
+        }
+        // About 1% is expected for 10 bits per key
+        assertTrue(positives < KEYS / 50, "False positives: " + positives);
+    }
+
+    @Test
+    void disabled(@TempDir File data) throws IOException {
+        final SSTable table = write(data, Config.builder().bloomBitsPerKey(0).build());
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(table.mightContain(key(i * 2L + 1)));
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package ru.mail.polis.nik27090;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LeveledStrategyTest {
+    private static ByteBuffer key(final long i) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(0, i);
+    }
+
+    /**
+     * Returns the tables logged in the manifest, a compaction cancelled on close may leave others behind.
+     */
+    private static List<SSTable> open(final File data) throws IOException {
+        final List<SSTable> result;
+        try (Manifest manifest = Manifest.read(data, null, null)) {
+            assertNotNull(manifest);
+            result = new ArrayList<>(manifest.getTables());
+        }
+        result.sort(SSTable.ORDER);
+        return result;
+    }
+
+    @Test
+    void levelsDoNotOverlap(@TempDir File data) throws IOException {
+        final Config config = Config.builder()
+                .flushThreshold(64 * 1024)
+                .compactionFanIn(2)
+                .compactionStyle(Config.CompactionStyle.LEVELED)
+                .compression(Config.Compression.NONE)
+                .build();
+        final Random random = new Random(42);
+        final ByteBuffer value = ByteBuffer.allocate(100);
+        try (DAOImpl dao = new DAOImpl(data, config)) {
+            for (int i = 0; i < 50_000; i++) {
+                dao.upsert(key(random.nextInt(20_000)), value);
+            }
+        }
+
+        final List<SSTable> tables = open(data);
+        assertTrue(tables.stream().anyMatch(table -> table.getLevel() > 1));
+        final List<SSTable> sorted = new ArrayList<>(tables);
+        sorted.removeIf(table -> table.getLevel() == 0);
+        sorted.sort(Comparator.comparingInt(SSTable::getLevel).thenComparing(SSTable::firstKey));
+        for (int i = 1; i < sorted.size(); i++) {
+            final SSTable previous = sorted.get(i - 1);
+            final SSTable current = sorted.get(i);
+            if (previous.getLevel() == current.getLevel()) {
+                assertTrue(previous.lastKey().compareTo(current.firstKey()) < 0);
+            }
+        }
+    }
+
+    @Test
+    void majorCompactionGoesToTheDeepestLevel(@TempDir File data) throws IOException {
+        final Config config = Config.builder()
+                .flushThreshold(64 * 1024)
+                .compactionFanIn(2)
+                .compactionStyle(Config.CompactionStyle.LEVELED)
+                .build();
+        final ByteBuffer value = ByteBuffer.allocate(100);
+        try (DAOImpl dao = new DAOImpl(data, config)) {
+            for (int i = 0; i < 20_000; i++) {
+                dao.upsert(key(i), value);
+            }
+            dao.compact();
+        }
+
+        final List<SSTable> tables = open(data);
+        final int deepest = tables.get(0).getLevel();
+        assertTrue(deepest > 0);
+        long cells = 0;
+        for (final SSTable table : tables) {
+            assertEquals(deepest, table.getLevel());
+            for (final Iterator<Cell> it = table.iterator(ByteBuffer.allocate(0)); it.hasNext(); it.next()) {
+                cells++;
+            }
+        }
+        assertEquals(20_000L, cells);
+    }
+
+    @Test
+    void disjointLoadGoesToTheDeepestLevel(@TempDir File data) throws IOException {
+        final Config config = Config.builder()
+                .flushThreshold(64 * 1024)
+                .compactionFanIn(2)
+                .compactionStyle(Config.CompactionStyle.LEVELED)
+                .build();
+        final ByteBuffer value = ByteBuffer.allocate(100);
+        // Keys above 2^16 sort after all the others
+        final List<ByteBuffer> keys = new ArrayList<>();
+        for (int i = 100_000; i < 110_000; i++) {
+            keys.add(key(i));
+        }
+        keys.sort(Comparator.naturalOrder());
+        try (DAOImpl dao = new DAOImpl(data, config)) {
+            for (int i = 0; i < 20_000; i++) {
+                dao.upsert(key(i), value);
+            }
+            dao.compact();
+            try (TableLoader load = (TableLoader) dao.bulkLoad()) {
+                for (final ByteBuffer key : keys) {
+                    load.add(key, value);
+                }
+                load.commit();
+            }
+        }
+
+        final List<SSTable> tables = open(data);
+        final int deepest = tables.stream().mapToInt(SSTable::getLevel).max().getAsInt();
+        assertTrue(deepest > 0);
+        int loaded = 0;
+        for (final SSTable table : tables) {
+            if (table.firstKey().compareTo(keys.get(0)) >= 0) {
+                assertEquals(deepest, table.getLevel());
+                loaded++;
+            }
+        }
+        assertTrue(loaded > 0);
+    }
+
+    @Test
+    void parallelCompactionSplitsKeyRanges(@TempDir File data) throws IOException {
+        final Config config = Config.builder()
+                .flushThreshold(64 * 1024)
+                .compactionFanIn(0)
+                .compactionThreads(4)
+                .compactionStyle(Config.CompactionStyle.LEVELED)
+                .build();
+        final Random random = new Random(42);
+        final ByteBuffer value = ByteBuffer.allocate(100);
+        final NavigableMap<ByteBuffer, Boolean> expected = new TreeMap<>();
+        try (DAOImpl dao = new DAOImpl(data, config)) {
+            for (int i = 0; i < 50_000; i++) {
+                final ByteBuffer key = key(random.nextInt(20_000));
+                if (random.nextInt(4) == 0) {
+                    dao.remove(key);
+                    expected.remove(key);
+                } else {
+                    dao.upsert(key, value);
+                    expected.put(key, true);
+                }
+            }
+            dao.compact();
+
+            final Iterator<Record> records = dao.iterator(ByteBuffer.allocate(0));
+            for (final ByteBuffer key : expected.keySet()) {
+                assertEquals(key, records.next().getKey());
+            }
+            assertFalse(records.hasNext());
+        }
+
+        final List<SSTable> tables = open(data);
+        assertTrue(tables.size() > 1);
+        tables.sort(Comparator.comparing(SSTable::firstKey));
+        long cells = 0;
+        for (int i = 0; i < tables.size(); i++) {
+            final SSTable table = tables.get(i);
+            assertEquals(1, table.getLevel());
+            if (i > 0) {
+                assertTrue(tables.get(i - 1).lastKey().compareTo(table.firstKey()) < 0);
+            }
+            for (final Iterator<Cell> it = table.iterator(ByteBuffer.allocate(0)); it.hasNext(); it.next()) {
+                cells++;
+            }
+        }
+        // No tombstones are left
+        assertEquals(expected.size(), cells);
+    }
+}
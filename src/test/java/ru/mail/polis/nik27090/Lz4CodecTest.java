@@ -0,0 +1,71 @@
+package ru.mail.polis.nik27090;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class Lz4CodecTest {
+    private static int roundTrip(final byte[] data) {
+        final Codec codec = Lz4Codec.INSTANCE;
+        final byte[] compressed = new byte[codec.maxCompressedLength(data.length)];
+        final int length = codec.compress(data, data.length, compressed);
+
+        // Decompress from the middle of a direct buffer as from a mapped table
+        final ByteBuffer src = ByteBuffer.allocateDirect(length + 10);
+        src.position(5);
+        src.put(compressed, 0, length);
+        final ByteBuffer dst = ByteBuffer.allocateDirect(data.length);
+        codec.decompress(src, 5, length, dst, data.length);
+        final byte[] result = new byte[data.length];
+        dst.get(result);
+        assertTrue(Arrays.equals(data, result));
+        return length;
+    }
+
+    @Test
+    void shortInputs() {
+        for (int length = 0; length < 40; length++) {
+            final byte[] data = new byte[length];
+            Arrays.fill(data, (byte) 'a');
+            roundTrip(data);
+        }
+    }
+
+    @Test
+    void incompressible() {
+        final byte[] data = new byte[100_000];
+        new Random(1).nextBytes(data);
+        assertTrue(roundTrip(data) <= Lz4Codec.INSTANCE.maxCompressedLength(data.length));
+    }
+
+    @Test
+    void repetitive() {
+        final StringBuilder json = new StringBuilder();
+        final Random random = new Random(2);
+        for (int i = 0; i < 1000; i++) {
+            json.append("{\"id\":").append(i)
+                    .append(",\"artist\":\"Artist").append(random.nextInt(50))
+                    .append("\",\"duration\":").append(random.nextInt(600))
+                    .append(",\"tags\":[\"rock\",\"live\"]}");
+        }
+        final byte[] data = json.toString().getBytes(StandardCharsets.UTF_8);
+        assertTrue(roundTrip(data) < data.length / 3);
+
+        // Long runs need length continuation bytes
+        assertTrue(roundTrip(new byte[1_000_000]) < 10_000);
+    }
+
+    @Test
+    void corrupted() {
+        final ByteBuffer src = ByteBuffer.wrap(new byte[] {0x10, 'a', 0x10, 0x00});
+        assertThrows(IllegalStateException.class,
+                () -> Lz4Codec.INSTANCE.decompress(src, 0, 4, ByteBuffer.allocate(100), 100));
+    }
+}
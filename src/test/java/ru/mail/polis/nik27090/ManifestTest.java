@@ -0,0 +1,134 @@
+package ru.mail.polis.nik27090;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ManifestTest {
+    private static final Config CONFIG = Config.builder().build();
+
+    private static ByteBuffer key(final long i) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(0, i);
+    }
+
+    private static File stage(
+            final File data,
+            final int staged,
+            final long key) throws IOException {
+        final File file = Manifest.stagedFile(data, staged);
+        try (SSTableWriter writer = new SSTableWriter(file, CONFIG, 0)) {
+            writer.add(new Cell(key(key), key(key)));
+            writer.finish();
+        }
+        return file;
+    }
+
+    private static String[] leftovers(final File data) {
+        return data.list((dir, name) -> name.contains(Manifest.STAGED) || name.endsWith(SSTable.TEMP));
+    }
+
+    @Test
+    void recoveryCompletesLoggedRenames(@TempDir File data) throws IOException {
+        try (Manifest manifest = Manifest.create(data, Collections.emptyList(), 10, Manifest.NOT_FLUSHED)) {
+            final SSTable first = SSTable.open(stage(data, 1, 1), 3);
+            final SSTable second = SSTable.open(stage(data, 2, 2), 4);
+            manifest.apply(10, Collections.emptyList(), Arrays.asList(first, second), new int[]{1, 2});
+        }
+        // Crashed after logging the edit before renaming the second table
+        Files.move(new File(data, 4 + SSTable.SUFFIX).toPath(), Manifest.stagedFile(data, 2).toPath());
+        // Crashed before logging the load of 5
+        stage(data, 5, 5);
+
+        try (DAOImpl dao = new DAOImpl(data, CONFIG)) {
+            assertEquals(key(1), dao.getIfPresent(key(1)));
+            assertEquals(key(2), dao.getIfPresent(key(2)));
+            assertNull(dao.getIfPresent(key(5)));
+        }
+        assertEquals(0, leftovers(data).length);
+    }
+
+    @Test
+    void unloggedTablesAreDeleted(@TempDir File data) throws IOException {
+        try (DAOImpl dao = new DAOImpl(data, CONFIG)) {
+            dao.upsert(key(1), key(1));
+        }
+        // Written by a compaction which crashed before logging it
+        final File orphan = new File(data, 1000 + SSTable.SUFFIX);
+        SSTable.write(orphan, Collections.singletonList(new Cell(key(1), null)).iterator(), CONFIG);
+
+        try (DAOImpl dao = new DAOImpl(data, CONFIG)) {
+            assertEquals(key(1), dao.getIfPresent(key(1)));
+        }
+        assertFalse(orphan.exists());
+    }
+
+    @Test
+    void logOfMergedTableIsNotReplayed(@TempDir File data) throws IOException {
+        final ByteBuffer stale = ByteBuffer.wrap(new byte[]{0});
+        final File[] logs;
+        final File copy;
+        try (DAOImpl dao = new DAOImpl(data, CONFIG)) {
+            dao.upsert(key(1), stale);
+            logs = data.listFiles((dir, name) -> name.endsWith(WriteAheadLog.SUFFIX));
+            assertEquals(1, logs.length);
+            copy = new File(data, logs[0].getName() + ".copy");
+            Files.copy(logs[0].toPath(), copy.toPath());
+        }
+        try (DAOImpl dao = new DAOImpl(data, CONFIG)) {
+            dao.upsert(key(1), key(1));
+            dao.compact();
+        }
+        // Crashed after merging the flushed table before deleting its log
+        Files.move(copy.toPath(), logs[0].toPath());
+
+        try (DAOImpl dao = new DAOImpl(data, CONFIG)) {
+            assertEquals(key(1), dao.getIfPresent(key(1)));
+        }
+        assertFalse(logs[0].exists());
+    }
+
+    @Test
+    void tornEditIsIgnored(@TempDir File data) throws IOException {
+        try (DAOImpl dao = new DAOImpl(data, CONFIG)) {
+            dao.upsert(key(1), key(1));
+        }
+        Files.write(
+                new File(data, Manifest.FILE).toPath(),
+                new byte[]{0, 0, 0, 42, 1, 2, 3},
+                StandardOpenOption.APPEND);
+
+        try (DAOImpl dao = new DAOImpl(data, CONFIG)) {
+            assertEquals(key(1), dao.getIfPresent(key(1)));
+            dao.upsert(key(2), key(2));
+        }
+        try (DAOImpl dao = new DAOImpl(data, CONFIG)) {
+            assertEquals(key(1), dao.getIfPresent(key(1)));
+            assertEquals(key(2), dao.getIfPresent(key(2)));
+        }
+    }
+
+    @Test
+    void storageWithoutManifestIsScanned(@TempDir File data) throws IOException {
+        try (DAOImpl dao = new DAOImpl(data, CONFIG)) {
+            dao.upsert(key(1), key(1));
+        }
+        Files.delete(new File(data, Manifest.FILE).toPath());
+
+        try (DAOImpl dao = new DAOImpl(data, CONFIG)) {
+            assertEquals(key(1), dao.getIfPresent(key(1)));
+        }
+        assertTrue(new File(data, Manifest.FILE).exists());
+    }
+}
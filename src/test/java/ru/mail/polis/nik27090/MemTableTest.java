@@ -0,0 +1,148 @@
+package ru.mail.polis.nik27090;
+
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.WriteBatch;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MemTableTest {
+    private static ByteBuffer from(final String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ByteBuffer randomBuffer(final int length) {
+        final byte[] result = new byte[length];
+        ThreadLocalRandom.current().nextBytes(result);
+        return ByteBuffer.wrap(result);
+    }
+
+    @Test
+    void sortedAsByteBuffer() {
+        final MemTable table = new MemTable(1024 * 1024, 0);
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        for (int i = 0; i < 1000; i++) {
+            final ByteBuffer key = randomBuffer(1 + ThreadLocalRandom.current().nextInt(16));
+            final ByteBuffer value = randomBuffer(8);
+            assertTrue(table.upsert(key, value, i));
+            expected.put(key, value);
+        }
+
+        final ByteBuffer middle = expected.keySet().stream().skip(500).findFirst().orElseThrow();
+        final Iterator<Cell> actual = table.iterator(middle);
+        for (final ByteBuffer key : expected.tailMap(middle).keySet()) {
+            final Cell cell = actual.next();
+            assertEquals(key, cell.getKey());
+            assertEquals(expected.get(key), cell.getValue());
+        }
+        assertFalse(actual.hasNext());
+    }
+
+    @Test
+    void overwriteAndRemove() {
+        final MemTable table = new MemTable(1024, 0);
+        assertTrue(table.upsert(from("key"), from("first"), 1));
+        assertTrue(table.upsert(from("key"), from("second"), 2));
+        assertEquals(from("second"), table.iterator(from("key")).next().getValue());
+
+        assertTrue(table.remove(from("key"), 3));
+        final Cell cell = table.iterator(from("key")).next();
+        assertTrue(cell.isTombstone());
+        assertNull(cell.getValue());
+    }
+
+    @Test
+    void greatestSequenceWins() {
+        final MemTable table = new MemTable(1024, 0);
+        assertTrue(table.upsert(from("key"), from("newer"), 2));
+        assertTrue(table.upsert(from("key"), from("older"), 1));
+        assertEquals(from("newer"), table.iterator(from("key")).next().getValue());
+    }
+
+    @Test
+    void rejectsWhenFull() {
+        final MemTable table = new MemTable(256, 0);
+        int stored = 0;
+        while (table.upsert(randomBuffer(16), randomBuffer(16), stored)) {
+            stored++;
+        }
+        assertTrue(stored > 0);
+        assertTrue(table.sizeInBytes() <= 256 + MemTable.sizeOf(ByteBuffer.allocate(0), null));
+    }
+
+    @Test
+    void versionsBySequence() {
+        final MemTable table = new MemTable(1024 * 1024, 0);
+        table.upsert(from("a"), from("1"), 1);
+        table.upsert(from("b"), from("1"), 2);
+        table.remove(from("a"), 4);
+        table.upsert(from("a"), from("3"), 5);
+        // Loses to the newer writes, but is seen as of its own sequence number
+        table.upsert(from("a"), from("2"), 3);
+
+        assertNull(table.get(from("a"), 0));
+        assertEquals(from("1"), table.get(from("a"), 2));
+        assertEquals(from("2"), table.get(from("a"), 3));
+        assertSame(Table.TOMBSTONE, table.get(from("a"), 4));
+        assertEquals(from("3"), table.get(from("a"), 5));
+        assertEquals(from("3"), table.get(from("a")));
+
+        final CellCursor cursor = table.cursor(false, 1);
+        assertTrue(cursor.seek(from("")));
+        assertEquals(from("a"), cursor.key());
+        assertEquals(from("1"), cursor.value());
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    void walkBackwardBySequence() {
+        final MemTable table = new MemTable(1024 * 1024, 0);
+        table.upsert(from("a"), from("1"), 1);
+        table.upsert(from("b"), from("1"), 3);
+        table.remove(from("c"), 2);
+        table.upsert(from("d"), from("1"), 4);
+
+        final CellCursor cursor = table.cursor(false, 2);
+        assertTrue(cursor.seekLast(null));
+        assertEquals(from("c"), cursor.key());
+        assertTrue(cursor.isTombstone());
+        // Skips the write to "b" newer than the cursor
+        assertTrue(cursor.prev());
+        assertEquals(from("a"), cursor.key());
+        assertFalse(cursor.prev());
+
+        assertTrue(cursor.seekLast(from("bb")));
+        assertEquals(from("a"), cursor.key());
+        assertFalse(cursor.seekLast(from("")));
+        assertTrue(table.cursor(false, 4).seekLast(from("d")));
+    }
+
+    @Test
+    void batchIsAllOrNothing() {
+        final MemTable table = new MemTable(1024, 0);
+        final WriteBatch batch = new WriteBatch();
+        for (int i = 0; i < 100; i++) {
+            batch.upsert(from("key" + i), randomBuffer(16));
+        }
+        assertFalse(table.apply(batch, 1));
+        assertTrue(table.isEmpty());
+
+        batch.clear();
+        batch.upsert(from("a"), from("1"))
+                .remove(from("b"))
+                .upsert(from("a"), from("2"));
+        assertTrue(table.apply(batch, 1));
+        assertEquals(from("2"), table.get(from("a")));
+        assertSame(Table.TOMBSTONE, table.get(from("b")));
+    }
+}
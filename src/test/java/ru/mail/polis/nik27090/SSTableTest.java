@@ -0,0 +1,312 @@
+package ru.mail.polis.nik27090;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SSTableTest {
+    private static final int COUNT = 10_000;
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%08d", i * 2).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static SSTable write(final File data) throws IOException {
+        final List<Cell> cells = new ArrayList<>(COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            cells.add(new Cell(key(i), i % 10 == 0 ? null : key(i)));
+        }
+        final File file = new File(data, "0" + SSTable.SUFFIX);
+        SSTable.write(file, cells.iterator(), Config.builder().blockSize(128).build());
+        return SSTable.open(file, 0);
+    }
+
+    /**
+     * Flips the bits of the byte at the given position of the file.
+     */
+    static void corrupt(
+            final File file,
+            final long position) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(1);
+            channel.read(buffer, position);
+            buffer.put(0, (byte) ~buffer.get(0));
+            channel.write(buffer.flip(), position);
+        }
+    }
+
+    @Test
+    void seekEveryKey(@TempDir File data) throws IOException {
+        final SSTable table = write(data);
+        for (int i = 0; i < COUNT; i++) {
+            // Exact key
+            final Cell exact = table.iterator(key(i)).next();
+            assertEquals(key(i), exact.getKey());
+            assertEquals(i % 10 == 0, exact.isTombstone());
+
+            // Gap before the key
+            final ByteBuffer gap = ByteBuffer.wrap(String.format("%08d", i * 2 - 1).getBytes(StandardCharsets.UTF_8));
+            assertEquals(key(i), table.iterator(gap).next().getKey());
+        }
+        assertFalse(table.iterator(key(COUNT)).hasNext());
+    }
+
+    @Test
+    void walkBackward(@TempDir File data) throws IOException {
+        final SSTable table = write(data);
+        final CellCursor cursor = table.cursor(false, Long.MAX_VALUE);
+        assertTrue(cursor.seekLast(null));
+        for (int i = COUNT - 1; i > 0; i--) {
+            assertEquals(key(i), cursor.key());
+            assertEquals(i % 10 == 0, cursor.isTombstone());
+            assertTrue(cursor.prev());
+        }
+        assertEquals(key(0), cursor.key());
+        assertFalse(cursor.prev());
+
+        for (int i = 0; i < COUNT; i++) {
+            // Exact key
+            assertTrue(cursor.seekLast(key(i)));
+            assertEquals(key(i), cursor.key());
+
+            // Gap after the key
+            final ByteBuffer gap = ByteBuffer.wrap(String.format("%08d", i * 2 + 1).getBytes(StandardCharsets.UTF_8));
+            assertTrue(cursor.seekLast(gap));
+            assertEquals(key(i), cursor.key());
+        }
+        assertFalse(cursor.seekLast(ByteBuffer.allocate(0)));
+    }
+
+    @Test
+    void getEveryKey(@TempDir File data) throws IOException {
+        final SSTable table = write(data);
+        for (int i = 0; i < COUNT; i++) {
+            final ByteBuffer value = table.get(key(i));
+            if (i % 10 == 0) {
+                assertSame(Table.TOMBSTONE, value);
+            } else {
+                assertEquals(key(i), value);
+            }
+
+            final ByteBuffer gap = ByteBuffer.wrap(String.format("%08d", i * 2 + 1).getBytes(StandardCharsets.UTF_8));
+            assertNull(table.get(gap));
+        }
+    }
+
+    @Test
+    void fullScan(@TempDir File data) throws IOException {
+        final Iterator<Cell> cells = write(data).iterator(ByteBuffer.allocate(0));
+        for (int i = 0; i < COUNT; i++) {
+            assertEquals(key(i), cells.next().getKey());
+        }
+        assertFalse(cells.hasNext());
+    }
+
+    @Test
+    void liveScan(@TempDir File data) throws IOException {
+        final Iterator<Cell> cells = write(data).liveIterator(key(5));
+        for (int i = 5; i < COUNT; i++) {
+            if (i % 10 != 0) {
+                final Cell cell = cells.next();
+                assertEquals(key(i), cell.getKey());
+                assertFalse(cell.isTombstone());
+            }
+        }
+        assertFalse(cells.hasNext());
+    }
+
+    @Test
+    void prefixCompression(@TempDir File data) throws IOException {
+        final List<Cell> cells = new ArrayList<>(COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            final String key = String.format("artist%03d:album%02d:track%02d", i / 100, i / 10 % 10, i % 10);
+            cells.add(new Cell(ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8)), key(i)));
+        }
+        final File plainFile = new File(data, "0" + SSTable.SUFFIX);
+        SSTable.write(plainFile, cells.iterator(), Config.builder()
+                .restartInterval(1)
+                .compression(Config.Compression.NONE)
+                .build());
+        final File compressedFile = new File(data, "1" + SSTable.SUFFIX);
+        SSTable.write(compressedFile, cells.iterator(), Config.builder()
+                .blockSize(256)
+                .restartInterval(4)
+                .compression(Config.Compression.NONE)
+                .build());
+        final SSTable plain = SSTable.open(plainFile, 0);
+        final SSTable compressed = SSTable.open(compressedFile, 1);
+        assertTrue(compressed.sizeInBytes() < plain.sizeInBytes() * 3 / 4);
+
+        assertEquals(cells.get(COUNT - 1).getKey(), compressed.lastKey());
+        final Iterator<Cell> scan = compressed.iterator(ByteBuffer.allocate(0));
+        for (final Cell cell : cells) {
+            assertEquals(cell.getKey(), scan.next().getKey());
+            assertEquals(cell.getValue(), compressed.get(cell.getKey()));
+            assertEquals(cell.getKey(), compressed.iterator(cell.getKey()).next().getKey());
+        }
+        assertFalse(scan.hasNext());
+    }
+
+    @Test
+    void compressedBlocks(@TempDir File data) throws IOException {
+        final List<Cell> cells = new ArrayList<>(COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            final String json = "{\"id\":" + i + ",\"title\":\"Track " + i % 100 + "\",\"tags\":[\"rock\",\"live\"]}";
+            cells.add(new Cell(key(i), ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8))));
+        }
+        final File plainFile = new File(data, "0" + SSTable.SUFFIX);
+        SSTable.write(plainFile, cells.iterator(), Config.builder().compression(Config.Compression.NONE).build());
+        final File compressedFile = new File(data, "1" + SSTable.SUFFIX);
+        SSTable.write(compressedFile, cells.iterator(), Config.builder().compression(Config.Compression.LZ4).build());
+        assertTrue(compressedFile.length() < plainFile.length() / 2);
+
+        final BlockCache cache = new BlockCache(64 * 1024);
+        for (final SSTable table : List.of(SSTable.open(compressedFile, 1), SSTable.open(compressedFile, 1, cache))) {
+            final Iterator<Cell> scan = table.iterator(ByteBuffer.allocate(0));
+            for (final Cell cell : cells) {
+                assertEquals(cell.getValue(), scan.next().getValue());
+                assertEquals(cell.getValue(), table.get(cell.getKey()));
+            }
+            assertFalse(scan.hasNext());
+        }
+    }
+
+    @Test
+    void valuesOutliveTheirBlocks(@TempDir File data) throws IOException {
+        final List<Cell> cells = new ArrayList<>(COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            // Repeated to be compressible
+            cells.add(new Cell(key(i), ByteBuffer.wrap(String.format("%08d", i).repeat(8).getBytes(StandardCharsets.UTF_8))));
+        }
+        final File plainFile = new File(data, "0" + SSTable.SUFFIX);
+        SSTable.write(plainFile, cells.iterator(), Config.builder().compression(Config.Compression.NONE).build());
+        final File compressedFile = new File(data, "1" + SSTable.SUFFIX);
+        SSTable.write(compressedFile, cells.iterator(), Config.builder().compression(Config.Compression.LZ4).build());
+
+        final SSTable plain = SSTable.open(plainFile, 0);
+        final SSTable compressed = SSTable.open(compressedFile, 1);
+        final SSTable cached = SSTable.open(plainFile, 0, new BlockCache(64 * 1024));
+        for (final SSTable table : List.of(plain, compressed, cached)) {
+            final List<ByteBuffer> values = new ArrayList<>(COUNT);
+            for (final Iterator<Cell> scan = table.iterator(ByteBuffer.allocate(0)); scan.hasNext(); ) {
+                values.add(scan.next().getValue());
+            }
+            for (int i = 0; i < COUNT; i++) {
+                assertEquals(cells.get(i).getValue(), values.get(i));
+                // Only the blocks read in place from the mapping are sliced
+                assertEquals(table == plain, values.get(i).isDirect());
+            }
+        }
+    }
+
+    @Test
+    void prefixFilter(@TempDir File data) throws IOException {
+        // Every other tenant has keys
+        final List<Cell> cells = new ArrayList<>();
+        for (int tenant = 0; tenant < 1000; tenant += 2) {
+            for (int i = 0; i < 10; i++) {
+                final String key = String.format("%04d%04d", tenant, i);
+                cells.add(new Cell(ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8)), null));
+            }
+        }
+        final PrefixExtractor extractor = PrefixExtractor.fixedLength(4);
+        final File file = new File(data, "0" + SSTable.SUFFIX);
+        SSTable.write(file, cells.iterator(), Config.builder().prefixExtractor(extractor).build());
+        final SSTable table = SSTable.open(file, 0);
+
+        int falsePositives = 0;
+        for (int tenant = 0; tenant < 1000; tenant++) {
+            final ByteBuffer prefix = ByteBuffer.wrap(String.format("%04d", tenant).getBytes(StandardCharsets.UTF_8));
+            final boolean mightContain = table.mightContainPrefix(prefix, extractor);
+            if (tenant % 2 == 0) {
+                assertTrue(mightContain);
+            } else if (mightContain) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 50, "False positives: " + falsePositives);
+
+        final ByteBuffer absent = ByteBuffer.wrap("0001".getBytes(StandardCharsets.UTF_8));
+        // Out of the key range
+        assertFalse(table.mightContainPrefix(ByteBuffer.wrap("1".getBytes(StandardCharsets.UTF_8)), null));
+        // Too short for the filter
+        assertTrue(table.mightContainPrefix(ByteBuffer.wrap("000".getBytes(StandardCharsets.UTF_8)), extractor));
+        // Written by another extractor
+        assertTrue(table.mightContainPrefix(absent, PrefixExtractor.fixedLength(3)));
+    }
+
+    @Test
+    void summaryDefersMapping(@TempDir File data) throws IOException {
+        final SSTable table = write(data);
+        final ByteBuffer summary = ByteBuffer.allocate(table.summarySize());
+        table.summarize(summary);
+        assertFalse(summary.hasRemaining());
+
+        final SSTable summarized = SSTable.fromSummary(data, summary.flip(), null, null);
+        assertEquals(table.getGeneration(), summarized.getGeneration());
+        assertEquals(table.getLevel(), summarized.getLevel());
+        assertEquals(table.sizeInBytes(), summarized.sizeInBytes());
+        assertEquals(table.tombstoneRatio(), summarized.tombstoneRatio());
+        assertEquals(key(0), summarized.firstKey());
+        assertEquals(key(COUNT - 1), summarized.lastKey());
+        assertEquals(key(1), summarized.get(key(1)));
+        assertNull(summarized.get(key(COUNT)));
+    }
+
+    @Test
+    void corruptedBlockFailsRead(@TempDir File data) throws IOException {
+        final File file = new File(data, "0" + SSTable.SUFFIX);
+        corrupt(file, write(data).blockLength(0) / 2);
+
+        final SSTable table = SSTable.open(file, 0);
+        assertThrows(UncheckedIOException.class, () -> table.get(key(1)));
+        assertFalse(table.scrub(0));
+        for (int block = 1; block < table.blockCount(); block++) {
+            assertTrue(table.scrub(block));
+        }
+        assertEquals(key(COUNT - 1), table.get(key(COUNT - 1)));
+    }
+
+    @Test
+    void corruptedIndexFailsOpen(@TempDir File data) throws IOException {
+        final File file = new File(data, "0" + SSTable.SUFFIX);
+        final SSTable table = write(data);
+        long index = 0L;
+        for (int block = 0; block < table.blockCount(); block++) {
+            index += table.blockLength(block);
+        }
+        corrupt(file, index);
+        assertThrows(IOException.class, () -> SSTable.open(file, 0));
+    }
+
+    @Test
+    void empty(@TempDir File data) throws IOException {
+        final File file = new File(data, "0" + SSTable.SUFFIX);
+        SSTable.write(file, new ArrayList<Cell>().iterator(), Config.DEFAULT);
+        assertFalse(SSTable.open(file, 0).iterator(ByteBuffer.allocate(0)).hasNext());
+    }
+
+    @Test
+    void rejectForeignFile(@TempDir File data) throws IOException {
+        final File file = new File(data, "0" + SSTable.SUFFIX);
+        assertTrue(file.createNewFile());
+        assertThrows(IOException.class, () -> SSTable.open(file, 0));
+    }
+}
@@ -0,0 +1,52 @@
+package ru.mail.polis.nik27090;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ScrubTest {
+    private static final int COUNT = 1000;
+    private static final Config CONFIG = Config.builder()
+            .blockSize(128)
+            .blockCacheSize(1024 * 1024)
+            .build();
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%08d", i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void scrubFindsCorruptedBlock(@TempDir File data) throws IOException {
+        try (DAOImpl dao = new DAOImpl(data, CONFIG)) {
+            for (int i = 0; i < COUNT; i++) {
+                dao.upsert(key(i), key(i));
+            }
+        }
+        final SSTable table;
+        try (Manifest manifest = Manifest.read(data, null, null)) {
+            assertNotNull(manifest);
+            assertEquals(1, manifest.getTables().size());
+            table = manifest.getTables().iterator().next();
+        }
+        SSTableTest.corrupt(new File(data, table.getGeneration() + SSTable.SUFFIX), 10);
+
+        try (DAOImpl dao = new DAOImpl(data, CONFIG)) {
+            // Cached when read, the scrubber skips it
+            assertEquals(key(COUNT - 1), dao.get(key(COUNT - 1)));
+            dao.scrub();
+            assertEquals(1, dao.getCorruptedBlocks());
+            assertTrue(dao.getScrubbedBlocks() > 1);
+            assertThrows(UncheckedIOException.class, () -> dao.get(key(0)));
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package ru.mail.polis.nik27090;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SequencerTest {
+    @Test
+    void visibleStopsBeforeWriteInFlight() {
+        final Sequencer sequencer = new Sequencer(10);
+        assertEquals(10, sequencer.visible());
+
+        final int slow = sequencer.enter();
+        assertEquals(11, sequencer.next(1));
+        final int batch = sequencer.enter();
+        assertEquals(12, sequencer.next(3));
+        sequencer.exit(batch);
+        assertEquals(10, sequencer.visible());
+
+        sequencer.exit(slow);
+        assertEquals(14, sequencer.visible());
+    }
+}
@@ -0,0 +1,67 @@
+package ru.mail.polis.nik27090;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SizeTieredStrategyTest {
+    private static final long MAX_SIZE = 256 * 1024;
+
+    private static ByteBuffer key(final long i) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(0, i);
+    }
+
+    @Test
+    void majorCompactionSplitsLargeResult(@TempDir File data) throws IOException {
+        final Config config = Config.builder()
+                .flushThreshold(64 * 1024)
+                .compactionFanIn(0)
+                .build();
+        final ByteBuffer value = ByteBuffer.allocate(100);
+        final NavigableSet<ByteBuffer> expected = new TreeSet<>();
+        try (DAOImpl dao = new DAOImpl(data, config, new SizeTieredStrategy(config, MAX_SIZE))) {
+            for (int i = 0; i < 20_000; i++) {
+                dao.upsert(key(i), value);
+                expected.add(key(i));
+            }
+            dao.compact();
+
+            final Iterator<Record> records = dao.iterator(ByteBuffer.allocate(0));
+            for (final ByteBuffer key : expected) {
+                assertEquals(key, records.next().getKey());
+            }
+            assertFalse(records.hasNext());
+        }
+
+        final List<SSTable> tables;
+        try (Manifest manifest = Manifest.read(data, null, null)) {
+            assertNotNull(manifest);
+            tables = new ArrayList<>(manifest.getTables());
+        }
+        assertTrue(tables.size() > 1);
+        tables.sort(Comparator.comparing(SSTable::firstKey));
+        for (int i = 0; i < tables.size(); i++) {
+            final SSTable table = tables.get(i);
+            assertEquals(1, table.getLevel());
+            assertTrue(table.sizeInBytes() <= MAX_SIZE);
+            if (i > 0) {
+                assertTrue(tables.get(i - 1).lastKey().compareTo(table.firstKey()) < 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package ru.mail.polis.nik27090;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ValueLogTest {
+    private static final int KEYS = 200;
+    private static final int VALUE_SIZE = 4 * 1024;
+
+    private static final Config CONFIG = Config.builder()
+            .flushThreshold(256 * 1024)
+            .valueThreshold(1024)
+            .compactionBytesPerSecond(0)
+            .build();
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%08d", i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ByteBuffer value(
+            final int i,
+            final int round) {
+        final ByteBuffer result = ByteBuffer.allocate(VALUE_SIZE);
+        for (int j = 0; j < VALUE_SIZE; j++) {
+            result.put(j, (byte) (i * 31 + round * 7 + j));
+        }
+        return result;
+    }
+
+    private static long size(
+            final File data,
+            final String suffix) {
+        final File[] files = data.listFiles((dir, name) -> name.endsWith(suffix));
+        long result = 0L;
+        for (final File file : files) {
+            result += file.length();
+        }
+        return result;
+    }
+
+    @Test
+    void bigValuesLiveInTheLog(@TempDir File data) throws IOException {
+        try (DAOImpl dao = new DAOImpl(data, CONFIG)) {
+            for (int i = 0; i < KEYS; i++) {
+                dao.upsert(key(i), value(i, 0));
+            }
+            dao.upsert(key(KEYS), ByteBuffer.allocate(10));
+        }
+
+        // The tables hold only the pointers
+        assertTrue(size(data, ValueLog.SUFFIX) >= (long) KEYS * VALUE_SIZE);
+        assertTrue(size(data, SSTable.SUFFIX) < (long) KEYS * VALUE_SIZE / 10);
+
+        try (DAOImpl dao = new DAOImpl(data, CONFIG)) {
+            for (int i = 0; i < KEYS; i++) {
+                assertEquals(value(i, 0), dao.get(key(i)));
+            }
+            assertEquals(ByteBuffer.allocate(10), dao.get(key(KEYS)));
+        }
+    }
+
+    @Test
+    void compactionCollectsGarbage(@TempDir File data) throws IOException {
+        final int rounds = 5;
+        try (DAOImpl dao = new DAOImpl(data, CONFIG)) {
+            for (int round = 0; round < rounds; round++) {
+                for (int i = 0; i < KEYS; i++) {
+                    dao.upsert(key(i), value(i, round));
+                }
+            }
+            for (int i = 0; i < KEYS; i += 2) {
+                dao.remove(key(i));
+            }
+
+            dao.compact();
+
+            final long live = (long) KEYS / 2 * VALUE_SIZE;
+            final long log = size(data, ValueLog.SUFFIX);
+            assertTrue(log >= live && log < 2 * live, "Log size: " + log);
+            for (int i = 0; i < KEYS; i++) {
+                if (i % 2 == 0) {
+                    final ByteBuffer key = key(i);
+                    assertThrows(NoSuchElementException.class, () -> dao.get(key));
+                } else {
+                    assertEquals(value(i, rounds - 1), dao.get(key(i)));
+                }
+            }
+        }
+
+        try (DAOImpl dao = new DAOImpl(data, CONFIG)) {
+            for (int i = 1; i < KEYS; i += 2) {
+                assertEquals(value(i, rounds - 1), dao.get(key(i)));
+            }
+        }
+    }
+
+    @Test
+    void recordsOutliveTheirFiles(@TempDir File data) throws IOException {
+        try (DAOImpl dao = new DAOImpl(data, CONFIG)) {
+            for (int i = 0; i < KEYS; i++) {
+                dao.upsert(key(i), value(i, 0));
+            }
+        }
+
+        try (DAOImpl dao = new DAOImpl(data, CONFIG)) {
+            final Iterator<Record> records = dao.iterator(ByteBuffer.allocate(0));
+            final List<Record> read = new ArrayList<>();
+            for (int i = 0; i < KEYS / 2; i++) {
+                read.add(records.next());
+            }
+
+            // The tables and the segments behind the records get deleted
+            for (int i = 0; i < KEYS; i++) {
+                dao.upsert(key(i), value(i, 1));
+            }
+            dao.compact();
+
+            for (int i = KEYS / 2; i < KEYS; i++) {
+                read.add(records.next());
+            }
+            for (int i = 0; i < KEYS; i++) {
+                assertEquals(key(i), read.get(i).getKey());
+                assertEquals(value(i, 0), read.get(i).getValue());
+            }
+        }
+    }
+
+    @Test
+    void orphanSegmentsAreDeleted(@TempDir File data) throws IOException {
+        try (DAOImpl dao = new DAOImpl(data, CONFIG)) {
+            dao.upsert(key(0), value(0, 0));
+        }
+        final File orphan = new File(data, "1000" + ValueLog.SUFFIX);
+        final File temp = new File(data, "1001" + ValueLog.SUFFIX + SSTable.TEMP);
+        Files.write(orphan.toPath(), new byte[VALUE_SIZE]);
+        Files.write(temp.toPath(), new byte[VALUE_SIZE]);
+
+        try (DAOImpl dao = new DAOImpl(data, CONFIG)) {
+            assertFalse(orphan.exists());
+            assertFalse(temp.exists());
+            assertEquals(value(0, 0), dao.get(key(0)));
+        }
+    }
+}